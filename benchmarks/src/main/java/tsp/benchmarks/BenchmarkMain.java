@@ -0,0 +1,49 @@
+package tsp.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.NoBenchmarksException;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected on the command line with the GC profiler attached, so every result comes with its
+ * allocation rate. Takes the same options as the standard JMH launcher, whose listing and help options are handled
+ * the same way.
+ */
+public class BenchmarkMain {
+    public static void main(final String[] args) throws Exception {
+        final CommandLineOptions commandLine;
+        try {
+            commandLine = new CommandLineOptions(args);
+        } catch (CommandLineOptionException e) {
+            System.err.println("Error parsing command line: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        final Runner runner = new Runner(new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class).build());
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+        } else if (commandLine.shouldList()) {
+            runner.list();
+        } else if (commandLine.shouldListWithParams()) {
+            runner.listWithParams(commandLine);
+        } else if (commandLine.shouldListProfilers()) {
+            commandLine.listProfilers();
+        } else if (commandLine.shouldListResultFormats()) {
+            commandLine.listResultFormats();
+        } else {
+            try {
+                runner.run();
+            } catch (NoBenchmarksException e) {
+                System.err.println("No benchmarks match " + commandLine.getIncludes());
+                System.exit(1);
+            } catch (RunnerException e) {
+                System.err.println("Benchmarks failed: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package tsp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solving an instance with the parallel branch and bound used as the ground truth in the tests
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BruteForceBenchmark {
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16"})
+    public String size;
+
+    private Object matrix;
+
+    @Setup
+    public void setUp() {
+        matrix = Solver.readMatrix(Instances.path(size));
+    }
+
+    @Benchmark
+    public int[] bruteForce() {
+        return Solver.bruteForce(matrix, 0);
+    }
+}
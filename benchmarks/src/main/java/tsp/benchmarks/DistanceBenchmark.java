@@ -0,0 +1,30 @@
+package tsp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Euclidean distance between two positions
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DistanceBenchmark {
+    private Object p1;
+    private Object p2;
+
+    @Setup
+    public void setUp() {
+        p1 = Solver.newPosition(14, 82);
+        p2 = Solver.newPosition(90, 67);
+    }
+
+    @Benchmark
+    public double distance() {
+        return Solver.distance(p1, p2);
+    }
+}
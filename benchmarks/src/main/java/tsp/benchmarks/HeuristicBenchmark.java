@@ -0,0 +1,53 @@
+package tsp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One heuristic evaluation for a state halfway through the tour, with the uncached MST bound of TSPHeuristics and
+ * with each Heuristic implementation
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HeuristicBenchmark {
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "problem36"})
+    public String size;
+
+    @Param({"mst", "onetree"})
+    public String heuristic;
+
+    private Object matrix;
+    private Object estimator;
+    private long visited;
+    private int currentCity;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        matrix = Solver.readMatrix(Instances.path(size));
+        final int n = Solver.size(matrix);
+        //the start city and the first half of the remaining cities have been visited
+        visited = (1L << ((n + 1) / 2)) - 1;
+        currentCity = (n - 1) / 2;
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpHeuristic() {
+        //a new instance per iteration so that memoized results don't carry over
+        estimator = Solver.newHeuristic(heuristic, matrix, 0);
+    }
+
+    @Benchmark
+    public double computeHeuristic() {
+        return Solver.computeHeuristic(matrix, visited, currentCity, 0);
+    }
+
+    @Benchmark
+    public double estimate() {
+        return Solver.estimate(estimator, visited, currentCity);
+    }
+}
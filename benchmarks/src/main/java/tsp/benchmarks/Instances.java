@@ -0,0 +1,43 @@
+package tsp.benchmarks;
+
+import java.io.File;
+
+/**
+ * Locates the randTSP instances the benchmarks run on. The directory can be given with -Dtsp.data=...; otherwise
+ * test/resources/randTSP is looked for in the working directory and its parents.
+ */
+final class Instances {
+    private static final String DATA_PROPERTY = "tsp.data";
+    private static final String DEFAULT_DIRECTORY = "test/resources/randTSP";
+
+    private Instances() {
+    }
+
+    /**
+     * @param size Number of cities (1 to 16) or the name of a named instance such as problem36
+     * @return Path of the first instance of that size
+     */
+    static String path(final String size) {
+        final File file = size.matches("\\d+")
+                ? new File(dataDirectory(), size + File.separator + "instance_1.txt")
+                : new File(dataDirectory(), size);
+        if (!file.isFile()) {
+            throw new IllegalStateException("Instance " + file + " does not exist");
+        }
+        return file.getPath();
+    }
+
+    private static File dataDirectory() {
+        final String configured = System.getProperty(DATA_PROPERTY);
+        if (configured != null) {
+            return new File(configured);
+        }
+        for (File directory = new File(System.getProperty("user.dir")).getAbsoluteFile(); directory != null; directory = directory.getParentFile()) {
+            final File candidate = new File(directory, DEFAULT_DIRECTORY);
+            if (candidate.isDirectory()) {
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("Could not find " + DEFAULT_DIRECTORY + ", set -D" + DATA_PROPERTY);
+    }
+}
@@ -0,0 +1,45 @@
+package tsp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a distance matrix over random cities, with exact and with rounded distances
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MatrixBenchmark {
+    @Param({"EUCLIDEAN", "EUC_2D"})
+    public String metric;
+
+    @Param({"500", "2000"})
+    public int numCities;
+
+    private String[] names;
+    private int[] x;
+    private int[] y;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(486);
+        names = new String[numCities];
+        x = new int[numCities];
+        y = new int[numCities];
+        for (int i = 0; i < numCities; i++) {
+            names[i] = "city" + i;
+            x[i] = random.nextInt(1000000);
+            y[i] = random.nextInt(1000000);
+        }
+    }
+
+    @Benchmark
+    public Object build() {
+        return Solver.newMatrix(names, x, y, metric);
+    }
+}
@@ -0,0 +1,68 @@
+package tsp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The open list implementations against each other: on their own, filling a list with random f values and emptying
+ * it again, and inside A* graph search on the largest randTSP instances
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OpenListBenchmark {
+    /**
+     * Number of states in the list for the standalone benchmark
+     */
+    private static final int NUM_STATES = 1 << 16;
+
+    @Param({"heap2", "heap4", "heap8", "bucket"})
+    public String openList;
+
+    @Param({"14", "16"})
+    public String size;
+
+    private Object matrix;
+    private double[] f;
+    private double[] g;
+
+    @Setup
+    public void setUp() {
+        matrix = Solver.readMatrix(Instances.path(size));
+        //f values of a search rise slowly with many ties, like tour costs that are sums of a few hundred distances
+        final Random random = new Random(486);
+        f = new double[NUM_STATES];
+        g = new double[NUM_STATES];
+        for (int i = 0; i < NUM_STATES; i++) {
+            f[i] = 300 + random.nextInt(1 << 12) / 16.0;
+            g[i] = random.nextInt(300);
+        }
+    }
+
+    private Object newOpenList() {
+        return openList.equals("bucket") ? Solver.newBucketOpenList(1.0 / 16) : Solver.newHeapOpenList(Integer.parseInt(openList.substring(4)));
+    }
+
+    @Benchmark
+    public int fillAndDrain() {
+        final Object list = newOpenList();
+        for (int i = 0; i < NUM_STATES; i++) {
+            Solver.add(list, i, f[i], g[i]);
+        }
+        int checksum = 0;
+        for (int i = 0; i < NUM_STATES; i++) {
+            checksum += Solver.poll(list);
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public int[] searchGraph() {
+        return Solver.searchGraph(matrix, 0, Solver.newHeuristic("mst", matrix, 0), newOpenList());
+    }
+}
@@ -0,0 +1,29 @@
+package tsp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solving problem36, which takes seconds per solve and is out of reach of the MST heuristic, so it is timed one
+ * solve at a time
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class Problem36Benchmark {
+    private Object matrix;
+
+    @Setup
+    public void setUp() {
+        matrix = Solver.readMatrix(Instances.path("problem36"));
+    }
+
+    @Benchmark
+    public int[] searchGraph() {
+        return Solver.searchGraph(matrix, 0, Solver.newHeuristic("onetree", matrix, 0));
+    }
+}
@@ -0,0 +1,36 @@
+package tsp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing an instance file into the city map and into a distance matrix
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReadCitiesBenchmark {
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "problem36"})
+    public String size;
+
+    private String file;
+
+    @Setup
+    public void setUp() {
+        file = Instances.path(size);
+    }
+
+    @Benchmark
+    public Object readCities() {
+        return Solver.readCities(file);
+    }
+
+    @Benchmark
+    public Object readMatrix() {
+        return Solver.readMatrix(file);
+    }
+}
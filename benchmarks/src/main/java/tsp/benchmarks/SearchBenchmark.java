@@ -0,0 +1,45 @@
+package tsp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solving an instance from scratch with A* tree search, A* graph search and partial expansion A* graph search, for each
+ * heuristic
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16"})
+    public String size;
+
+    @Param({"mst", "onetree"})
+    public String heuristic;
+
+    private Object matrix;
+
+    @Setup
+    public void setUp() {
+        matrix = Solver.readMatrix(Instances.path(size));
+    }
+
+    @Benchmark
+    public int[] search() {
+        return Solver.search(matrix, 0, Solver.newHeuristic(heuristic, matrix, 0));
+    }
+
+    @Benchmark
+    public int[] searchGraph() {
+        return Solver.searchGraph(matrix, 0, Solver.newHeuristic(heuristic, matrix, 0));
+    }
+
+    @Benchmark
+    public int[] searchPartial() {
+        return Solver.searchPartial(matrix, 0, Solver.newHeuristic(heuristic, matrix, 0));
+    }
+}
@@ -0,0 +1,277 @@
+package tsp.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Entry points of the solver, which lives in the default package.
+ * JMH only accepts benchmarks in a named package, and code in a named package cannot refer to classes in the default
+ * package by name, so the solver is looked up reflectively once. Calls through static final method handles are
+ * inlined by the JIT like direct calls, so they don't distort the measurements. Solver types are passed around as
+ * Object.
+ */
+final class Solver {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final MethodHandle READ_CITIES = erase(findStatic("TSPUtils", "readCities", Map.class, String.class));
+    private static final MethodHandle READ_MATRIX = erase(findStatic("DistanceMatrix", "fromFile", type("DistanceMatrix"), String.class));
+    private static final MethodHandle NEW_MATRIX = erase(findConstructor("DistanceMatrix", String[].class, int[].class, int[].class,
+            type("Metric")));
+    private static final MethodHandle MATRIX_SIZE = erase(findVirtual("DistanceMatrix", "size", int.class));
+    private static final MethodHandle NEW_POSITION = erase(findConstructor("Position", int.class, int.class));
+    private static final MethodHandle DISTANCE = erase(findStatic("TSPUtils", "distance", double.class, type("Position"), type("Position")));
+    private static final MethodHandle COMPUTE_HEURISTIC = erase(findStatic("TSPHeuristics", "computeHeuristic", double.class,
+            type("DistanceMatrix"), long.class, int.class, int.class));
+    private static final MethodHandle NEW_MST_HEURISTIC = erase(findConstructor("MSTHeuristic", type("DistanceMatrix"), int.class));
+    private static final MethodHandle NEW_ONE_TREE_HEURISTIC = erase(findConstructor("OneTreeHeuristic", type("DistanceMatrix"), int.class));
+    private static final MethodHandle ESTIMATE = erase(findVirtual("Heuristic", "estimate", double.class, long.class, int.class));
+    private static final MethodHandle SEARCH = erase(findStatic("TSPSearch", "search", int[].class,
+            type("DistanceMatrix"), int.class, type("Heuristic")));
+    private static final MethodHandle SEARCH_GRAPH = erase(findStatic("TSPSearch", "searchGraph", int[].class,
+            type("DistanceMatrix"), int.class, type("Heuristic")));
+    private static final MethodHandle SEARCH_PARTIAL = erase(findStatic("TSPSearch", "searchPartial", int[].class,
+            type("DistanceMatrix"), int.class, type("Heuristic"), double.class, type("SearchStats")));
+    private static final MethodHandle SEARCH_GRAPH_WITH_OPEN_LIST = erase(findStatic("TSPSearch", "searchGraph", int[].class,
+            type("DistanceMatrix"), int.class, type("Heuristic"), double.class, type("SearchStats"), int.class,
+            DoubleConsumer.class, type("OpenList")));
+    private static final MethodHandle NEW_SEARCH_STATS = erase(findConstructor("SearchStats"));
+    private static final MethodHandle LOCAL_SEARCH = erase(findStatic("TSPNearestNeighbour", "solve", int[].class,
+            type("DistanceMatrix"), int.class));
+    private static final MethodHandle TOUR_COST = erase(findVirtual("DistanceMatrix", "tourCost", double.class, int[].class));
+    private static final MethodHandle NEW_HEAP_OPEN_LIST = erase(findConstructor("HeapOpenList", int.class));
+    private static final MethodHandle NEW_BUCKET_OPEN_LIST = erase(findConstructor("BucketOpenList", double.class));
+    private static final MethodHandle OPEN_LIST_ADD = erase(findVirtual("OpenList", "add", void.class, int.class, double.class, double.class));
+    private static final MethodHandle OPEN_LIST_POLL = erase(findVirtual("OpenList", "poll", int.class));
+    private static final MethodHandle NEW_BRUTE_FORCE = erase(findConstructor("TSPBruteForce", type("DistanceMatrix"), int.class));
+    private static final MethodHandle BRUTE_FORCE_SOLVE = erase(findVirtual("TSPBruteForce", "solve", int[].class));
+
+    private Solver() {
+    }
+
+    static Object readCities(final String file) {
+        try {
+            return (Object) READ_CITIES.invokeExact((Object) file);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static Object readMatrix(final String file) {
+        try {
+            return (Object) READ_MATRIX.invokeExact((Object) file);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    /**
+     * @param metric Name of a constant of the solver's Metric enum
+     */
+    static Object newMatrix(final String[] names, final int[] x, final int[] y, final String metric) {
+        try {
+            return (Object) NEW_MATRIX.invokeExact((Object) names, (Object) x, (Object) y, metric(metric));
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object metric(final String name) {
+        return Enum.valueOf((Class) type("Metric"), name);
+    }
+
+    static int size(final Object matrix) {
+        try {
+            return (int) MATRIX_SIZE.invokeExact(matrix);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static Object newPosition(final int x, final int y) {
+        try {
+            return (Object) NEW_POSITION.invokeExact(x, y);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static double distance(final Object p1, final Object p2) {
+        try {
+            return (double) DISTANCE.invokeExact(p1, p2);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static double computeHeuristic(final Object matrix, final long visited, final int currentCity, final int startCity) {
+        try {
+            return (double) COMPUTE_HEURISTIC.invokeExact(matrix, visited, currentCity, startCity);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    /**
+     * @param name "mst" or "onetree"
+     */
+    static Object newHeuristic(final String name, final Object matrix, final int startCity) {
+        try {
+            switch (name) {
+                case "mst":
+                    return (Object) NEW_MST_HEURISTIC.invokeExact(matrix, startCity);
+                case "onetree":
+                    return (Object) NEW_ONE_TREE_HEURISTIC.invokeExact(matrix, startCity);
+                default:
+                    throw new IllegalArgumentException("Unknown heuristic " + name);
+            }
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static double estimate(final Object heuristic, final long visited, final int currentCity) {
+        try {
+            return (double) ESTIMATE.invokeExact(heuristic, visited, currentCity);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static int[] search(final Object matrix, final int startCity, final Object heuristic) {
+        try {
+            return (int[]) (Object) SEARCH.invokeExact(matrix, startCity, heuristic);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static int[] searchGraph(final Object matrix, final int startCity, final Object heuristic) {
+        try {
+            return (int[]) (Object) SEARCH_GRAPH.invokeExact(matrix, startCity, heuristic);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    /**
+     * Partial expansion A* graph search bounded by the local search tour, like searchGraph
+     */
+    static int[] searchPartial(final Object matrix, final int startCity, final Object heuristic) {
+        try {
+            final double upperBound = (double) TOUR_COST.invokeExact(matrix, (Object) LOCAL_SEARCH.invokeExact(matrix, startCity));
+            return (int[]) (Object) SEARCH_PARTIAL.invokeExact(matrix, startCity, heuristic, upperBound,
+                    (Object) NEW_SEARCH_STATS.invokeExact());
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    /**
+     * A* graph search bounded by the local search tour, like searchGraph, with the given open list
+     */
+    static int[] searchGraph(final Object matrix, final int startCity, final Object heuristic, final Object openList) {
+        try {
+            final double upperBound = (double) TOUR_COST.invokeExact(matrix, (Object) LOCAL_SEARCH.invokeExact(matrix, startCity));
+            final DoubleConsumer ignored = f -> { };
+            return (int[]) (Object) SEARCH_GRAPH_WITH_OPEN_LIST.invokeExact(matrix, startCity, heuristic, upperBound,
+                    (Object) NEW_SEARCH_STATS.invokeExact(), Integer.MAX_VALUE, (Object) ignored, openList);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static Object newHeapOpenList(final int arity) {
+        try {
+            return (Object) NEW_HEAP_OPEN_LIST.invokeExact(arity);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static Object newBucketOpenList(final double width) {
+        try {
+            return (Object) NEW_BUCKET_OPEN_LIST.invokeExact(width);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static void add(final Object openList, final int node, final double f, final double g) {
+        try {
+            OPEN_LIST_ADD.invokeExact(openList, node, f, g);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static int poll(final Object openList) {
+        try {
+            return (int) OPEN_LIST_POLL.invokeExact(openList);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static int[] bruteForce(final Object matrix, final int startCity) {
+        try {
+            final Object solver = (Object) NEW_BRUTE_FORCE.invokeExact(matrix, startCity);
+            return (int[]) (Object) BRUTE_FORCE_SOLVE.invokeExact(solver);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static Class<?> type(final String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Solver class " + name + " is not on the classpath", e);
+        }
+    }
+
+    private static MethodHandle findStatic(final String owner, final String name, final Class<?> returnType, final Class<?>... parameters) {
+        try {
+            return LOOKUP.findStatic(type(owner), name, MethodType.methodType(returnType, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Solver method " + owner + "." + name + " not found", e);
+        }
+    }
+
+    private static MethodHandle findVirtual(final String owner, final String name, final Class<?> returnType, final Class<?>... parameters) {
+        try {
+            return LOOKUP.findVirtual(type(owner), name, MethodType.methodType(returnType, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Solver method " + owner + "." + name + " not found", e);
+        }
+    }
+
+    private static MethodHandle findConstructor(final String owner, final Class<?>... parameters) {
+        try {
+            return LOOKUP.findConstructor(type(owner), MethodType.methodType(void.class, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Solver constructor of " + owner + " not found", e);
+        }
+    }
+
+    /**
+     * Widen every reference type of a handle to Object, so it can be invoked without naming solver classes. Arrays are
+     * reference types too, so call sites cast them from Object: invokeExact has to see exactly the erased type.
+     */
+    private static MethodHandle erase(final MethodHandle handle) {
+        return handle.asType(handle.type().erase());
+    }
+
+    private static RuntimeException propagate(final Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table from a search state (bitmask of visited cities, current city) to the cheapest cost
+ * to reach that state found so far. Used as the closed list of the bitmask A* search so that the same state
+ * reached through a different ordering of the same cities is only expanded when it is reached more cheaply.
+ */
+class BestCostTable {
+    private static final int EMPTY = -1;
+
+    private long[] masks;
+    private int[] cities;
+    private double[] costs;
+    private int size;
+
+    BestCostTable(final int expectedSize) {
+        final int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Record a new way of reaching a state, unless the state has already been reached at most as cheaply
+     * @param mask Bitmask of visited cities
+     * @param city Current city
+     * @param cost Cost to reach the state
+     * @return true if the cost is the best seen so far for this state, false if the state is a dominated duplicate
+     */
+    boolean offer(final long mask, final int city, final double cost) {
+        int slot = find(mask, city);
+        if (cities[slot] != EMPTY) {
+            if (costs[slot] <= cost) {
+                return false;
+            }
+            costs[slot] = cost;
+            return true;
+        }
+        if ((size + 1) * 2 > cities.length) {
+            grow();
+            slot = find(mask, city);
+        }
+        masks[slot] = mask;
+        cities[slot] = city;
+        costs[slot] = cost;
+        size++;
+        return true;
+    }
+
+    /**
+     * Forget every state, keeping the arrays for the next search
+     */
+    void clear() {
+        if (size > 0) {
+            Arrays.fill(cities, EMPTY);
+            size = 0;
+        }
+    }
+
+    /**
+     * @return Best known cost to reach the state, or positive infinity if it has never been reached
+     */
+    double get(final long mask, final int city) {
+        final int slot = find(mask, city);
+        return cities[slot] == EMPTY ? Double.POSITIVE_INFINITY : costs[slot];
+    }
+
+    /**
+     * @return Number of distinct states in the table
+     */
+    int size() {
+        return size;
+    }
+
+    private int find(final long mask, final int city) {
+        final int bitmask = cities.length - 1;
+        int slot = hash(mask, city) & bitmask;
+        while (cities[slot] != EMPTY && (cities[slot] != city || masks[slot] != mask)) {
+            slot = (slot + 1) & bitmask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        final long[] oldMasks = masks;
+        final int[] oldCities = cities;
+        final double[] oldCosts = costs;
+        allocate(oldCities.length * 2);
+        for (int i = 0; i < oldCities.length; i++) {
+            if (oldCities[i] != EMPTY) {
+                final int slot = find(oldMasks[i], oldCities[i]);
+                masks[slot] = oldMasks[i];
+                cities[slot] = oldCities[i];
+                costs[slot] = oldCosts[i];
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        masks = new long[capacity];
+        cities = new int[capacity];
+        costs = new double[capacity];
+        Arrays.fill(cities, EMPTY);
+    }
+
+    static int hash(final long mask, final int city) {
+        final long h = (mask ^ ((long) city << 58 | city)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
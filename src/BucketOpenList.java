@@ -0,0 +1,157 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Open list that sorts states into buckets by f, each bucket covering a fixed width of f values, instead of keeping
+ * them in a heap. Adding a state appends it to its bucket, and removing one scans the lowest non-empty bucket for the
+ * entry with the lowest f (and highest g), so states come out in the order of {@link HeapOpenList} except among entries
+ * with equal f and g. With a width small enough that buckets hold few states both are close to constant time, but f
+ * values spread over a wide range need many buckets: the buckets start at the lowest f added and number at most
+ * {@link #MAX_BUCKETS}, and f values beyond the last bucket share it.
+ */
+public class BucketOpenList implements OpenList {
+    /**
+     * Most buckets a list will use
+     */
+    public static final int MAX_BUCKETS = 1 << 20;
+
+    private final double width;
+    //f / width of the lower end of bucket 0
+    private long base;
+    private double[][] f = new double[16][];
+    private double[][] g = new double[16][];
+    private int[][] nodes = new int[16][];
+    private int[] sizes = new int[16];
+    //no bucket below this one holds a state
+    private int lowest;
+    private int size;
+
+    /**
+     * @param width Range of f values of each bucket
+     */
+    public BucketOpenList(final double width) {
+        if (!(width > 0)) {
+            throw new IllegalArgumentException("Bucket width must be positive, got " + width);
+        }
+        this.width = width;
+    }
+
+    @Override
+    public void add(final int node, final double f, final double g) {
+        final long key = (long) Math.floor(f / width);
+        if (size == 0) {
+            //an empty list can start its buckets anywhere
+            base = key;
+            lowest = 0;
+        } else if (key < base) {
+            //leave room below for more states with lower f than this one
+            rebase(key - Math.min(sizes.length, 1024));
+        }
+        final int bucket = (int) Math.min(key - base, MAX_BUCKETS - 1);
+        if (bucket >= sizes.length) {
+            resize(Math.min(Math.max(sizes.length * 2, bucket + 1), MAX_BUCKETS));
+        }
+        append(bucket, node, f, g);
+        lowest = Math.min(lowest, bucket);
+        size++;
+    }
+
+    @Override
+    public int poll() {
+        if (size == 0) {
+            throw new NoSuchElementException("Open list is empty");
+        }
+        while (sizes[lowest] == 0) {
+            lowest++;
+        }
+        final double[] bucketF = f[lowest];
+        final double[] bucketG = g[lowest];
+        final int[] bucketNodes = nodes[lowest];
+        final int count = sizes[lowest];
+        int best = 0;
+        for (int i = 1; i < count; i++) {
+            if (bucketF[i] < bucketF[best] || (bucketF[i] == bucketF[best] && bucketG[i] > bucketG[best])) {
+                best = i;
+            }
+        }
+        final int node = bucketNodes[best];
+        //fill the hole with the last entry of the bucket
+        bucketF[best] = bucketF[count - 1];
+        bucketG[best] = bucketG[count - 1];
+        bucketNodes[best] = bucketNodes[count - 1];
+        sizes[lowest] = count - 1;
+        size--;
+        return node;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(sizes, 0);
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "buckets of width " + width;
+    }
+
+    private void append(final int bucket, final int node, final double f, final double g) {
+        final int count = sizes[bucket];
+        if (nodes[bucket] == null) {
+            this.f[bucket] = new double[8];
+            this.g[bucket] = new double[8];
+            nodes[bucket] = new int[8];
+        } else if (count == nodes[bucket].length) {
+            this.f[bucket] = Arrays.copyOf(this.f[bucket], count * 2);
+            this.g[bucket] = Arrays.copyOf(this.g[bucket], count * 2);
+            nodes[bucket] = Arrays.copyOf(nodes[bucket], count * 2);
+        }
+        this.f[bucket][count] = f;
+        this.g[bucket][count] = g;
+        nodes[bucket][count] = node;
+        sizes[bucket] = count + 1;
+    }
+
+    private void resize(final int capacity) {
+        f = Arrays.copyOf(f, capacity);
+        g = Arrays.copyOf(g, capacity);
+        nodes = Arrays.copyOf(nodes, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+    }
+
+    /**
+     * Move the buckets up so that bucket 0 starts at a lower f; buckets pushed past the last one are merged into it
+     */
+    private void rebase(final long newBase) {
+        final long shift = base - newBase;
+        final double[][] oldF = f;
+        final double[][] oldG = g;
+        final int[][] oldNodes = nodes;
+        final int[] oldSizes = sizes;
+        final int capacity = (int) Math.min(oldSizes.length + shift, MAX_BUCKETS);
+        f = new double[capacity][];
+        g = new double[capacity][];
+        nodes = new int[capacity][];
+        sizes = new int[capacity];
+        for (int i = 0; i < oldSizes.length; i++) {
+            final int bucket = (int) Math.min(i + shift, capacity - 1);
+            if (sizes[bucket] == 0 && nodes[bucket] == null) {
+                f[bucket] = oldF[i];
+                g[bucket] = oldG[i];
+                nodes[bucket] = oldNodes[i];
+                sizes[bucket] = oldSizes[i];
+            } else {
+                for (int j = 0; j < oldSizes[i]; j++) {
+                    append(bucket, oldNodes[i][j], oldF[i][j], oldG[i][j]);
+                }
+            }
+        }
+        base = newBase;
+        lowest = (int) Math.min(lowest + shift, capacity - 1);
+    }
+}
@@ -0,0 +1,132 @@
+import java.util.*;
+
+/**
+ * Coordinates of the cities of an instance as parallel arrays, in the order they appear in the input file.
+ * City i is at (x[i], y[i]). Cities read from the course format keep their names; cities read from a TSPLIB file are
+ * named after their node number, which is only turned into a string when a name is asked for.
+ * Distances follow a {@link Metric}, straight-line unless the cities were made with another.
+ */
+public class Cities implements Distances {
+    public final int[] x;
+    public final int[] y;
+    //null for TSPLIB instances, whose city i is node i + 1
+    private final String[] names;
+    private final Metric metric;
+
+    /**
+     * @param names City names, or null to name city i after node number i + 1
+     * @param x x coordinates
+     * @param y y coordinates
+     */
+    public Cities(final String[] names, final int[] x, final int[] y) {
+        this(names, x, y, Metric.EUCLIDEAN);
+    }
+
+    /**
+     * @param names City names, or null to name city i after node number i + 1
+     * @param x x coordinates
+     * @param y y coordinates
+     * @param metric How distances are computed from the coordinates
+     */
+    public Cities(final String[] names, final int[] x, final int[] y, final Metric metric) {
+        if (x.length != y.length || (names != null && names.length != x.length)) {
+            throw new IllegalArgumentException("Names and coordinates must have the same length");
+        }
+        this.names = names;
+        this.x = x;
+        this.y = y;
+        this.metric = metric;
+    }
+
+    @Override
+    public int size() {
+        return x.length;
+    }
+
+    /**
+     * Distances are computed from the coordinates on every call, so no matrix is needed however many cities there are
+     */
+    @Override
+    public double distance(final int from, final int to) {
+        return metric.distance(x[from], y[from], x[to], y[to]);
+    }
+
+    /**
+     * Distances from a city to every city, computed several at a time
+     * @param from id of the city
+     * @param row Where the distance to city i goes, at index i
+     */
+    public void distances(final int from, final double[] row) {
+        metric.distances(x[from], y[from], x, y, 0, size(), row, 0);
+    }
+
+    public Metric metric() {
+        return metric;
+    }
+
+    /**
+     * @param metric How distances are computed
+     * @return The same cities, sharing the coordinates, with distances computed with the given metric
+     */
+    public Cities withMetric(final Metric metric) {
+        return new Cities(names, x, y, metric);
+    }
+
+    /**
+     * @param i Index of a city in file order
+     * @return Name of the city
+     */
+    public String name(final int i) {
+        return names == null ? Integer.toString(i + 1) : names[i];
+    }
+
+    /**
+     * @return Names of all cities, indexed like the coordinates
+     */
+    public String[] names() {
+        final String[] all = new String[size()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = name(i);
+        }
+        return all;
+    }
+
+    /**
+     * @return The same cities with indices in alphabetical order of their names, the order {@link DistanceMatrix}
+     * assigns ids in. TSPLIB cities are already in node order and are returned as they are.
+     */
+    public Cities sortedByName() {
+        if (names == null) {
+            return this;
+        }
+        final int n = size();
+        final Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> names[i].compareTo(names[j]));
+        final String[] sortedNames = new String[n];
+        final int[] sortedX = new int[n];
+        final int[] sortedY = new int[n];
+        for (int i = 0; i < n; i++) {
+            sortedNames[i] = names[order[i]];
+            sortedX[i] = x[order[i]];
+            sortedY[i] = y[order[i]];
+        }
+        return new Cities(sortedNames, sortedX, sortedY, metric);
+    }
+
+    /**
+     * @return Map from city name to coordinates
+     * @throws IllegalArgumentException if two cities have the same name
+     */
+    public Map<String, Position> toMap() {
+        final Map<String, Position> cities = new HashMap<>(size() * 2);
+        for (int i = 0; i < size(); i++) {
+            if (cities.put(name(i), new Position(x[i], y[i])) != null) {
+                throw new IllegalArgumentException("Duplicate city " + name(i));
+            }
+        }
+        return cities;
+    }
+}
@@ -0,0 +1,382 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reads instance files into {@link Cities}. Two formats are understood:
+ * <ul>
+ *     <li>the course format: the number of cities on the first line, then one line "name x y" per city</li>
+ *     <li>TSPLIB files with EDGE_WEIGHT_TYPE EUC_2D: a header of "KEY : value" lines, then NODE_COORD_SECTION with
+ *     one line "node x y" per node numbered 1 to DIMENSION, optionally followed by EOF. Their cities use
+ *     {@link Metric#EUC_2D}, as the format defines.</li>
+ * </ul>
+ * The file is memory mapped and scanned byte by byte, and numbers are accumulated straight from the digits, so the
+ * only objects created per city are the names of the course format. Anything that does not match the format, such
+ * as a missing or extra city, a coordinate that is not an integer or does not fit in an int, or a city named or
+ * numbered twice, is reported with its line number instead of being skipped.
+ */
+public class CityParser {
+    private final String file;
+    private final MappedByteBuffer buffer;
+    private final int limit;
+    private int position;
+    private int line = 1;
+
+    private CityParser(final String file, final MappedByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+    }
+
+    /**
+     * @param file location of the input file on disk
+     * @return The cities in the file, in file order
+     * @throws UncheckedIOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is malformed
+     */
+    public static Cities parse(final String file) {
+        final Path path = Paths.get(file);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(file + ": files over 2GB are not supported, got " + size + " bytes");
+            }
+            return new CityParser(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, size)).parse();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + file, e);
+        }
+    }
+
+    private Cities parse() {
+        skipBlankLines();
+        if (position >= limit) {
+            throw error("empty file");
+        }
+        //the course format starts with a bare number, TSPLIB with a keyword
+        return isDigit(peek()) ? parseCourseFormat() : parseTSPLIB();
+    }
+
+    private Cities parseCourseFormat() {
+        final int n = readInt("number of cities");
+        endLine();
+        if (n < 1) {
+            throw error("expected at least one city, got " + n);
+        }
+        final String[] names = new String[n];
+        final int[] x = new int[n];
+        final int[] y = new int[n];
+        final Set<String> seen = new HashSet<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            skipBlankLines();
+            if (position >= limit) {
+                throw error("expected " + n + " cities, found " + i);
+            }
+            names[i] = readToken("city name");
+            if (!seen.add(names[i])) {
+                throw error("city " + names[i] + " appears twice");
+            }
+            x[i] = readInt("x coordinate");
+            y[i] = readInt("y coordinate");
+            endLine();
+        }
+        skipBlankLines();
+        if (position < limit) {
+            throw error("expected " + n + " cities, found more");
+        }
+        return new Cities(names, x, y);
+    }
+
+    private Cities parseTSPLIB() {
+        int n = -1;
+        boolean euclidean = false;
+        while (true) {
+            skipBlankLines();
+            if (position >= limit) {
+                throw error("missing NODE_COORD_SECTION");
+            }
+            final String key = readKey();
+            if (key.equals("NODE_COORD_SECTION")) {
+                endLine();
+                break;
+            }
+            skipSpaces();
+            if (peek() == ':') {
+                position++;
+            }
+            skipSpaces();
+            final String value = restOfLine();
+            switch (key) {
+                case "TYPE":
+                    if (!value.equals("TSP")) {
+                        throw error("only TYPE TSP is supported, got " + value);
+                    }
+                    break;
+                case "DIMENSION":
+                    try {
+                        n = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        throw error("expected DIMENSION to be a number, got " + value);
+                    }
+                    if (n < 1) {
+                        throw error("expected at least one city, got " + n);
+                    }
+                    break;
+                case "EDGE_WEIGHT_TYPE":
+                    if (!value.equals("EUC_2D")) {
+                        throw error("only EDGE_WEIGHT_TYPE EUC_2D is supported, got " + value);
+                    }
+                    euclidean = true;
+                    break;
+                case "NODE_COORD_TYPE":
+                    if (!value.equals("TWOD_COORDS")) {
+                        throw error("only NODE_COORD_TYPE TWOD_COORDS is supported, got " + value);
+                    }
+                    break;
+                default:
+                    //NAME, COMMENT, DISPLAY_DATA_TYPE and the like don't affect the coordinates
+                    break;
+            }
+            line++;
+        }
+        if (n < 0) {
+            throw error("missing DIMENSION before NODE_COORD_SECTION");
+        }
+        if (!euclidean) {
+            throw error("missing EDGE_WEIGHT_TYPE before NODE_COORD_SECTION");
+        }
+        final int[] x = new int[n];
+        final int[] y = new int[n];
+        final boolean[] seen = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            skipBlankLines();
+            if (position >= limit || !isDigit(peek())) {
+                throw error("expected " + n + " nodes, found " + i);
+            }
+            final int node = readInt("node number");
+            if (node < 1 || node > n) {
+                throw error("node number " + node + " is outside 1 to " + n);
+            }
+            if (seen[node - 1]) {
+                throw error("node " + node + " appears twice");
+            }
+            seen[node - 1] = true;
+            x[node - 1] = readInt("x coordinate");
+            y[node - 1] = readInt("y coordinate");
+            endLine();
+        }
+        skipBlankLines();
+        if (position < limit) {
+            final String key = readKey();
+            if (!key.equals("EOF")) {
+                throw error("expected EOF after " + n + " nodes, got " + key);
+            }
+            endLine();
+            skipBlankLines();
+            if (position < limit) {
+                throw error("unexpected content after EOF");
+            }
+        }
+        return new Cities(null, x, y, Metric.EUC_2D);
+    }
+
+    /**
+     * Read a number that has an integral value, in plain, decimal or scientific notation ("42", "42.000", "4.2e+01")
+     */
+    private int readInt(final String what) {
+        skipSpaces();
+        final int start = position;
+        boolean negative = false;
+        if (peek() == '-' || peek() == '+') {
+            negative = buffer.get(position++) == '-';
+        }
+        long mantissa = 0;
+        int digits = 0;
+        boolean sawDigit = false;
+        int scale = 0;
+        boolean fraction = false;
+        while (position < limit) {
+            final byte b = buffer.get(position);
+            if (isDigit(b)) {
+                sawDigit = true;
+                //leading zeros don't count towards the precision
+                if (mantissa != 0 || b != '0') {
+                    if (++digits > 18) {
+                        throw error("too many digits in " + what);
+                    }
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (fraction) {
+                    scale--;
+                }
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+            position++;
+        }
+        if (!sawDigit) {
+            throw error("expected " + what + ", got " + token(start));
+        }
+        if (position < limit && (peek() == 'e' || peek() == 'E')) {
+            position++;
+            boolean negativeExponent = false;
+            if (peek() == '-' || peek() == '+') {
+                negativeExponent = buffer.get(position++) == '-';
+            }
+            if (!isDigit(peek())) {
+                throw error("malformed exponent in " + what + " " + token(start));
+            }
+            int exponent = 0;
+            while (position < limit && isDigit(peek())) {
+                exponent = Math.min(exponent * 10 + (buffer.get(position++) - '0'), 1000);
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (position < limit && !isSpace(peek()) && !isLineEnd(peek())) {
+            throw error("expected " + what + ", got " + token(start));
+        }
+        for (; scale < 0; scale++) {
+            if (mantissa % 10 != 0) {
+                throw error(what + " " + token(start) + " is not an integer");
+            }
+            mantissa /= 10;
+        }
+        for (; scale > 0 && mantissa != 0; scale--) {
+            if (mantissa > Integer.MAX_VALUE) {
+                throw error(what + " " + token(start) + " does not fit in an int");
+            }
+            mantissa *= 10;
+        }
+        final long value = negative ? -mantissa : mantissa;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw error(what + " " + token(start) + " does not fit in an int");
+        }
+        return (int) value;
+    }
+
+    private String readToken(final String what) {
+        skipSpaces();
+        final int start = position;
+        while (position < limit && !isSpace(peek()) && !isLineEnd(peek())) {
+            position++;
+        }
+        if (position == start) {
+            throw error("expected " + what);
+        }
+        return string(start, position);
+    }
+
+    /**
+     * Read a TSPLIB keyword, which ends at a space, a colon or the end of the line
+     */
+    private String readKey() {
+        final int start = position;
+        while (position < limit && !isSpace(peek()) && !isLineEnd(peek()) && peek() != ':') {
+            position++;
+        }
+        return string(start, position);
+    }
+
+    private String restOfLine() {
+        final int start = position;
+        while (position < limit && !isLineEnd(peek())) {
+            position++;
+        }
+        final String value = string(start, position).trim();
+        if (position < limit && peek() == '\r') {
+            position++;
+        }
+        if (position < limit) {
+            position++;
+        }
+        return value;
+    }
+
+    /**
+     * Consume the rest of the line, which may only hold spaces
+     */
+    private void endLine() {
+        skipSpaces();
+        if (position < limit && peek() == '\r') {
+            position++;
+        }
+        if (position < limit) {
+            if (peek() != '\n') {
+                throw error("unexpected " + token(position) + " at the end of the line");
+            }
+            position++;
+            line++;
+        }
+    }
+
+    private void skipBlankLines() {
+        while (true) {
+            final int start = position;
+            skipSpaces();
+            if (position < limit && peek() == '\r') {
+                position++;
+            }
+            if (position < limit && peek() == '\n') {
+                position++;
+                line++;
+            } else {
+                position = start;
+                skipSpaces();
+                return;
+            }
+        }
+    }
+
+    private void skipSpaces() {
+        while (position < limit && isSpace(peek())) {
+            position++;
+        }
+    }
+
+    private byte peek() {
+        return position < limit ? buffer.get(position) : 0;
+    }
+
+    /**
+     * @return The whitespace delimited token starting at the given offset, for error messages
+     */
+    private String token(final int start) {
+        int end = start;
+        while (end < limit && end - start < 40 && !isSpace(buffer.get(end)) && !isLineEnd(buffer.get(end))) {
+            end++;
+        }
+        return end == start ? "end of line" : "\"" + string(start, end) + "\"";
+    }
+
+    private String string(final int start, final int end) {
+        final byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private IllegalArgumentException error(final String message) {
+        return new IllegalArgumentException(file + ":" + line + ": " + message);
+    }
+
+    private static boolean isDigit(final byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isSpace(final byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static boolean isLineEnd(final byte b) {
+        return b == '\n' || b == '\r';
+    }
+}
@@ -0,0 +1,177 @@
+import java.util.*;
+
+/**
+ * Precomputed distances between every pair of cities of a TSP instance.
+ * Cities are given dense int ids (in alphabetical order of their names, so the ids follow the same order the
+ * search has always used to generate successors) and distances are kept in a flat row-major array.
+ * City names are only needed again when a tour is turned back into a path for printing.
+ */
+public class DistanceMatrix implements Distances {
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    private final int[] x;
+    private final int[] y;
+    private final double[] distances;
+
+    /**
+     * Build the distance matrix for the given cities
+     * @param cities Map from city name to coordinates
+     */
+    public DistanceMatrix(final Map<String, Position> cities) {
+        this(sortedNames(cities), cities);
+    }
+
+    private DistanceMatrix(final String[] names, final Map<String, Position> cities) {
+        this(names, xCoordinates(names, cities), yCoordinates(names, cities));
+    }
+
+    /**
+     * Build the distance matrix for cities given as parallel arrays. City i has name names[i] and coordinates
+     * (x[i], y[i]).
+     * @param names City names, indexed by id
+     * @param x x coordinates, indexed by id
+     * @param y y coordinates, indexed by id
+     */
+    public DistanceMatrix(final String[] names, final int[] x, final int[] y) {
+        this(names, x, y, Metric.EUCLIDEAN);
+    }
+
+    /**
+     * Build the distance matrix for cities given as parallel arrays, with distances computed with the given metric
+     * @param names City names, indexed by id
+     * @param x x coordinates, indexed by id
+     * @param y y coordinates, indexed by id
+     * @param metric How distances are computed from the coordinates
+     */
+    public DistanceMatrix(final String[] names, final int[] x, final int[] y, final Metric metric) {
+        this(names, x, y, metric, new double[names.length * names.length]);
+    }
+
+    /**
+     * Build the distance matrix into a given array rather than a new one, so that a caller building many matrices
+     * can reuse one array; the matrix owns the array for as long as it is used
+     * @param buffer Where the distances go; at least names.length squared elements
+     */
+    DistanceMatrix(final String[] names, final int[] x, final int[] y, final Metric metric, final double[] buffer) {
+        if (names.length != x.length || names.length != y.length) {
+            throw new IllegalArgumentException("Names and coordinates must have the same length");
+        }
+        final int n = names.length;
+        if (buffer.length < n * n) {
+            throw new IllegalArgumentException("Buffer of " + buffer.length + " distances cannot hold " + n + " cities");
+        }
+        this.names = names;
+        this.x = x;
+        this.y = y;
+        this.ids = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            if (ids.put(names[i], i) != null) {
+                throw new IllegalArgumentException("Duplicate city " + names[i]);
+            }
+        }
+        this.distances = buffer;
+        for (int i = 0; i < n; i++) {
+            //whole rows are written in order by the batch kernel, which beats computing half and mirroring it
+            metric.distances(x[i], y[i], x, y, 0, n, distances, i * n);
+        }
+    }
+
+    /**
+     * Read an input file from disk and build its distance matrix
+     * @param dataFile location of the input file on disk
+     * @return Distance matrix of the cities in the file
+     */
+    public static DistanceMatrix fromFile(final String dataFile) {
+        return fromCities(CityParser.parse(dataFile));
+    }
+
+    /**
+     * Build the distance matrix for cities read by {@link CityParser}. As with a map of cities, ids are assigned in
+     * alphabetical order of name, except that TSPLIB cities keep their node order. Distances follow the metric of
+     * the cities.
+     * @param cities Coordinates of the cities
+     * @return Distance matrix of the cities
+     */
+    public static DistanceMatrix fromCities(final Cities cities) {
+        final Cities sorted = cities.sortedByName();
+        return new DistanceMatrix(sorted.names(), sorted.x, sorted.y, sorted.metric());
+    }
+
+    @Override
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @param from id of the first city
+     * @param to id of the second city
+     * @return Distance between the two cities
+     */
+    @Override
+    public double distance(final int from, final int to) {
+        return distances[from * names.length + to];
+    }
+
+    /**
+     * @param name City name
+     * @return Dense id of the city
+     */
+    public int id(final String name) {
+        final Integer id = ids.get(name);
+        if (id == null) {
+            throw new IllegalArgumentException("Unknown city " + name);
+        }
+        return id;
+    }
+
+    /**
+     * @param id Dense id of a city
+     * @return Name of the city
+     */
+    public String name(final int id) {
+        return names[id];
+    }
+
+    public int x(final int id) {
+        return x[id];
+    }
+
+    public int y(final int id) {
+        return y[id];
+    }
+
+    /**
+     * Translate a tour of city ids back into city names
+     * @param tour City ids in visiting order
+     * @return City names in visiting order
+     */
+    public List<String> toNames(final int[] tour) {
+        final List<String> path = new ArrayList<>(tour.length);
+        for (final int city : tour) {
+            path.add(names[city]);
+        }
+        return path;
+    }
+
+    private static String[] sortedNames(final Map<String, Position> cities) {
+        final String[] names = cities.keySet().toArray(new String[cities.size()]);
+        Arrays.sort(names);
+        return names;
+    }
+
+    private static int[] xCoordinates(final String[] names, final Map<String, Position> cities) {
+        final int[] x = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            x[i] = cities.get(names[i]).x;
+        }
+        return x;
+    }
+
+    private static int[] yCoordinates(final String[] names, final Map<String, Position> cities) {
+        final int[] y = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            y[i] = cities.get(names[i]).y;
+        }
+        return y;
+    }
+}
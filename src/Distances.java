@@ -0,0 +1,29 @@
+/**
+ * Symmetric distances between the cities of an instance, which have dense ids 0 to size() - 1
+ */
+public interface Distances {
+
+    /**
+     * @return Number of cities
+     */
+    int size();
+
+    /**
+     * @param from id of the first city
+     * @param to id of the second city
+     * @return Distance between the two cities
+     */
+    double distance(int from, int to);
+
+    /**
+     * @param tour City ids in visiting order
+     * @return Sum of the distances between consecutive cities of the tour
+     */
+    default double tourCost(final int[] tour) {
+        double cost = 0;
+        for (int i = 1; i < tour.length; i++) {
+            cost += distance(tour[i - 1], tour[i]);
+        }
+        return cost;
+    }
+}
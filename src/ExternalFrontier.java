@@ -0,0 +1,476 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+/**
+ * Open list of an A* search that holds the states themselves rather than handles, and keeps only as many of them in
+ * memory as a byte budget allows. The rest are spilled to disk, so a search whose frontier outgrows the heap slows
+ * down instead of failing.
+ * States are records of the visited cities, the current city, the cost to reach the state, its heuristic estimate and
+ * the handle of its parent. They live in an in-memory binary heap until it is full; then the half of the heap with
+ * the highest f is sorted and written to a file as a run of fixed-size binary records, and the heap keeps the better
+ * half. Runs are memory mapped, and a state is taken from whichever of the heap and the heads of the runs comes first,
+ * which merges them back in f order as the search goes on. Ties on f go to the higher cost, as in {@link OpenList}.
+ * Once there are more than {@link #MAX_RUNS} runs, the smallest are merged into one, which keeps both the cost of a
+ * poll and the number of mappings bounded however long the search runs.
+ * Run files are deleted as soon as they are mapped, so nothing is left on disk if the process dies. Exhausted, merged
+ * and closed runs are unmapped at once where the JVM allows it, and otherwise when the garbage collector frees them.
+ * Frontiers are not thread safe.
+ */
+public class ExternalFrontier implements Closeable {
+    /**
+     * Size of a state, in memory and on disk
+     */
+    static final int RECORD_BYTES = Long.BYTES + Integer.BYTES + Double.BYTES + Double.BYTES + Integer.BYTES;
+    /**
+     * Fewest states the in-memory heap holds, whatever the budget
+     */
+    private static final int MIN_CAPACITY = 1024;
+    /**
+     * Most runs kept before some are merged
+     */
+    static final int MAX_RUNS = 16;
+    /**
+     * Most runs merged at once
+     */
+    private static final int MERGE_WIDTH = 8;
+    /**
+     * Largest run, so that it can be mapped in one piece
+     */
+    private static final long MAX_RUN_BYTES = Integer.MAX_VALUE / RECORD_BYTES * RECORD_BYTES;
+    //sun.misc.Unsafe and its invokeCleaner, to unmap a run without waiting for the garbage collector; null if the JVM
+    //has no such thing
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            final Class<?> type = Class.forName("sun.misc.Unsafe");
+            final Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            //mappings are left to the garbage collector
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final Path directory;
+    private final int capacity;
+    //the in-memory heap, as parallel arrays ordered by f = costs + estimates
+    private long[] masks;
+    private int[] cities;
+    private double[] costs;
+    private double[] estimates;
+    private int[] parents;
+    private int heapSize;
+    //spilled and merged runs, each sorted by f; exhausted runs are dropped
+    private Run[] runs = new Run[0];
+    private long size;
+    private long numSpilled;
+    private int numRunsWritten;
+    //the state last taken off the frontier
+    private long mask;
+    private int city;
+    private double cost;
+    private double estimate;
+    private int parent;
+
+    /**
+     * @param budgetBytes Memory the in-memory heap may use
+     * @param directory Where run files are written
+     */
+    public ExternalFrontier(final long budgetBytes, final Path directory) {
+        this.directory = directory;
+        this.capacity = (int) Math.max(MIN_CAPACITY, Math.min(Integer.MAX_VALUE - 8, budgetBytes / RECORD_BYTES));
+        final int initial = Math.min(capacity, 1 << 12);
+        masks = new long[initial];
+        cities = new int[initial];
+        costs = new double[initial];
+        estimates = new double[initial];
+        parents = new int[initial];
+    }
+
+    /**
+     * @param mask Bitmask of visited cities
+     * @param city Current city
+     * @param cost Cost to reach the state
+     * @param estimate Heuristic estimate of the cost to complete the tour
+     * @param parent Handle of the state this one was generated from
+     * @throws UncheckedIOException if the heap is full and a run cannot be written
+     */
+    public void add(final long mask, final int city, final double cost, final double estimate, final int parent) {
+        if (heapSize == capacity) {
+            spill();
+        } else if (heapSize == masks.length) {
+            final int grown = (int) Math.min(capacity, masks.length * 2L);
+            masks = Arrays.copyOf(masks, grown);
+            cities = Arrays.copyOf(cities, grown);
+            costs = Arrays.copyOf(costs, grown);
+            estimates = Arrays.copyOf(estimates, grown);
+            parents = Arrays.copyOf(parents, grown);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            final int up = (i - 1) / 2;
+            if (!before(cost + estimate, cost, costs[up] + estimates[up], costs[up])) {
+                break;
+            }
+            move(up, i);
+            i = up;
+        }
+        set(i, mask, city, cost, estimate, parent);
+        size++;
+    }
+
+    /**
+     * Take the state with the lowest f, and among those the highest cost, off the frontier; its fields are then
+     * available from {@link #mask()} and the like until the next poll
+     * @throws NoSuchElementException if the frontier is empty
+     */
+    public void poll() {
+        if (size == 0) {
+            throw new NoSuchElementException("Frontier is empty");
+        }
+        int bestRun = -1;
+        for (int r = 0; r < runs.length; r++) {
+            if (bestRun == -1 || before(runs[r].f(), runs[r].cost(), runs[bestRun].f(), runs[bestRun].cost())) {
+                bestRun = r;
+            }
+        }
+        if (bestRun != -1 && (heapSize == 0 || before(runs[bestRun].f(), runs[bestRun].cost(), costs[0] + estimates[0], costs[0]))) {
+            final Run run = runs[bestRun];
+            mask = run.mask();
+            city = run.city();
+            cost = run.cost();
+            estimate = run.estimate();
+            parent = run.parent();
+            if (!run.next()) {
+                run.unmap();
+                runs[bestRun] = runs[runs.length - 1];
+                runs = Arrays.copyOf(runs, runs.length - 1);
+            }
+        } else {
+            mask = masks[0];
+            city = cities[0];
+            cost = costs[0];
+            estimate = estimates[0];
+            parent = parents[0];
+            heapSize--;
+            if (heapSize > 0) {
+                siftDown(heapSize);
+            }
+        }
+        size--;
+    }
+
+    public long mask() {
+        return mask;
+    }
+
+    public int city() {
+        return city;
+    }
+
+    public double cost() {
+        return cost;
+    }
+
+    public double estimate() {
+        return estimate;
+    }
+
+    public int parent() {
+        return parent;
+    }
+
+    /**
+     * @return Number of states on the frontier, in memory and on disk
+     */
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return Number of states written to disk so far
+     */
+    public long getNumSpilled() {
+        return numSpilled;
+    }
+
+    /**
+     * @return Number of runs spilled so far, not counting those written by merges
+     */
+    public int getNumRuns() {
+        return numRunsWritten;
+    }
+
+    /**
+     * @return Number of runs holding states now
+     */
+    int getNumOpenRuns() {
+        return runs.length;
+    }
+
+    /**
+     * Drop every state, releasing the runs
+     */
+    @Override
+    public void close() {
+        for (final Run run : runs) {
+            run.unmap();
+        }
+        runs = new Run[0];
+        heapSize = 0;
+        size = 0;
+    }
+
+    /**
+     * Write the worse half of the heap to a new run and keep the better half. The heap is heapsorted in place, so a
+     * spill needs no memory beyond the heap itself.
+     */
+    private void spill() {
+        final int n = heapSize;
+        //repeatedly move the root behind the shrinking heap, which leaves the array sorted by descending f
+        for (int end = n - 1; end > 0; end--) {
+            final long rootMask = masks[0];
+            final int rootCity = cities[0];
+            final double rootCost = costs[0];
+            final double rootEstimate = estimates[0];
+            final int rootParent = parents[0];
+            heapSize = end;
+            siftDown(end);
+            set(end, rootMask, rootCity, rootCost, rootEstimate, rootParent);
+        }
+        for (int i = 0, j = n - 1; i < j; i++, j--) {
+            swap(i, j);
+        }
+        //ascending order is a valid heap, so the first half stays as it is
+        final int keep = n / 2;
+        final int spilled = n - keep;
+        final MappedByteBuffer buffer;
+        try {
+            buffer = map((long) spilled * RECORD_BYTES);
+        } catch (IOException e) {
+            heapSize = n;
+            throw new UncheckedIOException("Could not spill the frontier to " + directory, e);
+        }
+        for (int i = keep; i < n; i++) {
+            buffer.putLong(masks[i]).putInt(cities[i]).putDouble(costs[i]).putDouble(estimates[i]).putInt(parents[i]);
+        }
+        buffer.flip();
+        runs = Arrays.copyOf(runs, runs.length + 1);
+        runs[runs.length - 1] = new Run(buffer);
+        heapSize = keep;
+        numSpilled += spilled;
+        numRunsWritten++;
+        if (runs.length > MAX_RUNS) {
+            merge();
+        }
+    }
+
+    /**
+     * Merge the smallest runs into one, as many as {@link #MERGE_WIDTH} of them that fit in {@link #MAX_RUN_BYTES}.
+     * Merging the smallest makes the runs grow in tiers, so a state is rewritten about log(runs) times.
+     */
+    private void merge() {
+        Arrays.sort(runs, Comparator.comparingLong(Run::remainingBytes));
+        int count = 0;
+        long bytes = 0;
+        while (count < Math.min(MERGE_WIDTH, runs.length) && bytes + runs[count].remainingBytes() <= MAX_RUN_BYTES) {
+            bytes += runs[count].remainingBytes();
+            count++;
+        }
+        if (count < 2) {
+            //every run is too large to merge with another; there can only be a few of them
+            return;
+        }
+        final MappedByteBuffer buffer;
+        try {
+            buffer = map(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not merge the runs of the frontier in " + directory, e);
+        }
+        final Run[] merged = Arrays.copyOf(runs, count);
+        int live = count;
+        while (live > 0) {
+            int best = 0;
+            for (int r = 1; r < live; r++) {
+                if (before(merged[r].f(), merged[r].cost(), merged[best].f(), merged[best].cost())) {
+                    best = r;
+                }
+            }
+            merged[best].copyTo(buffer);
+            if (!merged[best].next()) {
+                merged[best].unmap();
+                merged[best] = merged[--live];
+            }
+        }
+        buffer.flip();
+        runs = Arrays.copyOfRange(runs, count - 1, runs.length);
+        runs[0] = new Run(buffer);
+    }
+
+    /**
+     * @return A new mapping of the given size, on a file that is already deleted
+     */
+    private MappedByteBuffer map(final long bytes) throws IOException {
+        final Path file = Files.createTempFile(directory, "frontier", ".run");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        } finally {
+            //the mapping outlives the file name, and nothing is left behind if the search dies
+            Files.delete(file);
+        }
+    }
+
+    private void siftDown(final int last) {
+        final long lastMask = masks[last];
+        final int lastCity = cities[last];
+        final double lastCost = costs[last];
+        final double lastEstimate = estimates[last];
+        final int lastParent = parents[last];
+        final double lastF = lastCost + lastEstimate;
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && before(costs[child + 1] + estimates[child + 1], costs[child + 1],
+                    costs[child] + estimates[child], costs[child])) {
+                child++;
+            }
+            if (!before(costs[child] + estimates[child], costs[child], lastF, lastCost)) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        set(i, lastMask, lastCity, lastCost, lastEstimate, lastParent);
+    }
+
+    /**
+     * @return true if a state with f1 and cost g1 comes before one with f2 and g2
+     */
+    private static boolean before(final double f1, final double g1, final double f2, final double g2) {
+        return f1 < f2 || (f1 == f2 && g1 > g2);
+    }
+
+    private void move(final int from, final int to) {
+        masks[to] = masks[from];
+        cities[to] = cities[from];
+        costs[to] = costs[from];
+        estimates[to] = estimates[from];
+        parents[to] = parents[from];
+    }
+
+    private void swap(final int i, final int j) {
+        final long mask = masks[i];
+        final int city = cities[i];
+        final double cost = costs[i];
+        final double estimate = estimates[i];
+        final int parent = parents[i];
+        move(j, i);
+        set(j, mask, city, cost, estimate, parent);
+    }
+
+    private void set(final int i, final long mask, final int city, final double cost, final double estimate, final int parent) {
+        masks[i] = mask;
+        cities[i] = city;
+        costs[i] = cost;
+        estimates[i] = estimate;
+        parents[i] = parent;
+    }
+
+    /**
+     * A sorted run on disk, read one record at a time; the current record is its smallest remaining state
+     */
+    private static final class Run {
+        private final MappedByteBuffer buffer;
+        private int offset;
+
+        Run(final MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        long mask() {
+            return buffer.getLong(offset);
+        }
+
+        int city() {
+            return buffer.getInt(offset + Long.BYTES);
+        }
+
+        double cost() {
+            return buffer.getDouble(offset + Long.BYTES + Integer.BYTES);
+        }
+
+        double estimate() {
+            return buffer.getDouble(offset + Long.BYTES + Integer.BYTES + Double.BYTES);
+        }
+
+        double f() {
+            return cost() + estimate();
+        }
+
+        int parent() {
+            return buffer.getInt(offset + Long.BYTES + Integer.BYTES + 2 * Double.BYTES);
+        }
+
+        /**
+         * Move on to the next record
+         * @return false if the run is exhausted
+         */
+        boolean next() {
+            offset += RECORD_BYTES;
+            return offset < buffer.limit();
+        }
+
+        long remainingBytes() {
+            return buffer.limit() - offset;
+        }
+
+        /**
+         * Append the current record to a buffer
+         */
+        void copyTo(final ByteBuffer target) {
+            target.put(target.position(), buffer, offset, RECORD_BYTES);
+            target.position(target.position() + RECORD_BYTES);
+        }
+
+        /**
+         * Release the mapping; the run must not be read afterwards
+         */
+        void unmap() {
+            if (INVOKE_CLEANER != null) {
+                try {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                } catch (ReflectiveOperationException e) {
+                    //left to the garbage collector
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Open list on an array-backed d-ary min-heap, with the f and g of every entry in arrays of their own next to its
+ * handle. A wider heap is shallower, so an insertion, which only sifts up, makes fewer comparisons, while a removal
+ * compares more children per level; since A* inserts a state for every one it removes and most inserted states are
+ * never removed, a few children per node is faster than a binary heap. The children of a node also sit next to each
+ * other in memory, so one removal touches few cache lines.
+ */
+public class HeapOpenList implements OpenList {
+    /**
+     * Children per heap node unless told otherwise
+     */
+    public static final int DEFAULT_ARITY = 4;
+
+    private final int arity;
+    private double[] f;
+    private double[] g;
+    private int[] nodes;
+    private int size;
+
+    public HeapOpenList() {
+        this(DEFAULT_ARITY);
+    }
+
+    /**
+     * @param arity Children per heap node, at least 2
+     */
+    public HeapOpenList(final int arity) {
+        if (arity < 2) {
+            throw new IllegalArgumentException("A heap needs at least 2 children per node, got " + arity);
+        }
+        this.arity = arity;
+        f = new double[64];
+        g = new double[64];
+        nodes = new int[64];
+    }
+
+    @Override
+    public void add(final int node, final double f, final double g) {
+        if (size == nodes.length) {
+            this.f = Arrays.copyOf(this.f, size * 2);
+            this.g = Arrays.copyOf(this.g, size * 2);
+            nodes = Arrays.copyOf(nodes, size * 2);
+        }
+        //sift up, moving parents down into the hole until the new entry fits
+        int i = size++;
+        while (i > 0) {
+            final int parent = (i - 1) / arity;
+            if (!before(f, g, this.f[parent], this.g[parent])) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        set(i, node, f, g);
+    }
+
+    @Override
+    public int poll() {
+        if (size == 0) {
+            throw new NoSuchElementException("Open list is empty");
+        }
+        final int top = nodes[0];
+        size--;
+        if (size > 0) {
+            //sift the last entry down from the root
+            final int node = nodes[size];
+            final double lastF = f[size];
+            final double lastG = g[size];
+            int i = 0;
+            while (true) {
+                final int first = i * arity + 1;
+                if (first >= size) {
+                    break;
+                }
+                int best = first;
+                final int end = Math.min(first + arity, size);
+                for (int child = first + 1; child < end; child++) {
+                    if (before(f[child], g[child], f[best], g[best])) {
+                        best = child;
+                    }
+                }
+                if (!before(f[best], g[best], lastF, lastG)) {
+                    break;
+                }
+                move(best, i);
+                i = best;
+            }
+            set(i, node, lastF, lastG);
+        }
+        return top;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        return arity + "-ary heap";
+    }
+
+    /**
+     * @return true if an entry with key (f1, g1) comes before one with key (f2, g2)
+     */
+    private static boolean before(final double f1, final double g1, final double f2, final double g2) {
+        return f1 < f2 || (f1 == f2 && g1 > g2);
+    }
+
+    private void move(final int from, final int to) {
+        f[to] = f[from];
+        g[to] = g[from];
+        nodes[to] = nodes[from];
+    }
+
+    private void set(final int i, final int node, final double f, final double g) {
+        this.f[i] = f;
+        this.g[i] = g;
+        nodes[i] = node;
+    }
+}
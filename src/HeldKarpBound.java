@@ -0,0 +1,345 @@
+import java.util.Arrays;
+
+/**
+ * Held-Karp lower bound on the cost of the optimal tour of an instance given by coordinates, used to tell how far an
+ * approximate tour can be from optimal.
+ * Pick a special city; a tour is a path through the other cities plus two edges at the special city, so the minimum
+ * spanning tree of the other cities plus the two shortest edges at the special city (a 1-tree) costs no more than any
+ * tour. Adding a penalty pi to every edge at a city and subtracting twice the sum of the penalties keeps the bound
+ * valid for any penalties, and subgradient optimization raises the penalties of cities with too many edges in the
+ * 1-tree (and lowers those with too few) to push the 1-tree towards a tour and the bound up.
+ * A 1-tree over all n^2 edges takes n^2 time, so the subgradient iterations only use a sparse graph of the candidate
+ * neighbours plus the Euclidean minimum spanning tree (which keeps it connected). Only the penalties are taken from
+ * there: a 1-tree of the sparse graph can be longer than that of the complete graph, so the bound itself comes from
+ * one 1-tree of the complete graph with the best penalties found. Above {@link #COMPLETE_GRAPH_LIMIT} cities even that
+ * one is too slow, and the bound is the length of the Euclidean minimum spanning tree.
+ */
+public class HeldKarpBound {
+    /**
+     * Subgradient iterations unless told otherwise
+     */
+    public static final int DEFAULT_ITERATIONS = 300;
+    /**
+     * Most cities for which the bound is evaluated on the complete graph
+     */
+    public static final int COMPLETE_GRAPH_LIMIT = 10000;
+    /**
+     * Iterations without a better 1-tree after which the step size is halved
+     */
+    private static final int PATIENCE = 10;
+
+    /**
+     * @param cities Coordinates of the cities
+     * @param candidates Candidate neighbours of every city, such as {@link SpatialIndex#candidateLists(int)}
+     * @param upperBound Cost of a known tour, which sets the step sizes
+     * @return Lower bound on the cost of any tour of the cities
+     */
+    public static double lowerBound(final Cities cities, final int[][] candidates, final double upperBound) {
+        return lowerBound(cities, candidates, upperBound, DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * @param cities Coordinates of the cities
+     * @param candidates Candidate neighbours of every city, such as {@link SpatialIndex#candidateLists(int)}
+     * @param upperBound Cost of a known tour, which sets the step sizes
+     * @param iterations Number of subgradient iterations
+     * @return Lower bound on the cost of any tour of the cities
+     */
+    public static double lowerBound(final Cities cities, final int[][] candidates, final double upperBound, final int iterations) {
+        final int n = cities.size();
+        if (n <= 3) {
+            //the only tour there is
+            double cost = 0;
+            for (int i = 0; i < n; i++) {
+                cost += cities.distance(i, (i + 1) % n);
+            }
+            return cost;
+        }
+        final int[] parent = SpanningTree.euclidean(cities);
+        final double spanningTreeCost = SpanningTree.cost(cities, parent);
+        if (n > COMPLETE_GRAPH_LIMIT) {
+            return spanningTreeCost;
+        }
+        final SparseGraph graph = new SparseGraph(cities, candidates, parent);
+        final double[] penalties = new double[n];
+        final double[] bestPenalties = new double[n];
+        final int[] degree = new int[n];
+        double best = Double.NEGATIVE_INFINITY;
+        double lambda = 2;
+        int sinceBest = 0;
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            final double bound = graph.oneTree(penalties, degree);
+            int squaredNorm = 0;
+            for (int i = 0; i < n; i++) {
+                squaredNorm += (degree[i] - 2) * (degree[i] - 2);
+            }
+            if (bound > best) {
+                best = bound;
+                System.arraycopy(penalties, 0, bestPenalties, 0, n);
+                sinceBest = 0;
+            } else if (++sinceBest == PATIENCE) {
+                lambda /= 2;
+                sinceBest = 0;
+            }
+            //every city has two edges, so the 1-tree is a tour
+            if (squaredNorm == 0 || upperBound <= bound) {
+                break;
+            }
+            final double step = lambda * (upperBound - bound) / squaredNorm;
+            for (int i = 0; i < n; i++) {
+                penalties[i] += step * (degree[i] - 2);
+            }
+        }
+        return Math.max(spanningTreeCost, completeOneTree(cities, graph.special, bestPenalties));
+    }
+
+    /**
+     * Prim's algorithm over all edges between the cities other than the special one
+     * @return Length of the penalized 1-tree minus twice the penalties
+     */
+    private static double completeOneTree(final Cities cities, final int special, final double[] penalties) {
+        final int n = cities.size();
+        final double[] minDistanceToTree = new double[n];
+        final boolean[] inTree = new boolean[n];
+        final double[] row = new double[n];
+        Arrays.fill(minDistanceToTree, Double.POSITIVE_INFINITY);
+        inTree[special] = true;
+        final int first = special == 0 ? 1 : 0;
+        minDistanceToTree[first] = 0;
+        double cost = 0;
+        for (int added = 1; added < n; added++) {
+            int next = -1;
+            for (int i = 0; i < n; i++) {
+                if (!inTree[i] && (next == -1 || minDistanceToTree[i] < minDistanceToTree[next])) {
+                    next = i;
+                }
+            }
+            inTree[next] = true;
+            cost += minDistanceToTree[next];
+            cities.distances(next, row);
+            for (int i = 0; i < n; i++) {
+                if (!inTree[i]) {
+                    final double w = row[i] + penalties[next] + penalties[i];
+                    if (w < minDistanceToTree[i]) {
+                        minDistanceToTree[i] = w;
+                    }
+                }
+            }
+        }
+        double shortest = Double.POSITIVE_INFINITY;
+        double secondShortest = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            if (i != special) {
+                final double w = cities.distance(special, i) + penalties[special] + penalties[i];
+                if (w < shortest) {
+                    secondShortest = shortest;
+                    shortest = w;
+                } else if (w < secondShortest) {
+                    secondShortest = w;
+                }
+            }
+        }
+        cost += shortest + secondShortest;
+        for (final double penalty : penalties) {
+            cost -= 2 * penalty;
+        }
+        return cost;
+    }
+
+    /**
+     * Candidate and spanning tree edges in adjacency arrays, with the 1-tree computed by Prim's algorithm on an
+     * indexed binary heap
+     */
+    private static class SparseGraph {
+        private final int n;
+        //a leaf of the spanning tree, so that the graph stays connected without it
+        private final int special;
+        private final int[] adjacencyStart;
+        private final int[] adjacency;
+        private final double[] lengths;
+        //scratch space for Prim's algorithm
+        private final double[] key;
+        private final int[] closest;
+        private final boolean[] inTree;
+        private final int[] heap;
+        private final int[] heapPosition;
+        private int heapSize;
+
+        SparseGraph(final Cities cities, final int[][] candidates, final int[] parent) {
+            n = cities.size();
+            final int[] treeDegree = new int[n];
+            adjacencyStart = new int[n + 1];
+            //every edge is stored in both directions; duplicates are harmless
+            for (int city = 0; city < n; city++) {
+                adjacencyStart[city + 1] += candidates[city].length;
+                for (final int other : candidates[city]) {
+                    adjacencyStart[other + 1]++;
+                }
+                if (parent[city] >= 0) {
+                    adjacencyStart[city + 1]++;
+                    adjacencyStart[parent[city] + 1]++;
+                    treeDegree[city]++;
+                    treeDegree[parent[city]]++;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                adjacencyStart[i + 1] += adjacencyStart[i];
+            }
+            adjacency = new int[adjacencyStart[n]];
+            lengths = new double[adjacencyStart[n]];
+            final int[] fill = adjacencyStart.clone();
+            for (int city = 0; city < n; city++) {
+                for (final int other : candidates[city]) {
+                    adjacency[fill[city]++] = other;
+                    adjacency[fill[other]++] = city;
+                }
+                if (parent[city] >= 0) {
+                    adjacency[fill[city]++] = parent[city];
+                    adjacency[fill[parent[city]]++] = city;
+                }
+            }
+            for (int city = 0; city < n; city++) {
+                for (int i = adjacencyStart[city]; i < adjacencyStart[city + 1]; i++) {
+                    lengths[i] = cities.distance(city, adjacency[i]);
+                }
+            }
+            int leaf = 0;
+            while (treeDegree[leaf] != 1) {
+                leaf++;
+            }
+            special = leaf;
+            key = new double[n];
+            closest = new int[n];
+            inTree = new boolean[n];
+            heap = new int[n];
+            heapPosition = new int[n];
+        }
+
+        /**
+         * @param penalties Penalty of every city
+         * @param degree Filled in with the degree of every city in the 1-tree
+         * @return Length of the penalized 1-tree minus twice the penalties
+         */
+        double oneTree(final double[] penalties, final int[] degree) {
+            Arrays.fill(degree, 0);
+            Arrays.fill(key, Double.POSITIVE_INFINITY);
+            Arrays.fill(inTree, false);
+            Arrays.fill(heapPosition, -1);
+            inTree[special] = true;
+            final int first = special == 0 ? 1 : 0;
+            key[first] = 0;
+            closest[first] = -1;
+            heapSize = 0;
+            push(first);
+            double cost = 0;
+            while (heapSize > 0) {
+                final int city = pop();
+                inTree[city] = true;
+                cost += key[city];
+                if (closest[city] >= 0) {
+                    degree[city]++;
+                    degree[closest[city]]++;
+                }
+                for (int i = adjacencyStart[city]; i < adjacencyStart[city + 1]; i++) {
+                    final int other = adjacency[i];
+                    if (inTree[other]) {
+                        continue;
+                    }
+                    final double w = lengths[i] + penalties[city] + penalties[other];
+                    if (w < key[other]) {
+                        key[other] = w;
+                        closest[other] = city;
+                        if (heapPosition[other] < 0) {
+                            push(other);
+                        } else {
+                            siftUp(heapPosition[other]);
+                        }
+                    }
+                }
+            }
+            //the two shortest edges at the special city
+            int shortest = -1;
+            int secondShortest = -1;
+            double shortestLength = Double.POSITIVE_INFINITY;
+            double secondLength = Double.POSITIVE_INFINITY;
+            for (int i = adjacencyStart[special]; i < adjacencyStart[special + 1]; i++) {
+                final int other = adjacency[i];
+                final double w = lengths[i] + penalties[special] + penalties[other];
+                if (other == shortest) {
+                    continue;
+                }
+                if (w < shortestLength) {
+                    secondShortest = shortest;
+                    secondLength = shortestLength;
+                    shortest = other;
+                    shortestLength = w;
+                } else if (w < secondLength && other != secondShortest) {
+                    secondShortest = other;
+                    secondLength = w;
+                }
+            }
+            cost += shortestLength + secondLength;
+            degree[special] += 2;
+            degree[shortest]++;
+            degree[secondShortest]++;
+            for (final double penalty : penalties) {
+                cost -= 2 * penalty;
+            }
+            return cost;
+        }
+
+        private void push(final int city) {
+            heap[heapSize] = city;
+            heapPosition[city] = heapSize;
+            siftUp(heapSize++);
+        }
+
+        private int pop() {
+            final int top = heap[0];
+            heapPosition[top] = -1;
+            heapSize--;
+            if (heapSize > 0) {
+                heap[0] = heap[heapSize];
+                heapPosition[heap[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        private void siftUp(int i) {
+            final int city = heap[i];
+            while (i > 0) {
+                final int parent = (i - 1) / 2;
+                if (key[heap[parent]] <= key[city]) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                heapPosition[heap[i]] = i;
+                i = parent;
+            }
+            heap[i] = city;
+            heapPosition[city] = i;
+        }
+
+        private void siftDown(int i) {
+            final int city = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && key[heap[child + 1]] < key[heap[child]]) {
+                    child++;
+                }
+                if (key[heap[child]] >= key[city]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                heapPosition[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = city;
+            heapPosition[city] = i;
+        }
+    }
+}
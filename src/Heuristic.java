@@ -0,0 +1,38 @@
+/**
+ * Admissible estimate of the cost of completing a tour, used to order the states of the A* search.
+ * An instance is bound to one distance matrix and start city.
+ */
+public interface Heuristic {
+
+    /**
+     * @param visited Bitmask of cities that has already been visited in the TSP
+     * @param currentCity City for which the heuristic is calculated
+     * @return Lower bound on the cost of visiting every unvisited city and returning to the start city, which is 0
+     * once every city has been visited and the salesman is back at the start city
+     */
+    double estimate(long visited, int currentCity);
+
+    /**
+     * Called before the successors of a state are estimated, so that an implementation can reuse work it did for
+     * that state when estimating its successors
+     * @param visited Bitmask of cities visited by the state being expanded
+     * @param currentCity Current city of the state being expanded
+     */
+    default void expanding(final long visited, final int currentCity) {
+    }
+
+    /**
+     * Cheap lower bound on the estimate of a successor of the state being expanded, which lets a partial expansion
+     * search put off estimating successors it may never need (see
+     * {@link TSPSearch#searchPartial(DistanceMatrix, int, Heuristic, double, SearchStats)}). Called after
+     * {@link #expanding(long, int)} for the same state.
+     * @param visited Bitmask of cities visited by the state being expanded
+     * @param currentCity Current city of the state being expanded
+     * @param estimate Estimate of the state being expanded
+     * @param successor City the successor moves to
+     * @return Lower bound on the estimate of the successor; 0 unless an implementation knows better
+     */
+    default double successorBound(final long visited, final int currentCity, final double estimate, final int successor) {
+        return 0;
+    }
+}
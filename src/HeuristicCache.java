@@ -0,0 +1,167 @@
+import java.util.Arrays;
+
+/**
+ * Bounded memo table for the parts of the MST heuristic that do not depend on the path taken so far.
+ * The weight of the minimum spanning tree only depends on the set of unvisited cities and the current city, and the
+ * distance from the start city to the nearest unvisited city only depends on the set of unvisited cities and the start
+ * city, so many sibling and cousin states of the search share them. Neither key says which instance a value belongs
+ * to, so a cache is bound to the distance matrix of the first value computed through it, and refuses any other.
+ * Each of the two tables is set associative: a key hashes to a set of a few slots and when the set is full the
+ * CLOCK (second chance) policy picks which slot to evict, so the memory used never grows past the capacity given
+ * on construction. The cache is not thread safe; every search should use its own.
+ */
+public class HeuristicCache {
+    /**
+     * Capacity used by searches that are not given a cache, about 10MB for both tables
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 18;
+
+    private final Table spanningCosts;
+    private final Table nearestToStart;
+    private DistanceMatrix matrix;
+
+    /**
+     * @param capacity Maximum number of memoized values of each kind
+     */
+    public HeuristicCache(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        }
+        spanningCosts = new Table(capacity);
+        nearestToStart = new Table(capacity);
+    }
+
+    /**
+     * Tie the cache to the distances its values are computed from
+     * @param matrix Distances between all cities
+     * @throws IllegalArgumentException if the cache already holds values computed from another matrix
+     */
+    public void bind(final DistanceMatrix matrix) {
+        if (this.matrix == null) {
+            this.matrix = matrix;
+        } else if (this.matrix != matrix) {
+            throw new IllegalArgumentException("Heuristic cache is already bound to another distance matrix");
+        }
+    }
+
+    /**
+     * @return Memoized MST weight of the unvisited cities rooted at current city, or NaN if it is not cached
+     */
+    public double getSpanningCost(final long unvisited, final int currentCity) {
+        return spanningCosts.get(unvisited, currentCity);
+    }
+
+    public void putSpanningCost(final long unvisited, final int currentCity, final double cost) {
+        spanningCosts.put(unvisited, currentCity, cost);
+    }
+
+    /**
+     * @return Memoized distance from the start city to the nearest unvisited city, or NaN if it is not cached
+     */
+    public double getNearestToStart(final long unvisited, final int startCity) {
+        return nearestToStart.get(unvisited, startCity);
+    }
+
+    public void putNearestToStart(final long unvisited, final int startCity, final double distance) {
+        nearestToStart.put(unvisited, startCity, distance);
+    }
+
+    public long getSpanningCostHits() {
+        return spanningCosts.hits;
+    }
+
+    public long getSpanningCostMisses() {
+        return spanningCosts.misses;
+    }
+
+    public long getNearestToStartHits() {
+        return nearestToStart.hits;
+    }
+
+    public long getNearestToStartMisses() {
+        return nearestToStart.misses;
+    }
+
+    /**
+     * @return Number of values that were dropped to make room for new ones
+     */
+    public long getEvictions() {
+        return spanningCosts.evictions + nearestToStart.evictions;
+    }
+
+    @Override
+    public String toString() {
+        return "MST hits: " + spanningCosts.hits + ", MST misses: " + spanningCosts.misses
+                + ", nearest hits: " + nearestToStart.hits + ", nearest misses: " + nearestToStart.misses
+                + ", evictions: " + getEvictions();
+    }
+
+    /**
+     * Set associative table from (bitmask, city) to a double with CLOCK eviction inside each set
+     */
+    private static class Table {
+        private static final int WAYS = 4;
+        private static final int EMPTY = -1;
+
+        private final long[] masks;
+        private final int[] cities;
+        private final double[] values;
+        private final boolean[] referenced;
+        private final byte[] hands;
+        private final int setMask;
+        private long hits;
+        private long misses;
+        private long evictions;
+
+        Table(final int capacity) {
+            final int numSets = Integer.highestOneBit(Math.max(1, (capacity + WAYS - 1) / WAYS));
+            setMask = numSets - 1;
+            masks = new long[numSets * WAYS];
+            cities = new int[numSets * WAYS];
+            values = new double[numSets * WAYS];
+            referenced = new boolean[numSets * WAYS];
+            hands = new byte[numSets];
+            Arrays.fill(cities, EMPTY);
+        }
+
+        double get(final long mask, final int city) {
+            final int set = BestCostTable.hash(mask, city) & setMask;
+            for (int slot = set * WAYS; slot < (set + 1) * WAYS; slot++) {
+                if (cities[slot] == city && masks[slot] == mask) {
+                    referenced[slot] = true;
+                    hits++;
+                    return values[slot];
+                }
+            }
+            misses++;
+            return Double.NaN;
+        }
+
+        void put(final long mask, final int city, final double value) {
+            final int set = BestCostTable.hash(mask, city) & setMask;
+            final int first = set * WAYS;
+            int slot = -1;
+            for (int way = first; way < first + WAYS; way++) {
+                if (cities[way] == EMPTY || (cities[way] == city && masks[way] == mask)) {
+                    slot = way;
+                    break;
+                }
+            }
+            if (slot == -1) {
+                //sweep the clock hand over the set, giving recently used slots a second chance
+                int hand = hands[set];
+                while (referenced[first + hand]) {
+                    referenced[first + hand] = false;
+                    hand = (hand + 1) % WAYS;
+                }
+                slot = first + hand;
+                hands[set] = (byte) ((hand + 1) % WAYS);
+                evictions++;
+            }
+            masks[slot] = mask;
+            cities[slot] = city;
+            values[slot] = value;
+            referenced[slot] = false;
+        }
+    }
+}
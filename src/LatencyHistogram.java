@@ -0,0 +1,100 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts of latencies in buckets whose bounds double from one bucket to the next, which keeps the relative error of
+ * every percentile under a factor of two with a few dozen counters. Bucket b holds latencies below 2^b microseconds
+ * and at least half that, and bucket 0 holds those under a microsecond. Latencies can be recorded from any number of
+ * threads at once without locking.
+ */
+public class LatencyHistogram {
+    /**
+     * Number of buckets; the last one holds everything from about 2^(NUM_BUCKETS - 2) microseconds, which is days
+     */
+    public static final int NUM_BUCKETS = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+    /**
+     * @param nanos Latency to count
+     */
+    public void record(final long nanos) {
+        final long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(Math.min(NUM_BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(micros)));
+    }
+
+    /**
+     * @return Number of latencies recorded
+     */
+    public long count() {
+        long count = 0;
+        for (int b = 0; b < NUM_BUCKETS; b++) {
+            count += counts.get(b);
+        }
+        return count;
+    }
+
+    /**
+     * @return Count of every bucket, indexed by bucket; see {@link #upperBoundMicros(int)} for their bounds
+     */
+    public long[] snapshot() {
+        final long[] snapshot = new long[NUM_BUCKETS];
+        for (int b = 0; b < NUM_BUCKETS; b++) {
+            snapshot[b] = counts.get(b);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @param quantile Fraction of latencies, between 0 and 1
+     * @return Upper bound in microseconds of the bucket that holds that quantile, or 0 if nothing has been recorded
+     */
+    public long percentileMicros(final double quantile) {
+        return percentileMicros(snapshot(), quantile);
+    }
+
+    /**
+     * @param counts Bucket counts, as {@link #snapshot()} gives
+     * @param quantile Fraction of latencies, between 0 and 1
+     * @return Upper bound in microseconds of the bucket that holds that quantile, or 0 if the counts are all zero
+     */
+    public static long percentileMicros(final long[] counts, final double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1, got " + quantile);
+        }
+        long total = 0;
+        for (final long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int b = 0; b < counts.length; b++) {
+            seen += counts[b];
+            if (seen >= rank) {
+                return upperBoundMicros(b);
+            }
+        }
+        return upperBoundMicros(counts.length - 1);
+    }
+
+    /**
+     * @return Latency in microseconds that every latency counted in the bucket is below
+     */
+    public static long upperBoundMicros(final int bucket) {
+        return 1L << bucket;
+    }
+
+    @Override
+    public String toString() {
+        final long[] snapshot = snapshot();
+        long count = 0;
+        for (final long c : snapshot) {
+            count += c;
+        }
+        return String.format("count=%d p50<%dus p90<%dus p99<%dus max<%dus", count, percentileMicros(snapshot, 0.5),
+                percentileMicros(snapshot, 0.9), percentileMicros(snapshot, 0.99), percentileMicros(snapshot, 1));
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * The heuristic of {@link TSPHeuristics}: weight of the minimum spanning tree of the unvisited cities rooted at the
+ * current city plus the shortest edge from the start city to an unvisited city, memoized in a {@link HeuristicCache}
+ */
+public class MSTHeuristic implements Heuristic {
+    private final DistanceMatrix matrix;
+    private final int startCity;
+    private final HeuristicCache cache;
+    //distance from the current city of the state being expanded to its nearest unvisited city
+    private long nearestVisited;
+    private int nearestCity = -1;
+    private double nearest;
+
+    public MSTHeuristic(final DistanceMatrix matrix, final int startCity) {
+        this(matrix, startCity, new HeuristicCache(HeuristicCache.DEFAULT_CAPACITY));
+    }
+
+    public MSTHeuristic(final DistanceMatrix matrix, final int startCity, final HeuristicCache cache) {
+        this.matrix = matrix;
+        this.startCity = startCity;
+        this.cache = cache;
+        cache.bind(matrix);
+    }
+
+    @Override
+    public double estimate(final long visited, final int currentCity) {
+        return TSPHeuristics.computeHeuristic(matrix, visited, currentCity, startCity, cache);
+    }
+
+    /**
+     * The successor's spanning tree covers the unvisited cities, which is the spanning tree of the state being expanded
+     * less at most the edge from its current city to the nearest unvisited city, and the start city is no nearer to
+     * fewer unvisited cities. So the estimate drops by at most that edge, and successors are bounded in order of the
+     * edge that reaches them.
+     */
+    @Override
+    public double successorBound(final long visited, final int currentCity, final double estimate, final int successor) {
+        final long unvisited = TSPUtils.allCities(matrix.size()) & ~visited;
+        if (unvisited == 0) {
+            //the only successor is the return to the start city, which completes the tour
+            return 0;
+        }
+        if (visited != nearestVisited || currentCity != nearestCity) {
+            nearest = matrix.distance(currentCity, TSPUtils.findNearest(matrix, unvisited, currentCity));
+            nearestVisited = visited;
+            nearestCity = currentCity;
+        }
+        return Math.max(0, estimate - nearest);
+    }
+
+    public HeuristicCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        return "MST heuristic (" + cache + ")";
+    }
+}
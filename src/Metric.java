@@ -0,0 +1,41 @@
+/**
+ * How the distance between two cities is computed from their integer coordinates
+ */
+public enum Metric {
+    /**
+     * Straight-line distance, the metric of the course instances
+     */
+    EUCLIDEAN,
+    /**
+     * Straight-line distance rounded to the nearest integer, the EUC_2D metric of TSPLIB. Every distance is a whole
+     * number, so the cost of a tour is exact in a double and two costs can be compared with ==.
+     */
+    EUC_2D;
+
+    /**
+     * @return Distance between (x1, y1) and (x2, y2)
+     */
+    public double distance(final int x1, final int y1, final int x2, final int y2) {
+        return this == EUC_2D ? TSPUtils.roundedDistance(x1, y1, x2, y2) : TSPUtils.distance(x1, y1, x2, y2);
+    }
+
+    /**
+     * Distances from one point to a range of cities, written to consecutive elements of an array
+     * @param fromX x coordinate of the point
+     * @param fromY y coordinate of the point
+     * @param x x coordinates of the cities
+     * @param y y coordinates of the cities
+     * @param start First city of the range
+     * @param end One past the last city of the range
+     * @param row Where the distances go
+     * @param offset Index in row of the distance to the first city
+     */
+    public void distances(final int fromX, final int fromY, final int[] x, final int[] y, final int start, final int end,
+                          final double[] row, final int offset) {
+        if (this == EUC_2D) {
+            TSPUtils.roundedDistances(fromX, fromY, x, y, start, end, row, offset);
+        } else {
+            TSPUtils.distances(fromX, fromY, x, y, start, end, row, offset);
+        }
+    }
+}
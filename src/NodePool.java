@@ -0,0 +1,104 @@
+import java.util.Arrays;
+
+/**
+ * The states generated by an A* search, stored in parallel primitive arrays and referred to by int handles, so that
+ * a state costs a few array slots instead of an object with its own header and a reference from its child.
+ * States are never removed; the pool only grows for the length of a search, and can be cleared to be reused by the
+ * next one.
+ */
+class NodePool {
+    /**
+     * Parent handle of the root state
+     */
+    static final int NONE = -1;
+
+    private long[] visited;
+    private int[] cities;
+    private double[] costs;
+    private double[] estimates;
+    private int[] parents;
+    private int size;
+
+    NodePool(final int expectedSize) {
+        final int capacity = Math.max(16, expectedSize);
+        visited = new long[capacity];
+        cities = new int[capacity];
+        costs = new double[capacity];
+        estimates = new double[capacity];
+        parents = new int[capacity];
+    }
+
+    /**
+     * @param mask Bitmask of visited cities
+     * @param city Current city
+     * @param cost Cost to reach the state
+     * @param estimate Heuristic estimate of the cost to complete the tour
+     * @param parent Handle of the state this one was generated from, or {@link #NONE}
+     * @return Handle of the new state
+     */
+    int add(final long mask, final int city, final double cost, final double estimate, final int parent) {
+        if (size == cities.length) {
+            final int capacity = size * 2;
+            visited = Arrays.copyOf(visited, capacity);
+            cities = Arrays.copyOf(cities, capacity);
+            costs = Arrays.copyOf(costs, capacity);
+            estimates = Arrays.copyOf(estimates, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+        }
+        visited[size] = mask;
+        cities[size] = city;
+        costs[size] = cost;
+        estimates[size] = estimate;
+        parents[size] = parent;
+        return size++;
+    }
+
+    /**
+     * Drop every state, keeping the arrays for the next search
+     */
+    void clear() {
+        size = 0;
+    }
+
+    long visited(final int node) {
+        return visited[node];
+    }
+
+    int city(final int node) {
+        return cities[node];
+    }
+
+    double cost(final int node) {
+        return costs[node];
+    }
+
+    double totalCost(final int node) {
+        return costs[node] + estimates[node];
+    }
+
+    int parent(final int node) {
+        return parents[node];
+    }
+
+    /**
+     * @return Number of states in the pool
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return ids of the cities from the start city to the given state
+     */
+    int[] path(final int node) {
+        int length = 0;
+        for (int n = node; n != NONE; n = parents[n]) {
+            length++;
+        }
+        final int[] path = new int[length];
+        for (int n = node; n != NONE; n = parents[n]) {
+            path[--length] = cities[n];
+        }
+        return path;
+    }
+}
@@ -0,0 +1,236 @@
+import java.util.Arrays;
+
+/**
+ * Held-Karp lower bound on the rest of the tour, tightened by subgradient optimization.
+ * The rest of a tour is a path from the current city through every unvisited city to the start city. Such a path is
+ * a spanning tree of those cities in which the two ends have degree 1 and every other city degree 2 (and the two ends
+ * are not joined directly), so the cheapest such spanning tree is a lower bound. Adding a penalty pi to every edge at
+ * a city and subtracting pi times the city's target degree keeps the bound valid for any penalties, and penalizing
+ * cities whose degree in the tree is too high (and rewarding those whose degree is too low) pushes the tree towards
+ * a path and the bound up. When the current city is the start city the path is a cycle, and the tree is the usual
+ * 1-tree with the start city in both ends.
+ * Successors of a state differ from it by one city, so the penalties found for a state are the starting point for
+ * its successors, which then need far fewer iterations than starting from zero. This makes every estimate several
+ * times more expensive than the plain MST heuristic, in exchange for a much tighter bound and a smaller search tree.
+ * Instances are not thread safe.
+ */
+public class OneTreeHeuristic implements Heuristic {
+    /**
+     * Subgradient iterations for a state whose parent penalties are not known
+     */
+    public static final int DEFAULT_ROOT_ITERATIONS = 50;
+    /**
+     * Subgradient iterations for a state that starts from its parent's penalties
+     */
+    public static final int DEFAULT_ITERATIONS = 10;
+    /**
+     * Number of states whose penalties are kept for their successors
+     */
+    private static final int PENALTY_SLOTS = 1 << 12;
+    /**
+     * Initial step size, as a fraction of the bound
+     */
+    private static final double INITIAL_STEP = 0.01;
+
+    private final DistanceMatrix matrix;
+    private final int startCity;
+    private final long allCities;
+    private final int rootIterations;
+    private final int iterations;
+    //penalties of recently estimated states, direct mapped by state
+    private final long[] penaltyMasks = new long[PENALTY_SLOTS];
+    private final int[] penaltyCities = new int[PENALTY_SLOTS];
+    private final double[][] penaltySlots = new double[PENALTY_SLOTS][];
+    //penalties of the state being expanded, or null
+    private double[] parentPenalties;
+    //scratch space for the spanning tree
+    private final int[] nodes;
+    private final double[] penalties;
+    private final double[] bestPenalties;
+    private final int[] targetDegree;
+    private final int[] degree;
+    private final double[] minDistanceToTree;
+    private final int[] closestInTree;
+    private final boolean[] inTree;
+    private long numEstimates;
+    private long numIterations;
+
+    public OneTreeHeuristic(final DistanceMatrix matrix, final int startCity) {
+        this(matrix, startCity, DEFAULT_ROOT_ITERATIONS, DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @param rootIterations Subgradient iterations for states whose parent penalties are not known
+     * @param iterations Subgradient iterations for states that start from their parent's penalties
+     */
+    public OneTreeHeuristic(final DistanceMatrix matrix, final int startCity, final int rootIterations, final int iterations) {
+        final int n = matrix.size();
+        this.matrix = matrix;
+        this.startCity = startCity;
+        this.allCities = TSPUtils.allCities(n);
+        this.rootIterations = rootIterations;
+        this.iterations = iterations;
+        Arrays.fill(penaltyCities, -1);
+        //the start city appears twice in the tree when the current city is the start city
+        nodes = new int[n + 1];
+        penalties = new double[n + 1];
+        bestPenalties = new double[n + 1];
+        targetDegree = new int[n + 1];
+        degree = new int[n + 1];
+        minDistanceToTree = new double[n + 1];
+        closestInTree = new int[n + 1];
+        inTree = new boolean[n + 1];
+    }
+
+    @Override
+    public void expanding(final long visited, final int currentCity) {
+        final int slot = slot(visited, currentCity);
+        parentPenalties = penaltyMasks[slot] == visited && penaltyCities[slot] == currentCity ? penaltySlots[slot] : null;
+    }
+
+    @Override
+    public double estimate(final long visited, final int currentCity) {
+        final long unvisited = allCities & ~visited;
+        if (unvisited == 0) {
+            return currentCity == startCity ? 0 : matrix.distance(currentCity, startCity);
+        }
+        numEstimates++;
+        //node 0 is the current city and node 1 the start city, the two ends of the path; the rest are unvisited
+        nodes[0] = currentCity;
+        nodes[1] = startCity;
+        int k = 2;
+        for (long set = unvisited; set != 0; set &= set - 1) {
+            nodes[k++] = Long.numberOfTrailingZeros(set);
+        }
+        final double[] initial = parentPenalties;
+        for (int i = 0; i < k; i++) {
+            targetDegree[i] = i < 2 ? 1 : 2;
+            //the ends may share a city, so their penalties are not carried over
+            penalties[i] = initial == null || i < 2 ? 0 : initial[nodes[i]];
+        }
+        final int maxIterations = initial == null ? rootIterations : iterations;
+        double best = Double.NEGATIVE_INFINITY;
+        double step = 0;
+        for (int iteration = 0; iteration <= maxIterations; iteration++) {
+            numIterations++;
+            final double bound = spanningTree(k);
+            int squaredNorm = 0;
+            for (int i = 0; i < k; i++) {
+                final int subgradient = degree[i] - targetDegree[i];
+                squaredNorm += subgradient * subgradient;
+            }
+            if (bound > best) {
+                best = bound;
+                System.arraycopy(penalties, 0, bestPenalties, 0, k);
+            }
+            //every city has its target degree, so the tree is a path and the bound is exact
+            if (squaredNorm == 0) {
+                break;
+            }
+            if (iteration == 0) {
+                step = INITIAL_STEP * Math.abs(bound);
+            } else {
+                step *= 0.9;
+            }
+            for (int i = 0; i < k; i++) {
+                penalties[i] += step * (degree[i] - targetDegree[i]) / squaredNorm;
+            }
+        }
+        rememberPenalties(visited, currentCity, k);
+        return Math.max(best, 0);
+    }
+
+    /**
+     * @return Number of states estimated, not counting goal states
+     */
+    public long getNumEstimates() {
+        return numEstimates;
+    }
+
+    /**
+     * @return Number of spanning trees computed over all estimates
+     */
+    public long getNumIterations() {
+        return numIterations;
+    }
+
+    @Override
+    public String toString() {
+        return "1-tree heuristic (estimates: " + numEstimates + ", spanning trees: " + numIterations + ")";
+    }
+
+    /**
+     * Prim's algorithm over the first k nodes with penalized edge weights, never joining nodes 0 and 1 directly.
+     * Fills in the degree of every node.
+     * @return Weight of the tree minus the penalties times the target degrees
+     */
+    private double spanningTree(final int k) {
+        for (int i = 0; i < k; i++) {
+            inTree[i] = false;
+            degree[i] = 0;
+            minDistanceToTree[i] = Double.POSITIVE_INFINITY;
+        }
+        //grow the tree from node 2, which always exists since there is an unvisited city
+        inTree[2] = true;
+        for (int i = 0; i < k; i++) {
+            if (!inTree[i]) {
+                minDistanceToTree[i] = weight(2, i);
+                closestInTree[i] = 2;
+            }
+        }
+        double cost = 0;
+        for (int added = 1; added < k; added++) {
+            int next = -1;
+            for (int i = 0; i < k; i++) {
+                if (!inTree[i] && (next == -1 || minDistanceToTree[i] < minDistanceToTree[next])) {
+                    next = i;
+                }
+            }
+            inTree[next] = true;
+            cost += minDistanceToTree[next];
+            degree[next]++;
+            degree[closestInTree[next]]++;
+            for (int i = 0; i < k; i++) {
+                if (!inTree[i]) {
+                    final double w = weight(next, i);
+                    if (w < minDistanceToTree[i]) {
+                        minDistanceToTree[i] = w;
+                        closestInTree[i] = next;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < k; i++) {
+            cost -= targetDegree[i] * penalties[i];
+        }
+        return cost;
+    }
+
+    private double weight(final int i, final int j) {
+        if (i + j == 1) {
+            //the two ends of the path are never adjacent while there are unvisited cities
+            return Double.POSITIVE_INFINITY;
+        }
+        return matrix.distance(nodes[i], nodes[j]) + penalties[i] + penalties[j];
+    }
+
+    private void rememberPenalties(final long visited, final int currentCity, final int k) {
+        final int slot = slot(visited, currentCity);
+        double[] byCity = penaltySlots[slot];
+        if (byCity == null) {
+            byCity = new double[matrix.size()];
+            penaltySlots[slot] = byCity;
+        }
+        for (int i = 2; i < k; i++) {
+            byCity[nodes[i]] = bestPenalties[i];
+        }
+        penaltyMasks[slot] = visited;
+        penaltyCities[slot] = currentCity;
+    }
+
+    private static int slot(final long visited, final int currentCity) {
+        return BestCostTable.hash(visited, currentCity) & (PENALTY_SLOTS - 1);
+    }
+}
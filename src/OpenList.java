@@ -0,0 +1,38 @@
+/**
+ * Open list of an A* search: states waiting to be expanded, ordered by f, the cost to reach a state plus its
+ * heuristic estimate. States are int handles into the search's node pool, and their f and g are passed in as
+ * primitives, so adding and removing states never allocates.
+ * Among states with the same f, the one with the highest g comes first: it is furthest along its tour, and with an
+ * admissible heuristic usually the closest to a goal, so the search reaches a goal among many ties far sooner.
+ * Implementations are not thread safe, and an open list serves one search at a time.
+ */
+public interface OpenList {
+
+    /**
+     * @param node Handle of the state
+     * @param f Cost to reach the state plus its heuristic estimate
+     * @param g Cost to reach the state
+     */
+    void add(int node, double f, double g);
+
+    /**
+     * Remove a state with the lowest f, and among those the highest g
+     * @return Handle of the state
+     * @throws java.util.NoSuchElementException if the list is empty
+     */
+    int poll();
+
+    /**
+     * @return Number of states on the list
+     */
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Remove every state, keeping the allocated space for the next search
+     */
+    void clear();
+}
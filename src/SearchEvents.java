@@ -0,0 +1,128 @@
+import jdk.jfr.*;
+
+/**
+ * Flight recorder events of the A* searches, so that a recording shows which instances are slow and what the
+ * frontier looked like while they ran. Events that are not enabled in the recording cost a field check.
+ */
+final class SearchEvents {
+    /**
+     * A frontier snapshot is taken every this many expansions
+     */
+    static final int SNAPSHOT_INTERVAL = 1 << 12;
+
+    private SearchEvents() {
+    }
+
+    @Name("tsp.SearchStart")
+    @Label("Search Start")
+    @Category("TSP")
+    @StackTrace(false)
+    static class Start extends Event {
+        @Label("Search")
+        String search;
+        @Label("Cities")
+        int numCities;
+        @Label("Heuristic")
+        String heuristic;
+        @Label("Upper Bound")
+        double upperBound;
+    }
+
+    @Name("tsp.SearchFinish")
+    @Label("Search Finish")
+    @Category("TSP")
+    @StackTrace(false)
+    static class Finish extends Event {
+        @Label("Search")
+        String search;
+        @Label("Cities")
+        int numCities;
+        @Label("Tour Cost")
+        double tourCost;
+        @Label("Generated")
+        long numGenerated;
+        @Label("Expanded")
+        long numExpanded;
+        @Label("Duplicates Pruned")
+        long numDuplicates;
+        @Label("Peak Open List Size")
+        int peakOpenSize;
+        @Label("Heuristic Time")
+        @Timespan
+        long heuristicNanos;
+        @Label("Queue Time")
+        @Timespan
+        long queueNanos;
+        @Label("Bytes Allocated")
+        @DataAmount
+        long bytesAllocated;
+        @Label("Search Time")
+        @Timespan
+        long elapsedNanos;
+    }
+
+    @Name("tsp.FrontierSnapshot")
+    @Label("Frontier Snapshot")
+    @Category("TSP")
+    @StackTrace(false)
+    static class FrontierSnapshot extends Event {
+        @Label("Search")
+        String search;
+        @Label("Open List Size")
+        int openSize;
+        @Label("Expanded")
+        long numExpanded;
+        @Label("Generated")
+        long numGenerated;
+        @Label("Lowest f")
+        double minTotalCost;
+        @Label("Cities Visited")
+        int depth;
+    }
+
+    static void start(final String search, final int numCities, final Heuristic heuristic, final double upperBound) {
+        final Start event = new Start();
+        if (event.isEnabled()) {
+            event.search = search;
+            event.numCities = numCities;
+            event.heuristic = heuristic.getClass().getSimpleName();
+            event.upperBound = upperBound;
+            event.commit();
+        }
+    }
+
+    static void finish(final String search, final int numCities, final double tourCost, final SearchStats stats) {
+        final Finish event = new Finish();
+        if (event.isEnabled()) {
+            event.search = search;
+            event.numCities = numCities;
+            event.tourCost = tourCost;
+            event.numGenerated = stats.getNumGenerated();
+            event.numExpanded = stats.getNumExpanded();
+            event.numDuplicates = stats.getNumDuplicates();
+            event.peakOpenSize = stats.getPeakOpenSize();
+            event.heuristicNanos = stats.getHeuristicNanos();
+            event.queueNanos = stats.getQueueNanos();
+            event.bytesAllocated = stats.getBytesAllocated();
+            event.elapsedNanos = stats.getElapsedNanos();
+            event.commit();
+        }
+    }
+
+    /**
+     * @param visited Bitmask of the cities visited by the state about to be expanded
+     * @param totalCost f value of that state, the lowest on the open list
+     */
+    static void frontier(final String search, final int openSize, final SearchStats stats, final long visited, final double totalCost) {
+        final FrontierSnapshot event = new FrontierSnapshot();
+        if (event.isEnabled()) {
+            event.search = search;
+            event.openSize = openSize;
+            event.numExpanded = stats.getNumExpanded();
+            event.numGenerated = stats.getNumGenerated();
+            event.minTotalCost = totalCost;
+            event.depth = Long.bitCount(visited);
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Counters and timings of one run of an A* search, filled in by the search it is passed to.
+ * Heuristic and queue times are measured around every call, so they include the cost of reading the clock; they are
+ * meant for comparing where a search spends its time rather than as exact totals. Allocation is measured for the
+ * thread running the search, and is -1 if the JVM cannot measure it.
+ * Instances are not thread safe; every search should use its own.
+ */
+public class SearchStats {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private long numGenerated;
+    private long numExpanded;
+    private long numDuplicates;
+    private int peakOpenSize;
+    private long heuristicNanos;
+    private long queueNanos;
+    private long elapsedNanos;
+    private long bytesAllocated = -1;
+    private long startNanos;
+    private long startBytes;
+
+    public long getNumGenerated() {
+        return numGenerated;
+    }
+
+    public long getNumExpanded() {
+        return numExpanded;
+    }
+
+    /**
+     * @return Number of generated states dropped because the same state had already been reached at no higher cost
+     */
+    public long getNumDuplicates() {
+        return numDuplicates;
+    }
+
+    /**
+     * @return Largest number of states that were on the open list at once
+     */
+    public int getPeakOpenSize() {
+        return peakOpenSize;
+    }
+
+    /**
+     * @return Time spent estimating states, in nanoseconds
+     */
+    public long getHeuristicNanos() {
+        return heuristicNanos;
+    }
+
+    /**
+     * @return Time spent adding states to and removing them from the open list, in nanoseconds
+     */
+    public long getQueueNanos() {
+        return queueNanos;
+    }
+
+    /**
+     * @return Wall clock time of the whole search, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return Bytes allocated by the thread running the search, or -1 if this JVM cannot measure it
+     */
+    public long getBytesAllocated() {
+        return bytesAllocated;
+    }
+
+    @Override
+    public String toString() {
+        return "generated: " + numGenerated + ", expanded: " + numExpanded + ", duplicates pruned: " + numDuplicates
+                + ", peak open list: " + peakOpenSize + ", heuristic ms: " + heuristicNanos / 1_000_000
+                + ", queue ms: " + queueNanos / 1_000_000 + ", total ms: " + elapsedNanos / 1_000_000
+                + ", bytes allocated: " + bytesAllocated;
+    }
+
+    void start() {
+        numGenerated = 0;
+        numExpanded = 0;
+        numDuplicates = 0;
+        peakOpenSize = 0;
+        heuristicNanos = 0;
+        queueNanos = 0;
+        elapsedNanos = 0;
+        bytesAllocated = -1;
+        startBytes = allocatedBytes();
+        startNanos = System.nanoTime();
+    }
+
+    void finish() {
+        elapsedNanos = System.nanoTime() - startNanos;
+        final long endBytes = allocatedBytes();
+        bytesAllocated = startBytes < 0 || endBytes < 0 ? -1 : endBytes - startBytes;
+    }
+
+    void generated() {
+        numGenerated++;
+    }
+
+    void expanded() {
+        numExpanded++;
+    }
+
+    void duplicate() {
+        numDuplicates++;
+    }
+
+    void openSize(final int size) {
+        if (size > peakOpenSize) {
+            peakOpenSize = size;
+        }
+    }
+
+    void heuristicTime(final long startNanos) {
+        heuristicNanos += System.nanoTime() - startNanos;
+    }
+
+    void queueTime(final long startNanos) {
+        queueNanos += System.nanoTime() - startNanos;
+    }
+
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,345 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * On-disk store of optimal tours, keyed by the content of their instance rather than by file, so that an instance
+ * solved before is answered without a search however its cities are named, numbered or shifted.
+ * The key of an instance is a hash of its canonical form: its metric and its coordinates translated so that the
+ * smallest x and y are 0 and sorted, which leaves out names and the order of the cities. The stored tour visits the cities by their
+ * position in that sorted order and is mapped back to the ids of the instance being looked up.
+ * The whole store is one memory-mapped file of fixed-size slots, grouped into sets of {@link #WAYS} slots: a key can
+ * only live in the set its hash picks, so a lookup reads at most one set. Storing into a full set replaces its least
+ * recently used tour, so the file never grows past the capacity it was created with. Since a slot has room for
+ * {@link #MAX_CITIES} cities, larger instances are not cached.
+ * Methods are synchronized, so threads of one JVM can share a cache, but a file must not be opened by two caches at
+ * once.
+ */
+public class SolutionCache implements Closeable {
+    /**
+     * Slots of a new cache file unless told otherwise, 8 MB worth
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    /**
+     * Most cities of an instance whose tour is stored
+     */
+    public static final int MAX_CITIES = Long.SIZE;
+    /**
+     * Slots per set
+     */
+    static final int WAYS = 8;
+    /**
+     * Most slots a cache file can have, a whole number of sets, so that it can be mapped in one piece
+     */
+    public static final int MAX_CAPACITY = (Integer.MAX_VALUE - 64) / (128 * WAYS) * WAYS;
+
+    private static final int MAGIC = 0x54535043;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int SLOT_BYTES = 128;
+    //header fields
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int NUM_SETS_OFFSET = 8;
+    private static final int CLOCK_OFFSET = 16;
+    //slot fields; a slot whose stamp is 0 is empty
+    private static final int KEY_OFFSET = 0;
+    private static final int STAMP_OFFSET = 16;
+    private static final int COST_OFFSET = 24;
+    private static final int SIZE_OFFSET = 32;
+    private static final int TOUR_OFFSET = 36;
+    /**
+     * A remapped tour whose cost differs from the stored cost by more than this fraction belongs to another instance
+     * with the same hash
+     */
+    private static final double COST_TOLERANCE = 1e-9;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int numSets;
+    private final MessageDigest digest;
+    private long hits;
+    private long misses;
+
+    /**
+     * Open a cache file, creating it with {@link #DEFAULT_CAPACITY} slots if it does not exist
+     * @param file Path of the cache file
+     */
+    public SolutionCache(final Path file) {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Open a cache file, creating it if it does not exist. An existing file keeps the capacity it was created with.
+     * @param file Path of the cache file
+     * @param capacity Number of tours a new file holds, rounded up to a whole number of sets
+     * @throws IllegalArgumentException if the file exists and is not a cache file
+     * @throws UncheckedIOException if the file cannot be opened
+     */
+    public SolutionCache(final Path file, final int capacity) {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("A cache needs between 1 and " + MAX_CAPACITY + " slots, got " + capacity);
+        }
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            final boolean created = channel.size() == 0;
+            if (created) {
+                numSets = (int) (((long) capacity + WAYS - 1) / WAYS);
+            } else {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                channel.read(header, 0);
+                if (header.getInt(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION) {
+                    channel.close();
+                    throw new IllegalArgumentException(file + " is not a solution cache");
+                }
+                numSets = header.getInt(NUM_SETS_OFFSET);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) numSets * WAYS * SLOT_BYTES);
+            if (created) {
+                buffer.putInt(MAGIC_OFFSET, MAGIC);
+                buffer.putInt(VERSION_OFFSET, VERSION);
+                buffer.putInt(NUM_SETS_OFFSET, numSets);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open solution cache " + file, e);
+        }
+    }
+
+    /**
+     * Look up the optimal tour of an instance, or of any instance that differs from it only by a translation or by
+     * the names and order of its cities
+     * @param cities Coordinates of the cities; city ids are their indices
+     * @param startCity id of the start city
+     * @return ids of the cities of the optimal tour, starting and ending at the start city, or null if no tour of the
+     * instance is stored
+     */
+    public synchronized int[] get(final Cities cities, final int startCity) {
+        final int n = cities.size();
+        if (n == 0 || n > MAX_CITIES) {
+            misses++;
+            return null;
+        }
+        final int[] order = canonicalOrder(cities);
+        final long[] key = key(cities, order);
+        final int slot = find(key);
+        if (slot < 0 || buffer.getInt(slot + SIZE_OFFSET) != n) {
+            misses++;
+            return null;
+        }
+        //the stored tour is a cycle through canonical positions; start it at the start city
+        final byte[] stored = new byte[n];
+        buffer.get(slot + TOUR_OFFSET, stored);
+        int first = 0;
+        while (order[stored[first]] != startCity) {
+            first++;
+        }
+        final int[] tour = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            tour[i] = order[stored[(first + i) % n]];
+        }
+        tour[n] = startCity;
+        final double cost = buffer.getDouble(slot + COST_OFFSET);
+        if (Math.abs(cities.tourCost(tour) - cost) > COST_TOLERANCE * cost) {
+            misses++;
+            return null;
+        }
+        buffer.putLong(slot + STAMP_OFFSET, tick());
+        hits++;
+        return TSPUtils.orient(tour);
+    }
+
+    /**
+     * Store the optimal tour of an instance, replacing the tour stored for it if there is one. Tours of instances
+     * with more than {@link #MAX_CITIES} cities are not stored.
+     * @param cities Coordinates of the cities; city ids are their indices
+     * @param tour ids of the cities of an optimal tour, starting and ending at the same city
+     * @return true if the tour was stored
+     * @throws IllegalArgumentException if the tour does not visit every city once
+     */
+    public synchronized boolean put(final Cities cities, final int[] tour) {
+        final int n = cities.size();
+        if (n == 0 || n > MAX_CITIES) {
+            return false;
+        }
+        if (tour.length != n + 1 || tour[0] != tour[n]) {
+            throw new IllegalArgumentException("Not a closed tour of " + n + " cities: " + Arrays.toString(tour));
+        }
+        final int[] order = canonicalOrder(cities);
+        final int[] position = new int[n];
+        for (int i = 0; i < n; i++) {
+            position[order[i]] = i;
+        }
+        final byte[] stored = new byte[n];
+        long seen = 0;
+        for (int i = 0; i < n; i++) {
+            stored[i] = (byte) position[tour[i]];
+            seen |= 1L << tour[i];
+        }
+        if (seen != TSPUtils.allCities(n)) {
+            throw new IllegalArgumentException("Not a closed tour of " + n + " cities: " + Arrays.toString(tour));
+        }
+        final long[] key = key(cities, order);
+        int slot = find(key);
+        if (slot < 0) {
+            slot = victim(key);
+        }
+        buffer.putLong(slot + KEY_OFFSET, key[0]);
+        buffer.putLong(slot + KEY_OFFSET + Long.BYTES, key[1]);
+        buffer.putDouble(slot + COST_OFFSET, cities.tourCost(tour));
+        buffer.putInt(slot + SIZE_OFFSET, n);
+        buffer.put(slot + TOUR_OFFSET, stored);
+        buffer.putLong(slot + STAMP_OFFSET, tick());
+        return true;
+    }
+
+    /**
+     * Look up the optimal tour of an instance, solving it and storing the tour if it is not cached
+     * @param cities Coordinates of the cities; city ids are their indices
+     * @param startCity id of the start city
+     * @param solver Exact solver used on a miss; it runs outside the lock of the cache
+     * @return ids of the cities of the optimal tour, starting and ending at the start city
+     */
+    public int[] solve(final Cities cities, final int startCity, final TSPSolver solver) {
+        final int[] cached = get(cities, startCity);
+        if (cached != null) {
+            return cached;
+        }
+        final int[] tour = solver.solve(cities, startCity);
+        put(cities, tour);
+        return tour;
+    }
+
+    /**
+     * @return Number of lookups that found a tour
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Number of lookups that found no tour
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Number of tours the cache can hold
+     */
+    public int capacity() {
+        return numSets * WAYS;
+    }
+
+    /**
+     * Write the cache to disk and release the file
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close solution cache", e);
+        }
+    }
+
+    /**
+     * @return ids of the cities in canonical order, sorted by coordinates; cities at the same place can swap without
+     * changing any tour's cost
+     */
+    static int[] canonicalOrder(final Cities cities) {
+        final Integer[] order = new Integer[cities.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> cities.x[i] != cities.x[j]
+                ? Integer.compare(cities.x[i], cities.x[j])
+                : Integer.compare(cities.y[i], cities.y[j]));
+        final int[] ids = new int[order.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = order[i];
+        }
+        return ids;
+    }
+
+    /**
+     * @return First 128 bits of the SHA-256 of the canonical form, the metric and the translated coordinates in
+     * canonical order
+     */
+    private long[] key(final Cities cities, final int[] order) {
+        long minX = Long.MAX_VALUE;
+        long minY = Long.MAX_VALUE;
+        for (int i = 0; i < cities.size(); i++) {
+            minX = Math.min(minX, cities.x[i]);
+            minY = Math.min(minY, cities.y[i]);
+        }
+        final byte[] metric = cities.metric().name().getBytes(StandardCharsets.US_ASCII);
+        final ByteBuffer canonical = ByteBuffer.allocate(metric.length + Integer.BYTES + order.length * 2 * Long.BYTES);
+        canonical.put(metric).putInt(order.length);
+        for (final int city : order) {
+            canonical.putLong(cities.x[city] - minX).putLong(cities.y[city] - minY);
+        }
+        final ByteBuffer hash = ByteBuffer.wrap(digest.digest(canonical.array()));
+        return new long[]{hash.getLong(), hash.getLong()};
+    }
+
+    /**
+     * @return Offset of the slot holding the key, or -1 if it is not stored
+     */
+    private int find(final long[] key) {
+        final int first = firstSlot(key);
+        for (int way = 0; way < WAYS; way++) {
+            final int slot = first + way * SLOT_BYTES;
+            if (buffer.getLong(slot + STAMP_OFFSET) != 0
+                    && buffer.getLong(slot + KEY_OFFSET) == key[0]
+                    && buffer.getLong(slot + KEY_OFFSET + Long.BYTES) == key[1]) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Offset of the slot a new key goes into: an empty slot of its set, or else the least recently used one
+     */
+    private int victim(final long[] key) {
+        final int first = firstSlot(key);
+        int oldest = first;
+        for (int way = 0; way < WAYS; way++) {
+            final int slot = first + way * SLOT_BYTES;
+            if (buffer.getLong(slot + STAMP_OFFSET) < buffer.getLong(oldest + STAMP_OFFSET)) {
+                oldest = slot;
+            }
+        }
+        return oldest;
+    }
+
+    private int firstSlot(final long[] key) {
+        final int set = (int) Long.remainderUnsigned(key[0], numSets);
+        return HEADER_BYTES + set * WAYS * SLOT_BYTES;
+    }
+
+    /**
+     * @return Next value of the clock that stamps slots when they are used, never 0
+     */
+    private long tick() {
+        final long clock = buffer.getLong(CLOCK_OFFSET) + 1;
+        buffer.putLong(CLOCK_OFFSET, clock);
+        return clock;
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.Arrays;
+
+/**
+ * Minimum spanning trees over all the cities of an instance, for instances too large for a distance matrix.
+ * The Euclidean minimum spanning tree is built with Boruvka's algorithm: every round, each component of the forest
+ * is joined to the nearest city outside it, which at least halves the number of components. Finding that city is a
+ * nearest neighbour query on a {@link SpatialIndex} labelled with component ids, which skips the subtrees that lie
+ * within the component, so a round takes about n log n time and the whole tree about n log^2 n.
+ */
+public class SpanningTree {
+
+    /**
+     * @param cities Coordinates of the cities
+     * @return Parent of every city in a minimum spanning tree rooted at city 0, whose own parent is -1
+     */
+    public static int[] euclidean(final Cities cities) {
+        return euclidean(cities, new SpatialIndex(cities));
+    }
+
+    /**
+     * @param cities Coordinates of the cities
+     * @param index Index over the cities; its labels are overwritten
+     * @return Parent of every city in a minimum spanning tree rooted at city 0, whose own parent is -1
+     */
+    public static int[] euclidean(final Cities cities, final SpatialIndex index) {
+        final int n = cities.size();
+        //union-find over the components of the forest
+        final int[] component = new int[n];
+        final int[] labels = new int[n];
+        for (int i = 0; i < n; i++) {
+            component[i] = i;
+            labels[i] = i;
+        }
+        final int[] edgeFrom = new int[Math.max(n - 1, 0)];
+        final int[] edgeTo = new int[Math.max(n - 1, 0)];
+        int numEdges = 0;
+        //cheapest edge leaving each component in this round, indexed by component
+        final int[] bestFrom = new int[n];
+        final int[] bestTo = new int[n];
+        final double[] bestDistance = new double[n];
+        int numComponents = n;
+        while (numComponents > 1) {
+            index.setLabels(labels);
+            Arrays.fill(bestDistance, Double.POSITIVE_INFINITY);
+            for (int city = 0; city < n; city++) {
+                final int label = labels[city];
+                //only a city closer than the best edge of the component so far is of interest
+                final int nearest = index.nearest(city, label, bestDistance[label]);
+                if (nearest < 0) {
+                    continue;
+                }
+                final double distance = cities.distance(city, nearest);
+                if (distance < bestDistance[label] || (distance == bestDistance[label] && tieBreak(city, nearest, bestFrom[label], bestTo[label]))) {
+                    bestDistance[label] = distance;
+                    bestFrom[label] = city;
+                    bestTo[label] = nearest;
+                }
+            }
+            for (int label = 0; label < n; label++) {
+                if (bestDistance[label] == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                final int a = find(component, bestFrom[label]);
+                final int b = find(component, bestTo[label]);
+                //two components may pick the same edge; only the first joins them
+                if (a != b) {
+                    component[a] = b;
+                    edgeFrom[numEdges] = bestFrom[label];
+                    edgeTo[numEdges] = bestTo[label];
+                    numEdges++;
+                    numComponents--;
+                }
+            }
+            for (int city = 0; city < n; city++) {
+                labels[city] = find(component, city);
+            }
+        }
+        return rootTree(n, edgeFrom, edgeTo, numEdges);
+    }
+
+    /**
+     * @param distances Distances between the cities
+     * @param parent Parent of every city, -1 for the root
+     * @return Total length of the tree's edges
+     */
+    public static double cost(final Distances distances, final int[] parent) {
+        double cost = 0;
+        for (int city = 0; city < parent.length; city++) {
+            if (parent[city] >= 0) {
+                cost += distances.distance(city, parent[city]);
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Order edges of equal length consistently, so that components never pick edges that close a cycle
+     */
+    private static boolean tieBreak(final int from, final int to, final int bestFrom, final int bestTo) {
+        final int low = Math.min(from, to);
+        final int bestLow = Math.min(bestFrom, bestTo);
+        return low < bestLow || (low == bestLow && Math.max(from, to) < Math.max(bestFrom, bestTo));
+    }
+
+    private static int find(final int[] component, int city) {
+        while (component[city] != city) {
+            //path halving
+            component[city] = component[component[city]];
+            city = component[city];
+        }
+        return city;
+    }
+
+    /**
+     * Turn an edge list into parent pointers by a breadth first search from city 0
+     */
+    private static int[] rootTree(final int n, final int[] edgeFrom, final int[] edgeTo, final int numEdges) {
+        final int[] adjacencyStart = new int[n + 1];
+        final int[] adjacency = new int[2 * numEdges];
+        for (int e = 0; e < numEdges; e++) {
+            adjacencyStart[edgeFrom[e] + 1]++;
+            adjacencyStart[edgeTo[e] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            adjacencyStart[i + 1] += adjacencyStart[i];
+        }
+        final int[] fill = adjacencyStart.clone();
+        for (int e = 0; e < numEdges; e++) {
+            adjacency[fill[edgeFrom[e]]++] = edgeTo[e];
+            adjacency[fill[edgeTo[e]]++] = edgeFrom[e];
+        }
+        final int[] parent = new int[n];
+        Arrays.fill(parent, -2);
+        final int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        if (n > 0) {
+            parent[0] = -1;
+            queue[tail++] = 0;
+        }
+        while (head < tail) {
+            final int city = queue[head++];
+            for (int i = adjacencyStart[city]; i < adjacencyStart[city + 1]; i++) {
+                final int next = adjacency[i];
+                if (parent[next] == -2) {
+                    parent[next] = city;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return parent;
+    }
+}
@@ -0,0 +1,360 @@
+/**
+ * Static 2-d tree over the coordinates of the cities of an instance, for nearest and k-nearest neighbour queries
+ * that take logarithmic time on typical instances instead of a scan over every city.
+ * The tree is implicit: the cities are permuted so that the city at the middle of every range splits the rest of the
+ * range by x or y coordinate, alternating with depth, and the two halves hold its subtrees. Every city also carries
+ * an int label, such as visited or not, or the component of a spanning forest, and every subtree remembers the label
+ * all its cities share (if they do), so that a query for the nearest city whose label differs from a given one skips
+ * whole subtrees without looking at their cities. Labels start out 0.
+ * Instances are not thread safe once labels are changed.
+ */
+public class SpatialIndex {
+    /**
+     * Shared label of a subtree whose cities have different labels
+     */
+    private static final int MIXED = Integer.MIN_VALUE;
+
+    private final int[] x;
+    private final int[] y;
+    //cities in tree order
+    private final int[] tree;
+    //position of every city in tree
+    private final int[] treePosition;
+    private final int[] labels;
+    //label shared by all cities of the subtree whose root is at a tree position, or MIXED
+    private final int[] subtreeLabels;
+    //scratch space for queries
+    private int best;
+    private double bestDistance;
+    private int[] heapCities;
+    private double[] heapDistances;
+    private int heapSize;
+
+    /**
+     * @param cities Coordinates of the cities; the index keeps references to the coordinate arrays
+     */
+    public SpatialIndex(final Cities cities) {
+        final int n = cities.size();
+        this.x = cities.x;
+        this.y = cities.y;
+        this.tree = new int[n];
+        this.treePosition = new int[n];
+        this.labels = new int[n];
+        this.subtreeLabels = new int[n];
+        for (int i = 0; i < n; i++) {
+            tree[i] = i;
+        }
+        build(0, n, true);
+        for (int i = 0; i < n; i++) {
+            treePosition[tree[i]] = i;
+        }
+    }
+
+    /**
+     * @return Number of cities
+     */
+    public int size() {
+        return tree.length;
+    }
+
+    public int label(final int city) {
+        return labels[city];
+    }
+
+    /**
+     * Change the label of one city, in time logarithmic in the number of cities
+     */
+    public void setLabel(final int city, final int label) {
+        labels[city] = label;
+        relabel(0, tree.length, treePosition[city]);
+    }
+
+    /**
+     * Change the label of every city at once, in linear time
+     * @param newLabels Label of every city, indexed by city id
+     */
+    public void setLabels(final int[] newLabels) {
+        System.arraycopy(newLabels, 0, labels, 0, labels.length);
+        relabelAll(0, tree.length);
+    }
+
+    /**
+     * @param city id of a city
+     * @param excludedLabel Label of the cities to ignore
+     * @return id of the city closest to the given one whose label is not excludedLabel, or -1 if there is none. The
+     * given city itself is never returned. Of cities at the same distance, the one with the lowest id is returned.
+     */
+    public int nearest(final int city, final int excludedLabel) {
+        return nearest(city, excludedLabel, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Like {@link #nearest(int, int)}, but only looking within a given distance, which prunes far more of the tree
+     * when a good candidate is already known
+     * @param maxDistance Largest distance of interest
+     * @return id of the nearest city within maxDistance whose label is not excludedLabel, or -1 if there is none
+     */
+    public int nearest(final int city, final int excludedLabel, final double maxDistance) {
+        best = Integer.MAX_VALUE;
+        bestDistance = maxDistance * maxDistance;
+        nearest(0, tree.length, true, city, excludedLabel);
+        return best == Integer.MAX_VALUE ? -1 : best;
+    }
+
+    /**
+     * @param city id of a city
+     * @param k Number of neighbours wanted
+     * @return ids of the k cities closest to the given one (fewer if there are not that many other cities), nearest
+     * first and ties broken by id
+     */
+    public int[] kNearest(final int city, final int k) {
+        final int count = Math.min(k, tree.length - 1);
+        if (heapCities == null || heapCities.length < count) {
+            heapCities = new int[count];
+            heapDistances = new double[count];
+        }
+        heapSize = 0;
+        if (count > 0) {
+            kNearest(0, tree.length, true, city, count);
+        }
+        //pop the max-heap from the back to get the nearest first
+        final int[] neighbours = new int[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--) {
+            neighbours[i] = heapCities[0];
+            heapCities[0] = heapCities[i];
+            heapDistances[0] = heapDistances[i];
+            heapSize = i;
+            siftDown(0);
+        }
+        return neighbours;
+    }
+
+    /**
+     * @param k Number of neighbours per city
+     * @return For each city, the ids of its k nearest other cities, nearest first
+     */
+    public int[][] candidateLists(final int k) {
+        final int[][] candidates = new int[tree.length][];
+        for (int city = 0; city < tree.length; city++) {
+            candidates[city] = kNearest(city, k);
+        }
+        return candidates;
+    }
+
+    /**
+     * Arrange tree[from, to) into a subtree, splitting on x at this level if byX
+     */
+    private void build(final int from, final int to, final boolean byX) {
+        if (to - from <= 1) {
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        select(from, to - 1, middle, byX);
+        build(from, middle, !byX);
+        build(middle + 1, to, !byX);
+    }
+
+    /**
+     * Quickselect: move the city with the k-th smallest coordinate of tree[left, right] to position k, smaller ones
+     * before it and larger ones after it
+     */
+    private void select(int left, int right, final int k, final boolean byX) {
+        final int[] coordinates = byX ? x : y;
+        while (left < right) {
+            //median of three pivot keeps sorted inputs from going quadratic
+            final int middle = (left + right) >>> 1;
+            if (less(coordinates, tree[middle], tree[left])) {
+                swap(middle, left);
+            }
+            if (less(coordinates, tree[right], tree[left])) {
+                swap(right, left);
+            }
+            if (less(coordinates, tree[right], tree[middle])) {
+                swap(right, middle);
+            }
+            final int pivot = tree[middle];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (less(coordinates, tree[i], pivot)) {
+                    i++;
+                }
+                while (less(coordinates, pivot, tree[j])) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Order cities by one coordinate, then by id so that equal coordinates still split deterministically
+     */
+    private static boolean less(final int[] coordinates, final int a, final int b) {
+        return coordinates[a] < coordinates[b] || (coordinates[a] == coordinates[b] && a < b);
+    }
+
+    private void swap(final int i, final int j) {
+        final int city = tree[i];
+        tree[i] = tree[j];
+        tree[j] = city;
+    }
+
+    /**
+     * @return Shared label of the subtree over tree[from, to), recomputing every subtree within it
+     */
+    private int relabelAll(final int from, final int to) {
+        if (from >= to) {
+            return MIXED;
+        }
+        final int middle = (from + to) >>> 1;
+        final int left = relabelAll(from, middle);
+        final int right = relabelAll(middle + 1, to);
+        subtreeLabels[middle] = combine(labels[tree[middle]], from < middle ? left : labels[tree[middle]],
+                middle + 1 < to ? right : labels[tree[middle]]);
+        return subtreeLabels[middle];
+    }
+
+    /**
+     * Recompute the shared labels of the subtrees on the path from the subtree over tree[from, to) to the one rooted
+     * at a given position
+     */
+    private int relabel(final int from, final int to, final int position) {
+        final int middle = (from + to) >>> 1;
+        final int own = labels[tree[middle]];
+        int left = from < middle ? subtreeLabels[(from + middle) >>> 1] : own;
+        int right = middle + 1 < to ? subtreeLabels[(middle + 1 + to) >>> 1] : own;
+        if (position < middle) {
+            left = relabel(from, middle, position);
+        } else if (position > middle) {
+            right = relabel(middle + 1, to, position);
+        }
+        subtreeLabels[middle] = combine(own, left, right);
+        return subtreeLabels[middle];
+    }
+
+    private static int combine(final int own, final int left, final int right) {
+        return own == left && own == right ? own : MIXED;
+    }
+
+    private void nearest(final int from, final int to, final boolean byX, final int city, final int excludedLabel) {
+        if (from >= to) {
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        if (subtreeLabels[middle] == excludedLabel) {
+            return;
+        }
+        final int candidate = tree[middle];
+        if (candidate != city && labels[candidate] != excludedLabel) {
+            final double distance = squaredDistance(city, candidate);
+            if (distance < bestDistance || (distance == bestDistance && candidate < best)) {
+                best = candidate;
+                bestDistance = distance;
+            }
+        }
+        //search the side the city is on first, and the other side only if the splitting line is close enough
+        final double offset = byX ? (double) x[city] - x[candidate] : (double) y[city] - y[candidate];
+        final boolean leftFirst = offset < 0 || (offset == 0 && city < candidate);
+        if (leftFirst) {
+            nearest(from, middle, !byX, city, excludedLabel);
+            if (offset * offset <= bestDistance) {
+                nearest(middle + 1, to, !byX, city, excludedLabel);
+            }
+        } else {
+            nearest(middle + 1, to, !byX, city, excludedLabel);
+            if (offset * offset <= bestDistance) {
+                nearest(from, middle, !byX, city, excludedLabel);
+            }
+        }
+    }
+
+    private void kNearest(final int from, final int to, final boolean byX, final int city, final int k) {
+        if (from >= to) {
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        final int candidate = tree[middle];
+        if (candidate != city) {
+            offer(candidate, squaredDistance(city, candidate), k);
+        }
+        final double offset = byX ? (double) x[city] - x[candidate] : (double) y[city] - y[candidate];
+        final boolean leftFirst = offset < 0 || (offset == 0 && city < candidate);
+        if (leftFirst) {
+            kNearest(from, middle, !byX, city, k);
+            if (heapSize < k || offset * offset <= heapDistances[0]) {
+                kNearest(middle + 1, to, !byX, city, k);
+            }
+        } else {
+            kNearest(middle + 1, to, !byX, city, k);
+            if (heapSize < k || offset * offset <= heapDistances[0]) {
+                kNearest(from, middle, !byX, city, k);
+            }
+        }
+    }
+
+    /**
+     * Add a city to the max-heap of the k nearest found so far, if it is nearer than the farthest of them
+     */
+    private void offer(final int candidate, final double distance, final int k) {
+        if (heapSize < k) {
+            int i = heapSize++;
+            while (i > 0) {
+                final int parent = (i - 1) / 2;
+                if (!farther(distance, candidate, heapDistances[parent], heapCities[parent])) {
+                    break;
+                }
+                heapCities[i] = heapCities[parent];
+                heapDistances[i] = heapDistances[parent];
+                i = parent;
+            }
+            heapCities[i] = candidate;
+            heapDistances[i] = distance;
+        } else if (farther(heapDistances[0], heapCities[0], distance, candidate)) {
+            heapCities[0] = candidate;
+            heapDistances[0] = distance;
+            siftDown(0);
+        }
+    }
+
+    private void siftDown(int i) {
+        final int city = heapCities[i];
+        final double distance = heapDistances[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && farther(heapDistances[child + 1], heapCities[child + 1], heapDistances[child], heapCities[child])) {
+                child++;
+            }
+            if (!farther(heapDistances[child], heapCities[child], distance, city)) {
+                break;
+            }
+            heapCities[i] = heapCities[child];
+            heapDistances[i] = heapDistances[child];
+            i = child;
+        }
+        heapCities[i] = city;
+        heapDistances[i] = distance;
+    }
+
+    private static boolean farther(final double d1, final int c1, final double d2, final int c2) {
+        return d1 > d2 || (d1 == d2 && c1 > c2);
+    }
+
+    private double squaredDistance(final int a, final int b) {
+        final double dx = (double) x[a] - x[b];
+        final double dy = (double) y[a] - y[b];
+        return dx * dx + dy * dy;
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * Thrown by a search that stores more states than the limit it was given, before it runs the JVM out of memory
+ */
+public class StateLimitExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int limit;
+
+    public StateLimitExceededException(final int limit) {
+        super("Search stored more than " + limit + " states");
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
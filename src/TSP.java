@@ -1,6 +1,3 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
 import java.util.*;
 
 /**
@@ -13,18 +10,7 @@ public class TSP {
     }
 
     public static Map<String, Position> readCities(final String dataFile) {
-        final Map<String, Position> cities = new HashMap<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(dataFile))) {
-            final int numCities = Integer.valueOf(br.readLine());
-            for (int i = 0; i < numCities; i++) {
-                final String line = br.readLine();
-                final String[] tokens = line.split("\\s");
-                cities.put(tokens[0], new Position(Integer.valueOf(tokens[1]), Integer.valueOf(tokens[2])));
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return cities;
+        return TSPUtils.readCities(dataFile);
     }
 
     public static List<String> search(final Map<String, Position> cities, final String startCity) {
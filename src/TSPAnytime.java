@@ -0,0 +1,379 @@
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Anytime solver: reports better and better tours as it finds them, each with a proven lower bound on the optimal
+ * cost, so that a caller with a deadline can take the best tour known when its time is up and knows how far from
+ * optimal that tour can be.
+ * The first tour comes from {@link TSPNearestNeighbour} and {@link TSPLinKernighan} then improves it for a share of the
+ * time. Instances of up to 64 cities are then solved exactly with A* graph search and the 1-tree heuristic, pruned by
+ * that tour; the f of the states the search expands raises the lower bound as it goes, until the optimal tour is
+ * found and its cost meets the bound. Larger instances give all the time to Lin-Kernighan. Until the search raises it,
+ * the bound is the length of the Euclidean minimum spanning tree.
+ * Solving stops at the deadline, or early when the thread running it is interrupted, and the best tour found so far
+ * is the result either way.
+ */
+public class TSPAnytime {
+    /**
+     * Share of the time given to Lin-Kernighan before the exact search starts, and the most time it gets; on 64
+     * cities it has long run out of improvements by then
+     */
+    private static final double LOCAL_SEARCH_SHARE = 0.1;
+    private static final long LOCAL_SEARCH_MILLIS = 10;
+    /**
+     * The bound of the search rises in many tiny steps, so a new bound is only reported once it has risen by this
+     * fraction of the cost of the tour
+     */
+    private static final double BOUND_STEP = 1e-3;
+    /**
+     * A tour this close to the lower bound, relative to its cost, is optimal; the two are computed in different ways
+     */
+    private static final double OPTIMALITY_TOLERANCE = 1e-9;
+
+    private final Cities cities;
+    private final int startCity;
+
+    /**
+     * @param cities Coordinates of the cities; city ids are their indices
+     * @param startCity id of the start city
+     */
+    public TSPAnytime(final Cities cities, final int startCity) {
+        this.cities = cities;
+        this.startCity = startCity;
+    }
+
+    /**
+     * Usage: TSPAnytime file [time limit in milliseconds]
+     */
+    public static void main(final String[] args) {
+        final Cities cities = CityParser.parse(args[0]).sortedByName();
+        final long timeoutMillis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        final Incumbent best = new TSPAnytime(cities, 0).solve(timeoutMillis, System.out::println);
+        for (final int city : best.getTour()) {
+            System.out.println(cities.name(city));
+        }
+    }
+
+    /**
+     * Solve on the calling thread, telling the listener about every better tour or bound as soon as it is known
+     * @param timeoutMillis Time after which the best tour known is returned
+     * @param listener Called on the calling thread with every new incumbent, starting with the first tour found; each
+     *                 has a lower cost or a higher bound than the one before
+     * @return The last incumbent given to the listener
+     */
+    public Incumbent solve(final long timeoutMillis, final Consumer<Incumbent> listener) {
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        final Progress progress = new Progress(start, listener);
+        final int n = cities.size();
+        if (n == 1) {
+            progress.optimal(new int[]{startCity});
+            return progress.best;
+        }
+        final SpatialIndex index = new SpatialIndex(cities);
+        final int[][] candidates = index.candidateLists(TSPLinKernighan.NUM_NEIGHBOURS);
+        progress.bound = SpanningTree.cost(cities, SpanningTree.euclidean(cities, index));
+        final boolean exact = n <= Long.SIZE;
+        final long localSearchDeadline = exact
+                ? start + Math.min((long) ((deadline - start) * LOCAL_SEARCH_SHARE), TimeUnit.MILLISECONDS.toNanos(LOCAL_SEARCH_MILLIS))
+                : deadline;
+        final int[] order = TSPNearestNeighbour.nearestNeighbourOrder(index, startCity);
+        TSPNearestNeighbour.improve(cities, order, candidates, localSearchDeadline);
+        progress.tour(TSPUtils.orient(TSPNearestNeighbour.closeTour(order, startCity)));
+        progress.tour(new TSPLinKernighan(0).solve(cities, candidates, order, startCity, localSearchDeadline));
+        if (!exact || Thread.currentThread().isInterrupted()) {
+            return progress.best;
+        }
+        final DistanceMatrix matrix = new DistanceMatrix(cities.names(), cities.x, cities.y);
+        try {
+            progress.optimal(TSPSearch.searchGraph(matrix, startCity, new OneTreeHeuristic(matrix, startCity),
+                    progress.best.cost, new SearchStats(), Integer.MAX_VALUE, f -> {
+                        if (System.nanoTime() >= deadline) {
+                            throw new CancellationException("Out of time");
+                        }
+                        progress.bound(f);
+                    }));
+        } catch (CancellationException e) {
+            //out of time or interrupted; the best tour so far stands
+        }
+        return progress.best;
+    }
+
+    /**
+     * A publisher of the incumbents of a solve. Every subscriber gets a solve of its own, which starts on the
+     * executor once it has subscribed. A subscriber that requests incumbents more slowly than they are found only
+     * gets the latest one, and the final incumbent is always delivered before completion. Cancelling the subscription
+     * stops the solve.
+     * @param timeoutMillis Time after which each solve completes with the best tour it knows
+     * @param executor Runs the solves; the thread of a cancelled solve is handed back uninterrupted
+     * @return Publisher of incumbents
+     */
+    public Flow.Publisher<Incumbent> publisher(final long timeoutMillis, final Executor executor) {
+        return subscriber -> {
+            final Subscription subscription = new Subscription(subscriber, timeoutMillis);
+            subscriber.onSubscribe(subscription);
+            try {
+                executor.execute(subscription);
+            } catch (RejectedExecutionException e) {
+                subscription.fail(e);
+            }
+        };
+    }
+
+    /**
+     * A tour known at some point during a solve, with a lower bound on the cost of any tour
+     */
+    public static final class Incumbent {
+        private final int[] tour;
+        private final double cost;
+        private final double lowerBound;
+        private final long elapsedNanos;
+
+        Incumbent(final int[] tour, final double cost, final double lowerBound, final long elapsedNanos) {
+            this.tour = tour;
+            this.cost = cost;
+            this.lowerBound = lowerBound;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return ids of the cities of the tour, starting and ending at the start city
+         */
+        public int[] getTour() {
+            return tour.clone();
+        }
+
+        public double getCost() {
+            return cost;
+        }
+
+        /**
+         * @return Lower bound on the cost of the optimal tour
+         */
+        public double getLowerBound() {
+            return lowerBound;
+        }
+
+        /**
+         * @return How far the tour is above the lower bound, as a fraction of the bound
+         */
+        public double getGap() {
+            return lowerBound > 0 ? (cost - lowerBound) / lowerBound : 0;
+        }
+
+        /**
+         * @return true if the tour is known to be optimal
+         */
+        public boolean isOptimal() {
+            return cost - lowerBound <= OPTIMALITY_TOLERANCE * cost;
+        }
+
+        /**
+         * @return Time from the start of the solve until the incumbent was found, in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "cost: " + cost + ", lower bound: " + lowerBound + ", gap: " + getGap() * 100 + "%"
+                    + (isOptimal() ? " (optimal)" : "") + ", ms: " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+    }
+
+    /**
+     * The incumbent of a solve, and the bound known so far
+     */
+    private final class Progress {
+        private final long start;
+        private final Consumer<Incumbent> listener;
+        private Incumbent best;
+        private double bound;
+
+        Progress(final long start, final Consumer<Incumbent> listener) {
+            this.start = start;
+            this.listener = listener;
+        }
+
+        /**
+         * A tour was found; report it if it is the best so far
+         */
+        void tour(final int[] tour) {
+            final double cost = cities.tourCost(tour);
+            if (best == null || cost < best.cost) {
+                publish(new Incumbent(tour, cost, Math.min(bound, cost), System.nanoTime() - start));
+            }
+        }
+
+        /**
+         * The search proved a lower bound; report it if it has risen enough
+         */
+        void bound(final double lowerBound) {
+            //a bound computed from the distance matrix may exceed the cost by rounding error
+            bound = Math.max(bound, Math.min(lowerBound, best.cost));
+            if (bound - best.lowerBound > BOUND_STEP * best.cost) {
+                publish(new Incumbent(best.tour, best.cost, bound, System.nanoTime() - start));
+            }
+        }
+
+        /**
+         * The search found an optimal tour
+         */
+        void optimal(final int[] tour) {
+            final double cost = cities.tourCost(tour);
+            bound = cost;
+            if (best != null && best.isOptimal() && best.cost <= cost) {
+                //the bound already reached the cost of the incumbent
+                return;
+            }
+            publish(new Incumbent(tour, cost, cost, System.nanoTime() - start));
+        }
+
+        private void publish(final Incumbent incumbent) {
+            best = incumbent;
+            listener.accept(incumbent);
+        }
+    }
+
+    /**
+     * Runs the solve of one subscriber and delivers its incumbents, one at a time and only on demand
+     */
+    private final class Subscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super Incumbent> subscriber;
+        private final long timeoutMillis;
+        //all of the following are guarded by this
+        private long demand;
+        private Incumbent pending;
+        private boolean finished;
+        private Throwable failure;
+        private boolean cancelled;
+        private boolean delivering;
+        private boolean terminated;
+        private Thread thread;
+
+        Subscription(final Flow.Subscriber<? super Incumbent> subscriber, final long timeoutMillis) {
+            this.subscriber = subscriber;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested " + n + " incumbents"));
+                return;
+            }
+            synchronized (this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            deliver();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            pending = null;
+            stopSolving();
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (cancelled || failure != null) {
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            try {
+                solve(timeoutMillis, this::offer);
+            } catch (RuntimeException e) {
+                fail(e);
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                    finished = true;
+                    //an interrupt from cancel must not leak into the executor's next task
+                    if (cancelled || failure != null) {
+                        Thread.interrupted();
+                    }
+                }
+            }
+            deliver();
+        }
+
+        void fail(final Throwable t) {
+            synchronized (this) {
+                if (failure == null) {
+                    failure = t;
+                }
+                stopSolving();
+            }
+            deliver();
+        }
+
+        private void offer(final Incumbent incumbent) {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                pending = incumbent;
+            }
+            deliver();
+        }
+
+        private void stopSolving() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        /**
+         * Hand the pending incumbent, an error or completion to the subscriber. Only one thread delivers at a time,
+         * and a request made from within onNext is served by the loop of the thread already delivering.
+         */
+        private void deliver() {
+            synchronized (this) {
+                if (delivering) {
+                    return;
+                }
+                delivering = true;
+            }
+            while (true) {
+                Incumbent next = null;
+                Throwable error = null;
+                synchronized (this) {
+                    if (cancelled || terminated) {
+                        delivering = false;
+                        return;
+                    }
+                    if (failure != null) {
+                        terminated = true;
+                        error = failure;
+                    } else if (pending != null && demand > 0) {
+                        next = pending;
+                        pending = null;
+                        if (demand != Long.MAX_VALUE) {
+                            demand--;
+                        }
+                    } else if (finished && pending == null) {
+                        terminated = true;
+                    } else {
+                        delivering = false;
+                        return;
+                    }
+                }
+                if (next != null) {
+                    subscriber.onNext(next);
+                } else if (error != null) {
+                    subscriber.onError(error);
+                } else {
+                    subscriber.onComplete();
+                }
+            }
+        }
+    }
+}
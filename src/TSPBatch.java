@@ -0,0 +1,336 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Solves many instances in one JVM, so that JVM startup and JIT warm-up are paid once for a whole run.
+ * Instances are solved concurrently on a fixed number of threads, and each result is written as one JSON line as
+ * soon as it is known, in the order instances finish.
+ * Every instance is first given a local search tour, which for large instances works from a spatial index rather than
+ * a distance matrix. Instances of up to 64 cities are then solved exactly with A* graph search and the 1-tree
+ * heuristic, which gives up when it runs out of time or the states it stores outgrow the share of the heap each thread may
+ * use; the local search tour is reported in that case.
+ * With a spill directory, the exact search keeps its frontier within half of that share, leaving the rest for the
+ * states it has expanded, and writes the rest of the frontier to disk (see {@link ExternalFrontier}) instead of giving
+ * up, so only the timeout stops it.
+ * With a {@link SolutionCache}, exact tours are stored as they are found, and an instance whose tour is cached, even
+ * under other names or shifted, is answered from the cache without a search.
+ * Usage: TSPBatch directory|manifest [--threads=N] [--timeout=SECONDS] [--cache=FILE] [--spill=DIRECTORY]. A directory
+ * is searched recursively for instance files; a manifest lists one instance path per line, relative to the manifest,
+ * with # starting comments.
+ */
+public class TSPBatch {
+    /**
+     * Generous estimate of the heap used per state stored by the graph search, counting its node, its slot in the open
+     * list and its entry in the table of best costs, each with room for its array to have just doubled
+     */
+    static final int BYTES_PER_STATE = 192;
+    /**
+     * Fraction of the heap that the instances being solved may use between them
+     */
+    private static final double HEAP_FRACTION = 0.75;
+
+    private final int numThreads;
+    private final long timeoutMillis;
+    private final long memoryPerInstance;
+    private final SolutionCache cache;
+    private final Path spillDirectory;
+
+    /**
+     * @param numThreads Number of instances solved at once
+     * @param timeoutMillis Time after which an exact search is abandoned
+     */
+    public TSPBatch(final int numThreads, final long timeoutMillis) {
+        this(numThreads, timeoutMillis, null);
+    }
+
+    /**
+     * @param numThreads Number of instances solved at once
+     * @param timeoutMillis Time after which an exact search is abandoned
+     * @param cache Where exact tours are looked up and stored, or null to always search
+     */
+    public TSPBatch(final int numThreads, final long timeoutMillis, final SolutionCache cache) {
+        this(numThreads, timeoutMillis, cache, null);
+    }
+
+    /**
+     * @param numThreads Number of instances solved at once
+     * @param timeoutMillis Time after which an exact search is abandoned
+     * @param cache Where exact tours are looked up and stored, or null to always search
+     * @param spillDirectory Where exact searches spill their frontiers, or null to give up on searches that run out of
+     *                       memory
+     */
+    public TSPBatch(final int numThreads, final long timeoutMillis, final SolutionCache cache, final Path spillDirectory) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Need at least one thread, got " + numThreads);
+        }
+        this.numThreads = numThreads;
+        this.timeoutMillis = timeoutMillis;
+        this.memoryPerInstance = (long) (Runtime.getRuntime().maxMemory() * HEAP_FRACTION / numThreads);
+        this.cache = cache;
+        this.spillDirectory = spillDirectory;
+    }
+
+    public static void main(final String[] args) throws InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: TSPBatch directory|manifest [--threads=N] [--timeout=SECONDS] [--cache=FILE] [--spill=DIRECTORY]");
+            System.exit(2);
+        }
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        long timeoutSeconds = 60;
+        Path cacheFile = null;
+        Path spillDirectory = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--threads=")) {
+                numThreads = Integer.parseInt(args[i].substring("--threads=".length()));
+            } else if (args[i].startsWith("--timeout=")) {
+                timeoutSeconds = Long.parseLong(args[i].substring("--timeout=".length()));
+            } else if (args[i].startsWith("--cache=")) {
+                cacheFile = Paths.get(args[i].substring("--cache=".length()));
+            } else if (args[i].startsWith("--spill=")) {
+                spillDirectory = Paths.get(args[i].substring("--spill=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        final SolutionCache cache = cacheFile == null ? null : new SolutionCache(cacheFile);
+        try {
+            new TSPBatch(numThreads, TimeUnit.SECONDS.toMillis(timeoutSeconds), cache, spillDirectory).run(instances(Paths.get(args[0])), System.out);
+        } finally {
+            if (cache != null) {
+                cache.close();
+            }
+        }
+    }
+
+    /**
+     * @param source A directory, searched recursively for instance files, or a manifest listing one instance per line
+     * @return Paths of the instances, in sorted order for a directory and in listed order for a manifest
+     */
+    public static List<Path> instances(final Path source) {
+        try {
+            if (Files.isDirectory(source)) {
+                try (Stream<Path> files = Files.walk(source)) {
+                    return files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                }
+            }
+            final Path directory = source.toAbsolutePath().getParent();
+            final List<Path> instances = new ArrayList<>();
+            for (final String line : Files.readAllLines(source)) {
+                final String entry = line.replaceFirst("#.*", "").trim();
+                if (!entry.isEmpty()) {
+                    instances.add(directory.resolve(entry));
+                }
+            }
+            return instances;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list instances of " + source, e);
+        }
+    }
+
+    /**
+     * Solve every instance and write one JSON line per instance as they finish
+     * @param instances Instance files
+     * @param out Where results are written
+     */
+    public void run(final List<Path> instances, final PrintStream out) throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final CompletionService<String> results = new ExecutorCompletionService<>(executor);
+            for (final Path instance : instances) {
+                results.submit(() -> solve(instance, timer));
+            }
+            for (int i = 0; i < instances.size(); i++) {
+                try {
+                    out.println(results.take().get());
+                } catch (ExecutionException e) {
+                    //solve reports its own failures, so this is a bug in the batch itself
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+            timer.shutdownNow();
+        }
+    }
+
+    /**
+     * Solve one instance, giving up on the exact search when the timeout expires
+     * @return JSON line describing the result
+     */
+    String solve(final Path instance, final ScheduledExecutorService timer) {
+        final long start = System.nanoTime();
+        final Result result = new Result(instance);
+        //the timeout counts from when the instance starts, not from when it was queued
+        final Thread thread = Thread.currentThread();
+        final Alarm alarm = new Alarm(thread);
+        final ScheduledFuture<?> scheduled = timer.schedule(alarm, timeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            solve(instance, result);
+        } catch (CancellationException e) {
+            result.status = "timeout";
+        } catch (StateLimitExceededException e) {
+            result.status = "memory";
+            result.message = e.getMessage();
+        } catch (OutOfMemoryError e) {
+            result.status = "memory";
+            result.message = "Out of memory";
+        } catch (RuntimeException e) {
+            //an interrupt can also surface as another exception, such as when it closes the file being read
+            result.status = thread.isInterrupted() ? "timeout" : "error";
+            result.message = e.toString();
+        } finally {
+            //once disarmed the alarm can't interrupt any more, so clearing the flag after it can't be undone
+            alarm.disarm();
+            scheduled.cancel(false);
+            Thread.interrupted();
+        }
+        result.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return result.toJson();
+    }
+
+    private void solve(final Path instance, final Result result) {
+        //sorted like a distance matrix, so that city 0 is the start city in both
+        final Cities cities = CityParser.parse(instance.toString()).sortedByName();
+        final int n = cities.size();
+        result.numCities = n;
+        if (n > Long.SIZE) {
+            //too large for the exact search; the local search works from the coordinates without a matrix
+            result.setTour(cities, TSPNearestNeighbour.solve(cities, 0), false);
+            return;
+        }
+        if (cache != null) {
+            final int[] cached = cache.get(cities, 0);
+            if (cached != null) {
+                result.setTour(cities, cached, true);
+                result.cached = true;
+                return;
+            }
+        }
+        final DistanceMatrix matrix = DistanceMatrix.fromCities(cities);
+        final int[] localOptimum = TSPNearestNeighbour.solve(matrix, 0);
+        result.setTour(cities, localOptimum, false);
+        final SearchStats stats = new SearchStats();
+        result.stats = stats;
+        final int[] tour;
+        if (spillDirectory != null) {
+            try (ExternalFrontier frontier = new ExternalFrontier(memoryPerInstance / 2, spillDirectory)) {
+                tour = TSPSearch.searchGraph(matrix, 0, new OneTreeHeuristic(matrix, 0), matrix.tourCost(localOptimum), stats, frontier);
+            }
+        } else {
+            final int maxStates = (int) Math.min(Integer.MAX_VALUE, memoryPerInstance / BYTES_PER_STATE);
+            tour = TSPSearch.searchGraph(matrix, 0, new OneTreeHeuristic(matrix, 0), matrix.tourCost(localOptimum),
+                    stats, maxStates);
+        }
+        result.setTour(cities, tour, true);
+        if (cache != null) {
+            cache.put(cities, tour);
+        }
+    }
+
+    /**
+     * Interrupts the thread solving an instance when its time is up. Cancelling a scheduled task doesn't stop one that
+     * has already started, so the interrupt and the end of the instance are serialized: after {@link #disarm()} the
+     * alarm does nothing, and an interrupt it delivered before is cleared by the caller.
+     */
+    private static class Alarm implements Runnable {
+        private final Thread thread;
+        private boolean armed = true;
+
+        Alarm(final Thread thread) {
+            this.thread = thread;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (armed) {
+                thread.interrupt();
+            }
+        }
+
+        synchronized void disarm() {
+            armed = false;
+        }
+    }
+
+    /**
+     * What is known about one instance, filled in as solving goes along so that a failed search still reports the
+     * local search tour
+     */
+    private static class Result {
+        final Path instance;
+        String status = "ok";
+        String message;
+        int numCities = -1;
+        boolean exact;
+        boolean cached;
+        double cost = Double.NaN;
+        List<String> tour;
+        SearchStats stats;
+        long millis;
+
+        Result(final Path instance) {
+            this.instance = instance;
+        }
+
+        void setTour(final Cities cities, final int[] tour, final boolean exact) {
+            this.tour = new ArrayList<>(tour.length);
+            for (final int city : tour) {
+                this.tour.add(cities.name(city));
+            }
+            this.cost = cities.tourCost(tour);
+            this.exact = exact;
+        }
+
+        String toJson() {
+            final StringBuilder json = new StringBuilder("{\"instance\":").append(quote(instance.toString()))
+                    .append(",\"status\":\"").append(status).append('"');
+            if (message != null) {
+                json.append(",\"message\":").append(quote(message));
+            }
+            json.append(",\"cities\":").append(numCities).append(",\"millis\":").append(millis);
+            if (cached) {
+                json.append(",\"cached\":true");
+            }
+            if (tour != null) {
+                json.append(",\"exact\":").append(exact).append(",\"cost\":").append(cost).append(",\"tour\":[");
+                for (int i = 0; i < tour.size(); i++) {
+                    json.append(i == 0 ? "" : ",").append(quote(tour.get(i)));
+                }
+                json.append(']');
+            }
+            if (stats != null) {
+                json.append(",\"generated\":").append(stats.getNumGenerated())
+                        .append(",\"expanded\":").append(stats.getNumExpanded())
+                        .append(",\"duplicates\":").append(stats.getNumDuplicates())
+                        .append(",\"peakOpen\":").append(stats.getPeakOpenSize())
+                        .append(",\"bytesAllocated\":").append(stats.getBytesAllocated());
+            }
+            return json.append('}').toString();
+        }
+
+        private static String quote(final String s) {
+            final StringBuilder quoted = new StringBuilder("\"");
+            for (int i = 0; i < s.length(); i++) {
+                final char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    quoted.append('\\').append(c);
+                } else if (c < ' ') {
+                    quoted.append(String.format("\\u%04x", (int) c));
+                } else {
+                    quoted.append(c);
+                }
+            }
+            return quoted.append('"').toString();
+        }
+    }
+}
@@ -1,48 +1,174 @@
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Created by bowen on 24/01/16.
+ * Exhaustive search over all tours, used as the ground truth the other solvers are checked against.
+ * The permutation tree is split into fork-join tasks for its first few levels, which work stealing spreads over the
+ * pool, and each task walks its subtree depth first. All tasks share the best tour found so far through an atomic
+ * reference, and a partial tour is abandoned as soon as its cost plus the MST lower bound on the rest of the tour
+ * exceeds the cost of that tour. A solver instance holds no static state, so several can run at once.
  */
 public class TSPBruteForce {
-    private static Map<String, Position> cities;
-    private static double minCost;
-    private static ListWrapper minPath;
+    /**
+     * Partial tours shorter than this many cities are split into one task per successor
+     */
+    private static final int SPLIT_DEPTH = 4;
+    /**
+     * Slack on pruning so that a tour that only differs from the best one in floating point rounding is still
+     * compared against it on its exact cost
+     */
+    private static final double PRUNE_TOLERANCE = 1e-9;
+
+    private final DistanceMatrix matrix;
+    private final int startCity;
+    private final long allCities;
+    private final AtomicReference<Incumbent> best;
+
+    /**
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     */
+    public TSPBruteForce(final DistanceMatrix matrix, final int startCity) {
+        this.matrix = matrix;
+        this.startCity = startCity;
+        this.allCities = TSPUtils.allCities(matrix.size());
+        this.best = new AtomicReference<>(new Incumbent(Double.POSITIVE_INFINITY, null));
+    }
 
     public static List<String> bruteForce(final String file) {
-        minCost = Double.POSITIVE_INFINITY;
-        minPath = new ListWrapper();
-        cities = TSPUtils.readCities(file);
-        if (cities.size() == 1) {
-            System.out.println("A");
-            return Collections.singletonList("A");
-        } else {
-            runBruteForce("A", Collections.singletonList("A"), 0);
-            minPath.list.add("A");
-            minPath.list.forEach(System.out::println);
-            return minPath.list;
-        }
-    }
-
-    private static class ListWrapper {
-        public List<String> list;
-    }
-
-    public static void runBruteForce(final String current, final List<String> explored, final double cost) {
-        final Set<String> unexplored = new HashSet<>(cities.keySet());
-        unexplored.removeAll(explored);
-        if (unexplored.isEmpty()) {
-            final double newCost = cost + TSPUtils.distance(cities.get(current), cities.get("A"));
-            if (newCost < minCost) {
-                minPath.list = explored;
-                minCost = newCost;
+        final DistanceMatrix matrix = DistanceMatrix.fromFile(file);
+        final TSPBruteForce solver = new TSPBruteForce(matrix, matrix.id("A"));
+        //start from the local search tour so that pruning is effective from the first branch
+        solver.offer(TSPNearestNeighbour.solve(matrix, matrix.id("A")));
+        final List<String> path = matrix.toNames(solver.solve());
+        path.forEach(System.out::println);
+        return path;
+    }
+
+    /**
+     * Find the optimal tour on the common fork-join pool
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     */
+    public int[] solve() {
+        return solve(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Find the optimal tour
+     * @param pool Pool the subtrees of the search are explored on
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     */
+    public int[] solve(final ForkJoinPool pool) {
+        if (matrix.size() == 1) {
+            return new int[]{startCity};
+        }
+        final int[] explored = new int[matrix.size() + 1];
+        explored[0] = startCity;
+        pool.invoke(new SubtreeTask(explored, 1, 1L << startCity, 0));
+        return TSPUtils.orient(best.get().path.clone());
+    }
+
+    /**
+     * @return Cost of the best tour found so far, or positive infinity if none has been found
+     */
+    public double bestCost() {
+        return best.get().cost;
+    }
+
+    /**
+     * Offer a tour that is already known, such as one found by a heuristic, as the bound to prune against
+     * @param tour ids of the cities of a complete tour, starting and ending at the start city
+     */
+    public void offer(final int[] tour) {
+        offer(matrix.tourCost(tour), tour);
+    }
+
+    private void offer(final double cost, final int[] path) {
+        Incumbent current = best.get();
+        while (cost < current.cost && !best.compareAndSet(current, new Incumbent(cost, path))) {
+            current = best.get();
+        }
+    }
+
+    /**
+     * Try every ordering of the unexplored cities after the given partial path
+     * @param explored Partial path; only the first depth entries are in use
+     * @param depth Number of cities on the partial path
+     * @param exploredSet Bitmask of the cities on the partial path
+     * @param cost Cost of the partial path
+     */
+    private void runBruteForce(final int[] explored, final int depth, final long exploredSet, final double cost) {
+        final int current = explored[depth - 1];
+        final long unexplored = allCities & ~exploredSet;
+        if (unexplored == 0) {
+            final double newCost = cost + matrix.distance(current, startCity);
+            if (newCost < best.get().cost) {
+                final int[] path = Arrays.copyOf(explored, depth + 1);
+                path[depth] = startCity;
+                offer(newCost, path);
             }
-        } else {
-            for (final String s : unexplored) {
-                final List<String> newExplored = new ArrayList<>(explored);
-                newExplored.add(s);
-                final double newCost = cost + TSPUtils.distance(cities.get(current), cities.get(s));
-                runBruteForce(s, newExplored, newCost);
+            return;
+        }
+        if (cost + TSPHeuristics.computeHeuristic(matrix, exploredSet, current, startCity) > best.get().cost + PRUNE_TOLERANCE) {
+            return;
+        }
+        for (long remaining = unexplored; remaining != 0; remaining &= remaining - 1) {
+            final int s = Long.numberOfTrailingZeros(remaining);
+            explored[depth] = s;
+            runBruteForce(explored, depth + 1, exploredSet | (1L << s), cost + matrix.distance(current, s));
+        }
+    }
+
+    /**
+     * Explores all tours starting with a given partial path
+     */
+    private class SubtreeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] explored;
+        private final int depth;
+        private final long exploredSet;
+        private final double cost;
+
+        SubtreeTask(final int[] explored, final int depth, final long exploredSet, final double cost) {
+            this.explored = explored;
+            this.depth = depth;
+            this.exploredSet = exploredSet;
+            this.cost = cost;
+        }
+
+        @Override
+        protected void compute() {
+            final long unexplored = allCities & ~exploredSet;
+            if (depth >= SPLIT_DEPTH || Long.bitCount(unexplored) <= 1) {
+                runBruteForce(explored, depth, exploredSet, cost);
+                return;
             }
+            final int current = explored[depth - 1];
+            final List<SubtreeTask> subtasks = new ArrayList<>(Long.bitCount(unexplored));
+            for (long remaining = unexplored; remaining != 0; remaining &= remaining - 1) {
+                final int s = Long.numberOfTrailingZeros(remaining);
+                //every task gets its own copy of the path since they run concurrently
+                final int[] newExplored = explored.clone();
+                newExplored[depth] = s;
+                subtasks.add(new SubtreeTask(newExplored, depth + 1, exploredSet | (1L << s), cost + matrix.distance(current, s)));
+            }
+            invokeAll(subtasks);
+        }
+    }
+
+    /**
+     * Best complete tour found so far and its cost
+     */
+    private static class Incumbent {
+        final double cost;
+        final int[] path;
+
+        Incumbent(final double cost, final int[] path) {
+            this.cost = cost;
+            this.path = path;
         }
     }
 }
@@ -0,0 +1,616 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-running solver that takes instances over a local socket, so that clients solving many small instances pay for
+ * JVM startup and JIT warm-up once rather than per instance, and the buffers of the search are allocated once per
+ * solver rather than per instance.
+ * The daemon listens on a loopback TCP port or a Unix-domain socket. Each connection may send any number of requests,
+ * one after the other, and gets one reply per request. All numbers are big-endian. A request starts with an op byte:
+ * <ul>
+ *     <li>{@link #SOLVE}, then the number of cities n, the id of the start city and a time budget in milliseconds as
+ *     ints, then n pairs of int coordinates. The reply is a status byte; for {@link #EXACT} and {@link #APPROXIMATE}
+ *     it is followed by the cost as a double, the length of the tour as an int and the city ids of the closed tour as
+ *     ints.</li>
+ *     <li>{@link #STATS}. The reply is {@link #EXACT}, then the number of instances solved and the number turned away
+ *     as longs, then the number of buckets of the latency histogram as an int and the count of each bucket as a long
+ *     (see {@link LatencyHistogram}).</li>
+ * </ul>
+ * A request that cannot be understood gets {@link #ERROR}, followed by the length of a UTF-8 message as an int and the
+ * message, and the connection is closed.
+ * Instances of up to 64 cities are solved exactly with A* graph search and the 1-tree heuristic, seeded with a local
+ * search tour, which is replied as {@link #APPROXIMATE} if the search runs out of time or memory; larger instances get
+ * a Lin-Kernighan tour within the budget. There is one set of search buffers per solver, holding its distance matrix
+ * array, node pool, open list and table of best costs, which an instance takes along with its turn to be solved and
+ * hands on when it is done.
+ * Connections are served by a bounded pool of threads, and a connection beyond it is closed at once. Each connection
+ * thread keeps a socket buffer, which goes back to its initial size after a large request. Of the instances sent over
+ * those connections, at most a given number are solved at once and a given number more wait their turn; an instance
+ * beyond that is turned away with {@link #BUSY} as soon as its header is read, and its cities are skipped without being
+ * stored, so an overloaded daemon answers quickly instead of queueing or allocating without bound. The latency of every
+ * solved instance, from the end of its request to the end of its reply, is counted in a histogram.
+ * Usage: TSPDaemon [--port=N | --unix=PATH] [--solvers=N] [--queue=N] [--connections=N]
+ */
+public class TSPDaemon implements Closeable {
+    public static final byte SOLVE = 1;
+    public static final byte STATS = 2;
+    /**
+     * Status of an optimal tour, and of a successful stats request
+     */
+    public static final byte EXACT = 0;
+    /**
+     * Status of a tour that may not be optimal
+     */
+    public static final byte APPROXIMATE = 1;
+    /**
+     * Status of an instance turned away because too many are already being solved or waiting
+     */
+    public static final byte BUSY = 2;
+    /**
+     * Status of a malformed request
+     */
+    public static final byte ERROR = 3;
+    /**
+     * Largest instance a request may hold, which bounds the socket buffer of a worker
+     */
+    public static final int MAX_CITIES = 1 << 22;
+    public static final int DEFAULT_PORT = 4860;
+    /**
+     * Fraction of the heap that the instances being solved may use between them
+     */
+    private static final double HEAP_FRACTION = 0.75;
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+
+    private final ServerSocketChannel server;
+    private final SocketAddress address;
+    private final ThreadPoolExecutor connections;
+    private final Thread acceptor;
+    //the search buffers of the solvers that are free; taking one is a turn to solve
+    private final BlockingQueue<Buffers> solvers;
+    private final int maxPending;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong numSolved = new AtomicLong();
+    private final AtomicLong numRejected = new AtomicLong();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final int maxStates;
+    //each connection thread keeps its socket buffer for as long as the pool keeps the thread
+    private final ThreadLocal<Frames> frames = ThreadLocal.withInitial(Frames::new);
+
+    /**
+     * Start listening for connections
+     * @param address Loopback socket address or Unix-domain socket path to listen on; a TCP port of 0 picks a free one
+     * @param numSolvers Most instances solved at once
+     * @param queueLength Most instances waiting to be solved, beyond which they are turned away
+     * @param maxConnections Most connections served at once, beyond which they are closed
+     * @throws UncheckedIOException if the address cannot be bound
+     */
+    public TSPDaemon(final SocketAddress address, final int numSolvers, final int queueLength, final int maxConnections) {
+        if (numSolvers < 1 || queueLength < 0 || maxConnections < 1) {
+            throw new IllegalArgumentException("Need at least one solver and connection and a queue of no negative length, got "
+                    + numSolvers + ", " + maxConnections + " and " + queueLength);
+        }
+        this.solvers = new ArrayBlockingQueue<>(numSolvers);
+        for (int i = 0; i < numSolvers; i++) {
+            solvers.add(new Buffers());
+        }
+        this.maxPending = numSolvers + queueLength;
+        this.maxStates = (int) Math.min(Integer.MAX_VALUE,
+                (long) (Runtime.getRuntime().maxMemory() * HEAP_FRACTION / numSolvers) / TSPBatch.BYTES_PER_STATE);
+        try {
+            if (address instanceof UnixDomainSocketAddress) {
+                server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            } else {
+                server = ServerSocketChannel.open();
+            }
+            server.bind(address);
+            this.address = server.getLocalAddress();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not listen on " + address, e);
+        }
+        //a synchronous queue hands a connection to an idle thread or a new one, and rejects it once all are busy
+        this.connections = new ThreadPoolExecutor(maxConnections, maxConnections, 0, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<>(), runnable -> {
+                    final Thread thread = new Thread(runnable, "tsp-daemon-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.acceptor = new Thread(this::accept, "tsp-daemon-acceptor");
+        acceptor.start();
+    }
+
+    public static void main(final String[] args) throws InterruptedException {
+        SocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_PORT);
+        int numSolvers = Runtime.getRuntime().availableProcessors();
+        int queueLength = 4 * numSolvers;
+        int maxConnections = 64;
+        for (final String arg : args) {
+            if (arg.startsWith("--port=")) {
+                address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(arg.substring("--port=".length())));
+            } else if (arg.startsWith("--unix=")) {
+                address = UnixDomainSocketAddress.of(arg.substring("--unix=".length()));
+            } else if (arg.startsWith("--solvers=")) {
+                numSolvers = Integer.parseInt(arg.substring("--solvers=".length()));
+            } else if (arg.startsWith("--queue=")) {
+                queueLength = Integer.parseInt(arg.substring("--queue=".length()));
+            } else if (arg.startsWith("--connections=")) {
+                maxConnections = Integer.parseInt(arg.substring("--connections=".length()));
+            } else {
+                System.err.println("Usage: TSPDaemon [--port=N | --unix=PATH] [--solvers=N] [--queue=N] [--connections=N]");
+                System.exit(1);
+            }
+        }
+        final TSPDaemon daemon = new TSPDaemon(address, numSolvers, queueLength, maxConnections);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            daemon.close();
+            System.out.println("Solved " + daemon.getNumSolved() + ", turned away " + daemon.getNumRejected()
+                    + ", latency " + daemon.getLatencies());
+        }));
+        System.out.println("Listening on " + daemon.getAddress());
+        daemon.acceptor.join();
+    }
+
+    /**
+     * @return Address the daemon listens on, with the port picked if it was 0
+     */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return Latencies of the instances solved so far
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    public long getNumSolved() {
+        return numSolved.get();
+    }
+
+    /**
+     * @return Number of instances turned away with {@link #BUSY}
+     */
+    public long getNumRejected() {
+        return numRejected.get();
+    }
+
+    /**
+     * @return Number of instances being solved or waiting their turn
+     */
+    public int getNumPending() {
+        return pending.get();
+    }
+
+    /**
+     * Stop listening and close every connection, abandoning the instances being solved
+     */
+    @Override
+    public void close() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            //interrupting a thread blocked on a channel closes the channel
+            connections.shutdownNow();
+            if (address instanceof UnixDomainSocketAddress) {
+                try {
+                    Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+                } catch (IOException e) {
+                    //the socket file is harmless, and the next daemon to bind the path reports it
+                }
+            }
+        }
+    }
+
+    private void accept() {
+        while (server.isOpen()) {
+            final SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Could not accept a connection: " + e);
+                continue;
+            }
+            try {
+                connections.execute(() -> serve(channel));
+            } catch (RejectedExecutionException e) {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    /**
+     * Answer the requests of one connection until the client closes it
+     */
+    private void serve(final SocketChannel channel) {
+        final Frames frames = this.frames.get();
+        try (channel) {
+            while (true) {
+                final ByteBuffer op = frames.read(channel, 1, true);
+                if (op == null) {
+                    return;
+                }
+                switch (op.get()) {
+                    case SOLVE:
+                        if (!solve(channel, frames)) {
+                            return;
+                        }
+                        break;
+                    case STATS:
+                        writeStats(channel, frames);
+                        break;
+                    default:
+                        writeError(channel, frames, "Unknown op " + op.get(0));
+                        return;
+                }
+                frames.shrink();
+            }
+        } catch (IOException | CancellationException e) {
+            //the client went away, or the daemon is closing; either way there is no one to reply to
+        } finally {
+            frames.shrink();
+        }
+    }
+
+    /**
+     * Read, solve and reply to one instance
+     * @return false if the request was malformed and the connection should be closed
+     */
+    private boolean solve(final SocketChannel channel, final Frames frames) throws IOException {
+        final ByteBuffer header = frames.read(channel, HEADER_BYTES, false);
+        final int n = header.getInt();
+        final int startCity = header.getInt();
+        final int budgetMillis = header.getInt();
+        if (n < 1 || n > MAX_CITIES) {
+            writeError(channel, frames, "Number of cities must be between 1 and " + MAX_CITIES + ", got " + n);
+            return false;
+        }
+        if (startCity < 0 || startCity >= n || budgetMillis < 0) {
+            writeError(channel, frames, "Bad start city " + startCity + " or time budget " + budgetMillis);
+            return false;
+        }
+        final int coordinateBytes = 2 * n * Integer.BYTES;
+        //turn the instance away before anything is allocated for it
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            numRejected.incrementAndGet();
+            frames.skip(channel, coordinateBytes);
+            frames.write(channel, frames.start(1).put(BUSY));
+            return true;
+        }
+        final long start;
+        final int[] x = new int[n];
+        final int[] y = new int[n];
+        final int[] tour;
+        final boolean exact;
+        try {
+            final ByteBuffer coordinates = frames.read(channel, coordinateBytes, false);
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                x[i] = coordinates.getInt();
+                y[i] = coordinates.getInt();
+            }
+            final Buffers buffers = solvers.take();
+            try {
+                final Solution solution = solve(x, y, startCity, budgetMillis, buffers);
+                tour = solution.tour;
+                exact = solution.exact;
+            } finally {
+                solvers.add(buffers);
+            }
+        } catch (InterruptedException e) {
+            throw new ClosedChannelException();
+        } finally {
+            pending.decrementAndGet();
+        }
+        final Cities cities = new Cities(null, x, y);
+        final ByteBuffer reply = frames.start(1 + Double.BYTES + Integer.BYTES * (tour.length + 1))
+                .put(exact ? EXACT : APPROXIMATE).putDouble(cities.tourCost(tour)).putInt(tour.length);
+        for (final int city : tour) {
+            reply.putInt(city);
+        }
+        frames.write(channel, reply);
+        numSolved.incrementAndGet();
+        latencies.record(System.nanoTime() - start);
+        return true;
+    }
+
+    private Solution solve(final int[] x, final int[] y, final int startCity, final int budgetMillis, final Buffers buffers) {
+        final int n = x.length;
+        if (n > Long.SIZE) {
+            return new Solution(new TSPLinKernighan(budgetMillis).solve(new Cities(null, x, y), startCity), false);
+        }
+        final DistanceMatrix matrix = new DistanceMatrix(Buffers.NAMES_BY_SIZE[n], x, y, Metric.EUCLIDEAN, buffers.distances);
+        final int[] localOptimum = TSPNearestNeighbour.solve(matrix, startCity);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        try {
+            return new Solution(TSPSearch.searchGraph(matrix, startCity, new OneTreeHeuristic(matrix, startCity),
+                    matrix.tourCost(localOptimum), new SearchStats(), maxStates, f -> {
+                        if (System.nanoTime() > deadline) {
+                            throw new CancellationException("Out of time");
+                        }
+                    }, buffers.open, buffers.nodes, buffers.bestCosts), true);
+        } catch (CancellationException | StateLimitExceededException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw e;
+            }
+            return new Solution(localOptimum, false);
+        }
+    }
+
+    private void writeStats(final SocketChannel channel, final Frames frames) throws IOException {
+        final long[] counts = latencies.snapshot();
+        final ByteBuffer reply = frames.start(1 + 2 * Long.BYTES + Integer.BYTES + counts.length * Long.BYTES)
+                .put(EXACT).putLong(numSolved.get()).putLong(numRejected.get()).putInt(counts.length);
+        for (final long count : counts) {
+            reply.putLong(count);
+        }
+        frames.write(channel, reply);
+    }
+
+    private static void writeError(final SocketChannel channel, final Frames frames, final String message) throws IOException {
+        final byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        frames.write(channel, frames.start(1 + Integer.BYTES + bytes.length).put(ERROR).putInt(bytes.length).put(bytes));
+    }
+
+    private static void closeQuietly(final SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            //nothing was sent on it
+        }
+    }
+
+    private static final class Solution {
+        final int[] tour;
+        final boolean exact;
+
+        Solution(final int[] tour, final boolean exact) {
+            this.tour = tour;
+            this.exact = exact;
+        }
+    }
+
+    /**
+     * The arrays one solver reuses from one instance to the next
+     */
+    private static final class Buffers {
+        /**
+         * City names of the distance matrices, which the search never looks at, shared by every worker
+         */
+        static final String[][] NAMES_BY_SIZE = new String[Long.SIZE + 1][];
+
+        static {
+            for (int n = 0; n <= Long.SIZE; n++) {
+                NAMES_BY_SIZE[n] = new String[n];
+                for (int i = 0; i < n; i++) {
+                    NAMES_BY_SIZE[n][i] = Integer.toString(i);
+                }
+            }
+        }
+
+        final double[] distances = new double[Long.SIZE * Long.SIZE];
+        final OpenList open = new HeapOpenList();
+        final NodePool nodes = new NodePool(Long.SIZE * Long.SIZE);
+        final BestCostTable bestCosts = new BestCostTable(Long.SIZE * Long.SIZE);
+    }
+
+    /**
+     * Socket buffer that requests and replies are read and written through, grown to fit each message and shrunk back
+     * by {@link #shrink()}
+     */
+    private static final class Frames {
+        private static final int INITIAL_BYTES = 1 << 16;
+
+        ByteBuffer io = ByteBuffer.allocateDirect(INITIAL_BYTES);
+
+        /**
+         * Read exactly the given number of bytes
+         * @param endAllowed Whether the client may close the connection instead of sending them
+         * @return The bytes, ready to be read, or null if the connection ended where it was allowed to
+         * @throws EOFException if the connection ended part way
+         */
+        ByteBuffer read(final SocketChannel channel, final int bytes, final boolean endAllowed) throws IOException {
+            ensureCapacity(bytes);
+            io.clear().limit(bytes);
+            while (io.hasRemaining()) {
+                if (channel.read(io) < 0) {
+                    if (endAllowed && io.position() == 0) {
+                        return null;
+                    }
+                    throw new EOFException("Connection closed part way through a message");
+                }
+            }
+            return io.flip();
+        }
+
+        /**
+         * Read past the given number of bytes without growing the buffer
+         * @throws EOFException if the connection ended part way
+         */
+        void skip(final SocketChannel channel, final long bytes) throws IOException {
+            long remaining = bytes;
+            while (remaining > 0) {
+                io.clear().limit((int) Math.min(io.capacity(), remaining));
+                final int read = channel.read(io);
+                if (read < 0) {
+                    throw new EOFException("Connection closed part way through a message");
+                }
+                remaining -= read;
+            }
+        }
+
+        /**
+         * Go back to the initial size if a large message grew the buffer, so an idle connection holds little memory
+         */
+        void shrink() {
+            if (io.capacity() > INITIAL_BYTES) {
+                io = ByteBuffer.allocateDirect(INITIAL_BYTES);
+            }
+        }
+
+        /**
+         * @return The buffer, cleared and with room for a message of the given length
+         */
+        ByteBuffer start(final int bytes) {
+            ensureCapacity(bytes);
+            return io.clear();
+        }
+
+        void write(final SocketChannel channel, final ByteBuffer reply) throws IOException {
+            reply.flip();
+            while (reply.hasRemaining()) {
+                channel.write(reply);
+            }
+        }
+
+        private void ensureCapacity(final int bytes) {
+            if (io.capacity() < bytes) {
+                io = ByteBuffer.allocateDirect((int) Math.min(Integer.MAX_VALUE, Math.max(bytes, 2L * io.capacity())));
+            }
+        }
+    }
+
+    /**
+     * A connection to a daemon, which sends one request at a time and waits for its reply. Clients are not thread safe.
+     */
+    public static final class Client implements Closeable {
+        private final SocketChannel channel;
+        private final Frames frames = new Frames();
+
+        /**
+         * @param address Address the daemon listens on
+         * @throws UncheckedIOException if the daemon cannot be reached
+         */
+        public Client(final SocketAddress address) {
+            try {
+                channel = SocketChannel.open(address);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not connect to " + address, e);
+            }
+        }
+
+        /**
+         * @param x x coordinates of the cities, indexed by id
+         * @param y y coordinates of the cities, indexed by id
+         * @param startCity id of the start city
+         * @param budgetMillis Time the daemon may spend on the instance
+         * @return The reply
+         * @throws UncheckedIOException if the connection fails
+         * @throws IllegalArgumentException if the daemon could not understand the request
+         */
+        public Reply solve(final int[] x, final int[] y, final int startCity, final int budgetMillis) {
+            if (x.length != y.length) {
+                throw new IllegalArgumentException("Coordinates must have the same length");
+            }
+            try {
+                final ByteBuffer request = frames.start(1 + HEADER_BYTES + 2 * x.length * Integer.BYTES)
+                        .put(SOLVE).putInt(x.length).putInt(startCity).putInt(budgetMillis);
+                for (int i = 0; i < x.length; i++) {
+                    request.putInt(x[i]).putInt(y[i]);
+                }
+                frames.write(channel, request);
+                final byte status = readStatus();
+                if (status == BUSY) {
+                    return new Reply(status, Double.NaN, null);
+                }
+                final ByteBuffer header = frames.read(channel, Double.BYTES + Integer.BYTES, false);
+                final double cost = header.getDouble();
+                final int[] tour = new int[header.getInt()];
+                final ByteBuffer cities = frames.read(channel, tour.length * Integer.BYTES, false);
+                for (int i = 0; i < tour.length; i++) {
+                    tour[i] = cities.getInt();
+                }
+                return new Reply(status, cost, tour);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * @return Latency histogram of the daemon, indexed by bucket as {@link LatencyHistogram#snapshot()} is
+         * @throws UncheckedIOException if the connection fails
+         */
+        public long[] latencies() {
+            try {
+                frames.write(channel, frames.start(1).put(STATS));
+                readStatus();
+                final ByteBuffer header = frames.read(channel, 2 * Long.BYTES + Integer.BYTES, false);
+                header.getLong();
+                header.getLong();
+                final long[] counts = new long[header.getInt()];
+                final ByteBuffer buckets = frames.read(channel, counts.length * Long.BYTES, false);
+                for (int b = 0; b < counts.length; b++) {
+                    counts[b] = buckets.getLong();
+                }
+                return counts;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private byte readStatus() throws IOException {
+            final byte status = frames.read(channel, 1, false).get();
+            if (status == ERROR) {
+                final int length = frames.read(channel, Integer.BYTES, false).getInt();
+                final ByteBuffer message = frames.read(channel, length, false);
+                final byte[] bytes = new byte[length];
+                message.get(bytes);
+                throw new IllegalArgumentException(new String(bytes, StandardCharsets.UTF_8));
+            }
+            return status;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Reply to an instance
+     */
+    public static final class Reply {
+        /**
+         * {@link #EXACT}, {@link #APPROXIMATE} or {@link #BUSY}
+         */
+        public final byte status;
+        /**
+         * Cost of the tour, or NaN if the instance was turned away
+         */
+        public final double cost;
+        /**
+         * ids of the cities of the closed tour, or null if the instance was turned away
+         */
+        public final int[] tour;
+
+        Reply(final byte status, final double cost, final int[] tour) {
+            this.status = status;
+            this.cost = cost;
+            this.tour = tour;
+        }
+    }
+}
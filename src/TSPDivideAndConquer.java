@@ -0,0 +1,355 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Approximate TSP solver for instances too large to improve as a whole in the time given, such as millions of cities.
+ * The cities are sorted along a Hilbert curve, which visits the plane region by region, and the sorted order is cut
+ * into partitions of consecutive cities, each a compact region next to the one before it. The partitions are solved
+ * independently and in parallel on a fork-join pool with {@link TSPLinKernighan}, each in a share of the time.
+ * Partition tours are then stitched together in curve order: each is opened at the edge whose removal, together with
+ * the edges to the previous and the next partition, adds the least, and the paths are joined end to end. Last,
+ * Lin-Kernighan repairs the whole tour for the rest of the time, starting from the cities that have a candidate
+ * neighbour in another partition, which is where the stitched tour is worst.
+ * Distances are computed from the coordinates, and the largest structures are candidate lists of a few neighbours per
+ * city, so memory grows linearly with the number of cities.
+ */
+public class TSPDivideAndConquer implements TSPSolver {
+    /**
+     * Most cities of a partition unless told otherwise
+     */
+    public static final int DEFAULT_PARTITION_SIZE = 10000;
+    /**
+     * Partitions are made smaller to keep every thread busy, but not smaller than this
+     */
+    private static final int MIN_PARTITION_SIZE = 1000;
+    /**
+     * Share of the time given to solving the partitions; repairing the stitched tour gets the rest
+     */
+    private static final double PARTITION_SHARE = 0.6;
+    /**
+     * Cells of the grid the Hilbert curve runs through are 1 / 2^HILBERT_ORDER of the instance's width
+     */
+    private static final int HILBERT_ORDER = 15;
+
+    private final long budgetNanos;
+    private final int partitionSize;
+    private final ForkJoinPool pool;
+    private int numPartitions;
+    private long elapsedNanos;
+    private int numCities;
+    private double stitchedCost;
+
+    /**
+     * @param budgetMillis Wall clock time the solver may take
+     */
+    public TSPDivideAndConquer(final long budgetMillis) {
+        this(budgetMillis, DEFAULT_PARTITION_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param budgetMillis Wall clock time the solver may take
+     * @param partitionSize Most cities of a partition
+     * @param pool Pool the partitions are solved on
+     */
+    public TSPDivideAndConquer(final long budgetMillis, final int partitionSize, final ForkJoinPool pool) {
+        if (partitionSize < 2) {
+            throw new IllegalArgumentException("Partitions need at least 2 cities, got " + partitionSize);
+        }
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        this.partitionSize = partitionSize;
+        this.pool = pool;
+    }
+
+    /**
+     * Usage: TSPDivideAndConquer file [budget in seconds]
+     */
+    public static void main(final String[] args) {
+        final Cities cities = CityParser.parse(args[0]).sortedByName();
+        final TSPDivideAndConquer solver = new TSPDivideAndConquer(TimeUnit.SECONDS.toMillis(args.length > 1 ? Long.parseLong(args[1]) : 10));
+        final int[] tour = solver.solve(cities, 0);
+        System.out.println("Total cost: " + cities.tourCost(tour) + ", partitions: " + solver.getNumPartitions()
+                + ", cities per second: " + Math.round(solver.getCitiesPerSecond()));
+        for (final int city : tour) {
+            System.out.println(cities.name(city));
+        }
+    }
+
+    /**
+     * Find a short tour within the time budget
+     * @param cities Coordinates of the cities; city ids are their indices
+     * @param startCity id of the start city
+     * @return ids of the cities of the best tour found, starting and ending at the start city
+     */
+    @Override
+    public int[] solve(final Cities cities, final int startCity) {
+        final long start = System.nanoTime();
+        final long deadline = start + budgetNanos;
+        final int n = cities.size();
+        numCities = n;
+        numPartitions = partitionCount(n);
+        final int[] tour;
+        stitchedCost = Double.NaN;
+        if (numPartitions == 1) {
+            tour = new TSPLinKernighan(TimeUnit.NANOSECONDS.toMillis(budgetNanos)).solve(cities, startCity);
+        } else {
+            final int[] order = hilbertOrder(cities);
+            final int[][] partitionTours = new int[numPartitions][];
+            //partitions are solved in rounds of as many as there are threads
+            final int rounds = (numPartitions + pool.getParallelism() - 1) / pool.getParallelism();
+            final long partitionNanos = (long) (budgetNanos * PARTITION_SHARE / rounds);
+            pool.invoke(new PartitionTask(cities, order, partitionTours, 0, numPartitions, partitionNanos));
+            final int[] stitched = stitch(cities, partitionTours);
+            stitchedCost = cities.tourCost(stitched) + cities.distance(stitched[n - 1], stitched[0]);
+            final int[] partition = new int[n];
+            for (int p = 0; p < numPartitions; p++) {
+                for (final int city : partitionTours[p]) {
+                    partition[city] = p;
+                }
+            }
+            final int[][] candidates = new SpatialIndex(cities).candidateLists(TSPLinKernighan.NUM_NEIGHBOURS);
+            tour = new TSPLinKernighan(0).solve(cities, candidates, stitched, startCity, deadline,
+                    boundaryCities(candidates, partition));
+        }
+        elapsedNanos = System.nanoTime() - start;
+        return tour;
+    }
+
+    /**
+     * @return Number of partitions the last instance was cut into
+     */
+    public int getNumPartitions() {
+        return numPartitions;
+    }
+
+    /**
+     * @return Cost of the tour of the last instance as stitched from its partitions, before the joins were repaired,
+     * or NaN if it was solved in one piece
+     */
+    public double getStitchedCost() {
+        return stitchedCost;
+    }
+
+    /**
+     * @return Cities of the last instance divided by the time it took to solve, in seconds
+     */
+    public double getCitiesPerSecond() {
+        return elapsedNanos == 0 ? 0 : numCities / (elapsedNanos / 1e9);
+    }
+
+    /**
+     * @return Number of partitions of an instance, enough to keep every thread busy but no smaller than
+     * {@link #MIN_PARTITION_SIZE} cities and no larger than the partition size
+     */
+    private int partitionCount(final int n) {
+        final int bySize = (n + partitionSize - 1) / partitionSize;
+        final int byThreads = Math.min(pool.getParallelism(), n / Math.min(MIN_PARTITION_SIZE, partitionSize));
+        return Math.max(1, Math.max(bySize, byThreads));
+    }
+
+    /**
+     * @return ids of the cities in the order a Hilbert curve over their bounding square visits them
+     */
+    static int[] hilbertOrder(final Cities cities) {
+        final int n = cities.size();
+        long minX = Long.MAX_VALUE;
+        long minY = Long.MAX_VALUE;
+        long maxX = Long.MIN_VALUE;
+        long maxY = Long.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, cities.x[i]);
+            minY = Math.min(minY, cities.y[i]);
+            maxX = Math.max(maxX, cities.x[i]);
+            maxY = Math.max(maxY, cities.y[i]);
+        }
+        final long side = Math.max(1, Math.max(maxX - minX, maxY - minY));
+        final long cells = 1L << HILBERT_ORDER;
+        //the curve index fills the high bits and the id the low bits, so one sort of longs orders the cities
+        final long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            final int x = (int) ((cities.x[i] - minX) * (cells - 1) / side);
+            final int y = (int) ((cities.y[i] - minY) * (cells - 1) / side);
+            keys[i] = hilbertIndex(x, y) << Integer.SIZE | i;
+        }
+        Arrays.sort(keys);
+        final int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    /**
+     * @return Position of a cell along the Hilbert curve through the grid of 2^HILBERT_ORDER by 2^HILBERT_ORDER cells
+     */
+    static long hilbertIndex(int x, int y) {
+        final int last = (1 << HILBERT_ORDER) - 1;
+        long index = 0;
+        for (int s = 1 << (HILBERT_ORDER - 1); s > 0; s >>= 1) {
+            final int rx = (x & s) != 0 ? 1 : 0;
+            final int ry = (y & s) != 0 ? 1 : 0;
+            index += (long) s * s * ((3 * rx) ^ ry);
+            //rotate the quadrant so that the curve inside it starts and ends where the coarser curve expects
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = last - x;
+                    y = last - y;
+                }
+                final int swap = x;
+                x = y;
+                y = swap;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Join the partition tours into one tour, in partition order. Each tour is opened at the edge that is cheapest to
+     * replace by edges to the end of the previous path and to the middle of the next partition.
+     * @return ids of all cities in visiting order (the return to the first is implied)
+     */
+    private static int[] stitch(final Cities cities, final int[][] partitionTours) {
+        final int numPartitions = partitionTours.length;
+        final double[] centreX = new double[numPartitions];
+        final double[] centreY = new double[numPartitions];
+        int n = 0;
+        for (int p = 0; p < numPartitions; p++) {
+            for (final int city : partitionTours[p]) {
+                centreX[p] += cities.x[city];
+                centreY[p] += cities.y[city];
+            }
+            centreX[p] /= partitionTours[p].length;
+            centreY[p] /= partitionTours[p].length;
+            n += partitionTours[p].length;
+        }
+        final int[] order = new int[n];
+        int size = 0;
+        //the first path starts from the last partition, whose path is not known yet
+        double fromX = centreX[numPartitions - 1];
+        double fromY = centreY[numPartitions - 1];
+        for (int p = 0; p < numPartitions; p++) {
+            final int[] tour = partitionTours[p];
+            final int m = tour.length;
+            final int next = (p + 1) % numPartitions;
+            int bestEdge = 0;
+            boolean bestForward = true;
+            double bestCost = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < m; i++) {
+                //removing the edge from tour[i] to tour[i + 1] leaves a path between them, walked either way
+                final int a = tour[i];
+                final int b = tour[(i + 1) % m];
+                final double removed = m > 1 ? cities.distance(a, b) : 0;
+                final double forward = distance(fromX, fromY, cities, b) + distance(centreX[next], centreY[next], cities, a) - removed;
+                final double backward = distance(fromX, fromY, cities, a) + distance(centreX[next], centreY[next], cities, b) - removed;
+                if (forward < bestCost) {
+                    bestCost = forward;
+                    bestEdge = i;
+                    bestForward = true;
+                }
+                if (backward < bestCost) {
+                    bestCost = backward;
+                    bestEdge = i;
+                    bestForward = false;
+                }
+            }
+            //forward enters at tour[bestEdge + 1] and leaves at tour[bestEdge]; backward the other way round
+            for (int k = 0; k < m; k++) {
+                order[size++] = bestForward ? tour[(bestEdge + 1 + k) % m] : tour[(bestEdge - k + m) % m];
+            }
+            final int exit = order[size - 1];
+            fromX = cities.x[exit];
+            fromY = cities.y[exit];
+        }
+        return order;
+    }
+
+    private static double distance(final double x, final double y, final Cities cities, final int city) {
+        final double dx = x - cities.x[city];
+        final double dy = y - cities.y[city];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * @return ids of the cities with a candidate neighbour in another partition
+     */
+    private static int[] boundaryCities(final int[][] candidates, final int[] partition) {
+        final int[] boundary = new int[partition.length];
+        int size = 0;
+        for (int city = 0; city < partition.length; city++) {
+            for (final int neighbour : candidates[city]) {
+                if (partition[neighbour] != partition[city]) {
+                    boundary[size++] = city;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(boundary, size);
+    }
+
+    /**
+     * Solves a range of partitions, splitting it in half until one is left
+     */
+    private static class PartitionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Cities cities;
+        private final int[] order;
+        private final int[][] partitionTours;
+        private final int from;
+        private final int to;
+        private final long budgetNanos;
+
+        PartitionTask(final Cities cities, final int[] order, final int[][] partitionTours, final int from, final int to,
+                      final long budgetNanos) {
+            this.cities = cities;
+            this.order = order;
+            this.partitionTours = partitionTours;
+            this.from = from;
+            this.to = to;
+            this.budgetNanos = budgetNanos;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new PartitionTask(cities, order, partitionTours, from, middle, budgetNanos),
+                        new PartitionTask(cities, order, partitionTours, middle, to, budgetNanos));
+                return;
+            }
+            final long deadline = System.nanoTime() + budgetNanos;
+            //partition p holds the cities from p * n / numPartitions in curve order, so sizes differ by at most one
+            final int numPartitions = partitionTours.length;
+            final int first = (int) ((long) from * order.length / numPartitions);
+            final int end = (int) ((long) (from + 1) * order.length / numPartitions);
+            final int m = end - first;
+            final int[] x = new int[m];
+            final int[] y = new int[m];
+            for (int i = 0; i < m; i++) {
+                x[i] = cities.x[order[first + i]];
+                y[i] = cities.y[order[first + i]];
+            }
+            final Cities partition = new Cities(null, x, y, cities.metric());
+            final int[] local;
+            if (m < 3) {
+                local = new int[m];
+                for (int i = 0; i < m; i++) {
+                    local[i] = i;
+                }
+            } else {
+                final SpatialIndex index = new SpatialIndex(partition);
+                final int[][] candidates = index.candidateLists(TSPLinKernighan.NUM_NEIGHBOURS);
+                final int[] start = TSPNearestNeighbour.nearestNeighbourOrder(index, 0);
+                TSPNearestNeighbour.improve(partition, start, candidates, deadline);
+                final int[] tour = new TSPLinKernighan(0, from).solve(partition, candidates, start, 0, deadline);
+                local = Arrays.copyOf(tour, m);
+            }
+            final int[] global = new int[m];
+            for (int i = 0; i < m; i++) {
+                global[i] = order[first + local[i]];
+            }
+            partitionTours[from] = global;
+        }
+    }
+}
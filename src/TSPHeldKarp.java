@@ -0,0 +1,200 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Exact TSP solver using the Held-Karp dynamic program over subsets of cities.
+ * For every subset S of the non-start cities and every city j in S, the table holds the cost of the cheapest path
+ * that leaves the start city, visits exactly the cities of S and ends at j. Subsets of the same size only depend on
+ * subsets that are one city smaller, so each layer of subset size is computed in parallel on a fork-join pool.
+ * The table is a single float array of 2^(n-1) * (n-1) entries, so time and memory only depend on the number of
+ * cities and not on how the cities are laid out.
+ */
+public class TSPHeldKarp {
+    /**
+     * Largest instance the table fits in one array for (2^25 * 25 floats, a little over 3GB)
+     */
+    public static final int MAX_CITIES = 26;
+    /**
+     * Number of subsets a fork-join task scans before it stops splitting
+     */
+    private static final int MIN_SUBSETS_PER_TASK = 1 << 12;
+
+    public static void main(final String[] args) {
+        solve(args[0]);
+    }
+
+    /**
+     * Solve the TSP problem with the given input file
+     * @param file location of input file on disk
+     * @return The optimal path the salesman should take
+     */
+    public static List<String> solve(final String file) {
+        final DistanceMatrix matrix = DistanceMatrix.fromFile(file);
+        final List<String> path = matrix.toNames(solve(matrix, matrix.id("A")));
+        //print the optimal path
+        path.forEach(System.out::println);
+        return path;
+    }
+
+    /**
+     * Solve the TSP problem with the given cities coordinates and start city
+     * @param cities Map from city name to coordinates
+     * @param startCity Start city
+     * @return The optimal path the salesman should take
+     */
+    public static List<String> solve(final Map<String, Position> cities, final String startCity) {
+        final DistanceMatrix matrix = new DistanceMatrix(cities);
+        return matrix.toNames(solve(matrix, matrix.id(startCity)));
+    }
+
+    /**
+     * Solve the TSP problem over a precomputed distance matrix on the common fork-join pool
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     */
+    public static int[] solve(final DistanceMatrix matrix, final int startCity) {
+        return solve(matrix, startCity, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Solve the TSP problem over a precomputed distance matrix
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @param pool Pool the layers of the dynamic program are computed on
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     */
+    public static int[] solve(final DistanceMatrix matrix, final int startCity, final ForkJoinPool pool) {
+        final int n = matrix.size();
+        if (n == 1) {
+            return new int[]{startCity};
+        }
+        if (n > MAX_CITIES) {
+            throw new IllegalArgumentException("Held-Karp needs " + tableBytes(n) + " bytes for " + n
+                    + " cities, at most " + MAX_CITIES + " cities are supported");
+        }
+        //the dynamic program only ranges over the cities other than the start city
+        final int m = n - 1;
+        final int[] others = new int[m];
+        for (int city = 0, k = 0; city < n; city++) {
+            if (city != startCity) {
+                others[k++] = city;
+            }
+        }
+        final float[] distances = new float[m * m];
+        for (int j = 0; j < m; j++) {
+            for (int k = 0; k < m; k++) {
+                distances[j * m + k] = (float) matrix.distance(others[j], others[k]);
+            }
+        }
+        //table[subset * m + j] is the cost of the cheapest path from the start city through subset ending at j
+        final float[] table = new float[(1 << m) * m];
+        for (int j = 0; j < m; j++) {
+            table[(1 << j) * m + j] = (float) matrix.distance(startCity, others[j]);
+        }
+        for (int size = 2; size <= m; size++) {
+            pool.invoke(new LayerTask(table, distances, m, size, 1, 1 << m));
+        }
+        //close the tour by returning to the start city from the cheapest last city
+        final int full = (1 << m) - 1;
+        int last = 0;
+        float bestCost = Float.POSITIVE_INFINITY;
+        for (int j = 0; j < m; j++) {
+            final float cost = table[full * m + j] + (float) matrix.distance(others[j], startCity);
+            if (cost < bestCost) {
+                bestCost = cost;
+                last = j;
+            }
+        }
+        //walk the table backwards, at each step picking the predecessor that produced the stored minimum
+        final int[] tour = new int[n + 1];
+        tour[0] = startCity;
+        tour[n] = startCity;
+        int subset = full;
+        for (int position = m; position > 1; position--) {
+            tour[position] = others[last];
+            subset ^= 1 << last;
+            last = predecessor(table, distances, m, subset, last);
+        }
+        tour[1] = others[last];
+        return TSPUtils.orient(tour);
+    }
+
+    /**
+     * @param numCities Number of cities
+     * @return Size in bytes of the dynamic programming table for an instance with this many cities
+     */
+    public static long tableBytes(final int numCities) {
+        final int m = Math.max(numCities - 1, 0);
+        return (1L << m) * m * Float.BYTES;
+    }
+
+    /**
+     * @return The city k in the subset minimizing (cost of the path through subset ending at k) + distance(k, j)
+     */
+    private static int predecessor(final float[] table, final float[] distances, final int m, final int subset, final int j) {
+        int best = -1;
+        float bestCost = Float.POSITIVE_INFINITY;
+        for (int rest = subset; rest != 0; rest &= rest - 1) {
+            final int k = Integer.numberOfTrailingZeros(rest);
+            final float cost = table[subset * m + k] + distances[k * m + j];
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = k;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Fills in the table entries of every subset of one size within a range of subset bitmasks
+     */
+    private static class LayerTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final float[] table;
+        private final float[] distances;
+        private final int m;
+        private final int size;
+        private final int from;
+        private final int to;
+
+        LayerTask(final float[] table, final float[] distances, final int m, final int size, final int from, final int to) {
+            this.table = table;
+            this.distances = distances;
+            this.m = m;
+            this.size = size;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > MIN_SUBSETS_PER_TASK) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new LayerTask(table, distances, m, size, from, middle),
+                        new LayerTask(table, distances, m, size, middle, to));
+                return;
+            }
+            for (int subset = from; subset < to; subset++) {
+                if (Integer.bitCount(subset) != size) {
+                    continue;
+                }
+                for (int ends = subset; ends != 0; ends &= ends - 1) {
+                    final int j = Integer.numberOfTrailingZeros(ends);
+                    final int previous = subset ^ (1 << j);
+                    float best = Float.POSITIVE_INFINITY;
+                    for (int rest = previous; rest != 0; rest &= rest - 1) {
+                        final int k = Integer.numberOfTrailingZeros(rest);
+                        final float cost = table[previous * m + k] + distances[k * m + j];
+                        if (cost < best) {
+                            best = cost;
+                        }
+                    }
+                    table[subset * m + j] = best;
+                }
+            }
+        }
+    }
+}
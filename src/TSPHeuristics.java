@@ -1,5 +1,3 @@
-import java.util.*;
-
 /**
  * This class contains functions needed to compute the heuristic for TSP A* search
  */
@@ -7,28 +5,27 @@ public class TSPHeuristics {
 
     /**
      * Compute the heuristic for a city given a set of parameters
-     * @param cities Set of all cities and their coordinates
-     * @param visited Set of cities that has already been visited in the TSP
+     * @param matrix Distances between all cities
+     * @param visited Bitmask of cities that has already been visited in the TSP
      * @param currentCity City for which the heuristic is calculated
      * @param startCity The start city of the TSP
      * @return An admissible heuristic for the specified city
      */
     public static double computeHeuristic(
-            final Map<String, Position> cities,
-            final Set<String> visited,
-            final String currentCity,
-            final String startCity
+            final DistanceMatrix matrix,
+            final long visited,
+            final int currentCity,
+            final int startCity
     ) {
         //figure out what city we still need to visit
-        final Set<String> unvisited = new HashSet<>(cities.keySet());
-        unvisited.removeAll(visited);
-        if (unvisited.isEmpty()) {
+        final long unvisited = TSPUtils.allCities(matrix.size()) & ~visited;
+        if (unvisited == 0) {
             //if all cities has been visited and the current city is the start city, then it is a goal state
-            if (currentCity.equals(startCity)) {
+            if (currentCity == startCity) {
                 return 0;
             } else {
                 //otherwise the heuristic is simply the distance from current city to start city
-                return TSPUtils.distance(cities.get(startCity), cities.get(currentCity));
+                return matrix.distance(startCity, currentCity);
             }
         }
         /**
@@ -36,37 +33,118 @@ public class TSPHeuristics {
          * total weight of the minimum spanning tree of all unvisited cities, with root being the current city +
          * the weight of the shortest edge from the MST to the start city
          **/
-        return computeSpanningCost(cities, unvisited, currentCity) +
-                TSPUtils.distance(cities.get(startCity), cities.get(TSPUtils.findNearest(cities, unvisited, startCity)));
+        return computeSpanningCost(matrix, unvisited, currentCity) +
+                matrix.distance(startCity, TSPUtils.findNearest(matrix, unvisited, startCity));
+    }
+
+    /**
+     * Compute the heuristic for a city, looking up the MST weight and the distance from the start city to the
+     * nearest unvisited city in a cache before computing them
+     * @param matrix Distances between all cities
+     * @param visited Bitmask of cities that has already been visited in the TSP
+     * @param currentCity City for which the heuristic is calculated
+     * @param startCity The start city of the TSP
+     * @param cache Memoized heuristic terms of the current search
+     * @return An admissible heuristic for the specified city, equal to the uncached one
+     */
+    public static double computeHeuristic(
+            final DistanceMatrix matrix,
+            final long visited,
+            final int currentCity,
+            final int startCity,
+            final HeuristicCache cache
+    ) {
+        final long unvisited = TSPUtils.allCities(matrix.size()) & ~visited;
+        if (unvisited == 0) {
+            return currentCity == startCity ? 0 : matrix.distance(startCity, currentCity);
+        }
+        cache.bind(matrix);
+        double spanningCost = cache.getSpanningCost(unvisited, currentCity);
+        if (Double.isNaN(spanningCost)) {
+            spanningCost = computeSpanningCost(matrix, unvisited, currentCity);
+            cache.putSpanningCost(unvisited, currentCity, spanningCost);
+        }
+        double nearestToStart = cache.getNearestToStart(unvisited, startCity);
+        if (Double.isNaN(nearestToStart)) {
+            nearestToStart = matrix.distance(startCity, TSPUtils.findNearest(matrix, unvisited, startCity));
+            cache.putNearestToStart(unvisited, startCity, nearestToStart);
+        }
+        return spanningCost + nearestToStart;
     }
 
     /**
      * Computes the total weight of the minimum spanning tree of all unvisited cities, with the root being the current city
      * This is simply an implementation of Prim's algorithm.
-     * @param cities Map from city to their coordinates
-     * @param unvisited Set of unvisited cities which the tree will be spanning
+     * @param matrix Distances between all cities
+     * @param unvisited Bitmask of unvisited cities which the tree will be spanning
      * @param currentCity root of the MST
      * @return Weight of the MST (sum of the edge weights in the tree)
      */
-    private static double computeSpanningCost(final Map<String, Position> cities, final Set<String> unvisited, final String currentCity) {
-        final Set<String> toBeVisited = new HashSet<>(unvisited);
-        final Map<String, Double> minDistanceToTree = new HashMap<>();
-        for (final String s : toBeVisited) {
-            minDistanceToTree.put(s, TSPUtils.distance(cities.get(currentCity), cities.get(s)));
+    private static double computeSpanningCost(final DistanceMatrix matrix, final long unvisited, final int currentCity) {
+        final int numUnvisited = Long.bitCount(unvisited);
+        return computeSpanningCost(matrix, unvisited, currentCity, new int[numUnvisited], new double[numUnvisited]);
+    }
+
+    /**
+     * Compute the heuristic for a city without allocating, using caller provided scratch space for Prim's algorithm
+     * @param matrix Distances between all cities
+     * @param visited Bitmask of cities that has already been visited in the TSP
+     * @param currentCity City for which the heuristic is calculated
+     * @param startCity The start city of the TSP
+     * @param cityBuffer Scratch space with room for every city
+     * @param distanceBuffer Scratch space with room for every city
+     * @return An admissible heuristic for the specified city, equal to the one without scratch space
+     */
+    public static double computeHeuristic(
+            final DistanceMatrix matrix,
+            final long visited,
+            final int currentCity,
+            final int startCity,
+            final int[] cityBuffer,
+            final double[] distanceBuffer
+    ) {
+        final long unvisited = TSPUtils.allCities(matrix.size()) & ~visited;
+        if (unvisited == 0) {
+            return currentCity == startCity ? 0 : matrix.distance(startCity, currentCity);
+        }
+        return computeSpanningCost(matrix, unvisited, currentCity, cityBuffer, distanceBuffer) +
+                matrix.distance(startCity, TSPUtils.findNearest(matrix, unvisited, startCity));
+    }
+
+    private static double computeSpanningCost(
+            final DistanceMatrix matrix,
+            final long unvisited,
+            final int currentCity,
+            final int[] toBeVisited,
+            final double[] minDistanceToTree
+    ) {
+        //cities not yet in the tree occupy the first remaining slots of these arrays
+        int remaining = Long.bitCount(unvisited);
+        int i = 0;
+        for (long set = unvisited; set != 0; set &= set - 1) {
+            final int city = Long.numberOfTrailingZeros(set);
+            toBeVisited[i] = city;
+            minDistanceToTree[i] = matrix.distance(currentCity, city);
+            i++;
         }
         double cost = 0;
-        while (!toBeVisited.isEmpty()) {
-            final Map.Entry<String, Double> next = Collections.min(
-                    minDistanceToTree.entrySet(),
-                    (entry1, entry2) -> entry1.getValue().compareTo(entry2.getValue())
-            );
-            toBeVisited.remove(next.getKey());
-            minDistanceToTree.remove(next.getKey());
-            cost += next.getValue();
-            for (final String s : toBeVisited) {
-                final double distanceToNext = TSPUtils.distance(cities.get(next.getKey()), cities.get(s));
-                if (distanceToNext < minDistanceToTree.get(s)) {
-                    minDistanceToTree.put(s, distanceToNext);
+        while (remaining > 0) {
+            int closest = 0;
+            for (int j = 1; j < remaining; j++) {
+                if (minDistanceToTree[j] < minDistanceToTree[closest]) {
+                    closest = j;
+                }
+            }
+            final int next = toBeVisited[closest];
+            cost += minDistanceToTree[closest];
+            //move the last remaining city into the slot of the one that just joined the tree
+            remaining--;
+            toBeVisited[closest] = toBeVisited[remaining];
+            minDistanceToTree[closest] = minDistanceToTree[remaining];
+            for (int j = 0; j < remaining; j++) {
+                final double distanceToNext = matrix.distance(next, toBeVisited[j]);
+                if (distanceToNext < minDistanceToTree[j]) {
+                    minDistanceToTree[j] = distanceToNext;
                 }
             }
         }
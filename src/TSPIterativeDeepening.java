@@ -0,0 +1,223 @@
+import java.util.*;
+
+/**
+ * Solves the TSP problem with iterative deepening A* using the same MST heuristic as {@link TSPSearch}.
+ * Each iteration is a depth first search that abandons states whose (cost so far + heuristic) exceeds a threshold,
+ * so memory use stays proportional to the number of cities no matter how long the search runs: the path, the
+ * successors of each depth and the scratch space of the heuristic are all allocated once up front.
+ * With real valued distances almost every state has a different f value, so raising the threshold to the next
+ * smallest f value would redo the whole tree for every new state. Instead the f values that exceeded the threshold
+ * are counted in a histogram and the next threshold is picked so that the next iteration expands about twice as
+ * many states (IDA* with controlled reexpansion). Such a threshold can overshoot the optimal cost, so the search
+ * keeps the best tour found and only stops once that tour costs no more than the threshold it was found under.
+ */
+public class TSPIterativeDeepening {
+    /**
+     * Number of histogram buckets for the f values that exceeded the threshold
+     */
+    private static final int NUM_BUCKETS = 64;
+    /**
+     * The histogram covers f values up to this fraction above the current threshold
+     */
+    private static final double BUCKET_RANGE = 0.1;
+
+    private final DistanceMatrix matrix;
+    private final int startCity;
+    private final long allCities;
+    //scratch space, allocated once per solver
+    private final int[] path;
+    private final int[] bestPath;
+    private final int[][] successors;
+    private final double[][] successorCosts;
+    private final int[] cityBuffer;
+    private final double[] distanceBuffer;
+    private final long[] exceededCounts = new long[NUM_BUCKETS];
+    //state of the current iteration
+    private double threshold;
+    private double bucketWidth;
+    private double minExceeded;
+    private double bestCost;
+    private long iterationExpanded;
+    private long numExpanded;
+    private int numIterations;
+
+    /**
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     */
+    public TSPIterativeDeepening(final DistanceMatrix matrix, final int startCity) {
+        final int n = matrix.size();
+        this.matrix = matrix;
+        this.startCity = startCity;
+        this.allCities = TSPUtils.allCities(n);
+        this.path = new int[n + 1];
+        this.bestPath = new int[n + 1];
+        this.successors = new int[n + 1][n];
+        this.successorCosts = new double[n + 1][n];
+        this.cityBuffer = new int[n];
+        this.distanceBuffer = new double[n];
+    }
+
+    public static void main(final String[] args) {
+        search(args[0]);
+    }
+
+    /**
+     * Performs IDA* search to solve the TSP problem with the given input file
+     * @param file location of input file on disk
+     * @return The optimal path the salesman should take
+     */
+    public static List<String> search(final String file) {
+        final DistanceMatrix matrix = DistanceMatrix.fromFile(file);
+        final TSPIterativeDeepening solver = new TSPIterativeDeepening(matrix, matrix.id("A"));
+        final List<String> path = matrix.toNames(solver.search());
+        System.out.println("Total expanded nodes: " + solver.getNumExpanded() + ", iterations: " + solver.getNumIterations());
+        //print the optimal path
+        path.forEach(System.out::println);
+        return path;
+    }
+
+    /**
+     * Find the optimal tour
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     */
+    public int[] search() {
+        //the local search tour bounds every iteration; if nothing beats it, it is optimal
+        final int[] localOptimum = TSPNearestNeighbour.solve(matrix, startCity);
+        final int[] path = search(matrix.tourCost(localOptimum));
+        return TSPUtils.orient(path == null ? localOptimum : path);
+    }
+
+    /**
+     * Find the optimal tour, never descending into states whose f value exceeds a known upper bound
+     * @param upperBound Cost of a known tour, or positive infinity
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city,
+     * or null if no tour is cheaper than the upper bound
+     */
+    public int[] search(final double upperBound) {
+        numExpanded = 0;
+        numIterations = 0;
+        if (matrix.size() == 1) {
+            return new int[]{startCity};
+        }
+        final long visited = 1L << startCity;
+        path[0] = startCity;
+        bestCost = upperBound;
+        threshold = TSPHeuristics.computeHeuristic(matrix, visited, startCity, startCity, cityBuffer, distanceBuffer);
+        long target = 1;
+        while (true) {
+            numIterations++;
+            iterationExpanded = 0;
+            minExceeded = Double.POSITIVE_INFINITY;
+            bucketWidth = threshold * BUCKET_RANGE / NUM_BUCKETS;
+            Arrays.fill(exceededCounts, 0);
+            expand(1, visited, startCity, 0);
+            numExpanded += iterationExpanded;
+            //every state with f <= threshold has been explored, so no tour cheaper than the best one found exists
+            if (bestCost <= threshold) {
+                return bestCost < upperBound ? bestPath.clone() : null;
+            }
+            //nothing was cut off by the threshold, so the whole tree has been explored
+            if (minExceeded == Double.POSITIVE_INFINITY) {
+                return bestCost < upperBound ? bestPath.clone() : null;
+            }
+            target = Math.max(target * 2, iterationExpanded * 2);
+            threshold = Math.min(nextThreshold(target - iterationExpanded), bestCost);
+        }
+    }
+
+    /**
+     * @return Number of states expanded over all iterations of the last search
+     */
+    public long getNumExpanded() {
+        return numExpanded;
+    }
+
+    /**
+     * @return Number of depth first iterations of the last search
+     */
+    public int getNumIterations() {
+        return numIterations;
+    }
+
+    /**
+     * Depth first search below a state, skipping successors whose f value exceeds the threshold
+     * @param depth Number of cities on the path so far
+     * @param visited Bitmask of the cities on the path so far
+     * @param current Last city on the path
+     * @param cost Cost of the path so far
+     */
+    private void expand(final int depth, final long visited, final int current, final double cost) {
+        iterationExpanded++;
+        final long unvisited = allCities & ~visited;
+        if (unvisited == 0) {
+            final double tourCost = cost + matrix.distance(current, startCity);
+            if (tourCost < bestCost) {
+                bestCost = tourCost;
+                System.arraycopy(path, 0, bestPath, 0, depth);
+                bestPath[depth] = startCity;
+            }
+            return;
+        }
+        //collect the successors within the threshold, cheapest f first
+        final int[] cities = successors[depth];
+        final double[] costs = successorCosts[depth];
+        int numSuccessors = 0;
+        for (long remaining = unvisited; remaining != 0; remaining &= remaining - 1) {
+            final int s = Long.numberOfTrailingZeros(remaining);
+            final double f = cost + matrix.distance(current, s)
+                    + TSPHeuristics.computeHeuristic(matrix, visited | (1L << s), s, startCity, cityBuffer, distanceBuffer);
+            if (f >= bestCost) {
+                continue;
+            }
+            if (f > threshold) {
+                recordExceeded(f);
+                continue;
+            }
+            int i = numSuccessors++;
+            while (i > 0 && costs[i - 1] > f) {
+                costs[i] = costs[i - 1];
+                cities[i] = cities[i - 1];
+                i--;
+            }
+            costs[i] = f;
+            cities[i] = s;
+        }
+        for (int i = 0; i < numSuccessors; i++) {
+            //an earlier sibling may have found a tour that rules out the rest
+            if (costs[i] >= bestCost) {
+                break;
+            }
+            final int s = cities[i];
+            path[depth] = s;
+            expand(depth + 1, visited | (1L << s), s, cost + matrix.distance(current, s));
+        }
+    }
+
+    private void recordExceeded(final double f) {
+        if (f < minExceeded) {
+            minExceeded = f;
+        }
+        final int bucket = (int) ((f - threshold) / bucketWidth);
+        if (bucket < NUM_BUCKETS) {
+            exceededCounts[bucket]++;
+        }
+    }
+
+    /**
+     * @param wanted Number of additional states the next iteration should expand
+     * @return Smallest threshold that lets at least that many of the cut off states through, as far as the histogram
+     * can tell
+     */
+    private double nextThreshold(final long wanted) {
+        long total = 0;
+        for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+            total += exceededCounts[bucket];
+            if (total >= wanted) {
+                return Math.max(threshold + (bucket + 1) * bucketWidth, minExceeded);
+            }
+        }
+        //not enough states in the histogram range; let all of them through
+        return Math.max(threshold + NUM_BUCKETS * bucketWidth, minExceeded);
+    }
+}
@@ -0,0 +1,422 @@
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Approximate TSP solver for large instances that returns the best tour it can find within a time budget.
+ * The tour is an array of cities plus the position of every city, and every change to it is a reversal of a stretch
+ * of the array (a 2-opt flip, done on whichever side is shorter). Improvements are found with Lin-Kernighan moves:
+ * starting from an edge (t1, t2), each step adds an edge from t2 to one of its candidate neighbours t3 and flips the
+ * tour so that it is closed by an edge from t1 again, as long as the edges removed outweigh the edges added. The
+ * chain stops as soon as closing it shortens the tour, so a move can replace up to {@link #MAX_DEPTH} edges, which
+ * covers 2-opt, most 3-opt and Or-opt moves and deeper ones. Several alternatives are tried for the first two steps.
+ * Cities whose surroundings have not changed since they last failed to give an improvement are not tried again
+ * (don't-look bits), so once the tour is locally optimal a pass costs almost nothing.
+ * Once no more moves are found, the remaining budget is spent on iterated local search: two adjacent short stretches
+ * of the tour are swapped (a double bridge kick that 2-opt and 3-opt moves can't undo), the cities around the kick
+ * are improved again, and the kick is kept only if the tour got shorter. Every flip is recorded, so a kick is undone
+ * by flipping back instead of copying the tour.
+ * Interrupting the thread running the solver makes it return its best tour early, leaving the thread interrupted.
+ * Instances are not thread safe; every thread should use its own.
+ */
+public class TSPLinKernighan implements TSPSolver {
+    /**
+     * Number of candidate neighbours of every city
+     */
+    public static final int NUM_NEIGHBOURS = 10;
+    /**
+     * Most edges a single move replaces
+     */
+    private static final int MAX_DEPTH = 10;
+    /**
+     * Alternatives tried for t3 at each step of a move; deeper steps only try the best one
+     */
+    private static final int[] BREADTH = {5, 3};
+    /**
+     * A flip takes time proportional to its length, so on large instances moves that would flip more than this many
+     * cities, or 1 / {@link #MAX_FLIP_FRACTION} of the tour if that is more, are not tried. Such moves are rare and
+     * gain little, but they are what limits the speed of the search on arrays of 100,000 cities.
+     */
+    private static final int MIN_MAX_FLIP = 1000;
+    private static final int MAX_FLIP_FRACTION = 100;
+    /**
+     * Longest stretch of the tour moved by a kick
+     */
+    private static final int MAX_KICK_SEGMENT = 50;
+    /**
+     * Improvements smaller than this are not worth making; they would only be rounding errors
+     */
+    private static final double EPSILON = 1e-7;
+    /**
+     * Number of cities looked at between checks of the clock
+     */
+    private static final int CLOCK_INTERVAL = 128;
+
+    private final long budgetNanos;
+    private final Random random;
+    //state of the instance being solved
+    private Distances distances;
+    private int[][] neighbours;
+    private int n;
+    private int maxFlip;
+    private int[] order;
+    private int[] position;
+    private double cost;
+    private long deadline;
+    //flips made since the last mark, as pairs of positions
+    private int[] journal = new int[64];
+    private int journalSize;
+    //cities whose don't-look bit is off, as a FIFO
+    private int[] queue;
+    private boolean[] queued;
+    private int queueHead;
+    private int queueSize;
+    private long numKicks;
+    private long numImprovingKicks;
+    private double lowerBound = Double.NaN;
+    private Cities lastCities;
+
+    /**
+     * @param budgetMillis Wall clock time the solver may take
+     */
+    public TSPLinKernighan(final long budgetMillis) {
+        this(budgetMillis, 486);
+    }
+
+    /**
+     * @param budgetMillis Wall clock time the solver may take
+     * @param seed Seed for the random kicks, so that runs can be repeated
+     */
+    public TSPLinKernighan(final long budgetMillis, final long seed) {
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Usage: TSPLinKernighan file [budget in seconds]
+     */
+    public static void main(final String[] args) {
+        final Cities cities = CityParser.parse(args[0]).sortedByName();
+        final TSPLinKernighan solver = new TSPLinKernighan(TimeUnit.SECONDS.toMillis(args.length > 1 ? Long.parseLong(args[1]) : 10));
+        final int[] tour = solver.solve(cities, 0);
+        System.out.println("Total cost: " + cities.tourCost(tour) + ", lower bound: " + solver.lowerBound()
+                + ", gap: " + solver.gap() * 100 + "%, kicks: " + solver.getNumKicks()
+                + " (" + solver.getNumImprovingKicks() + " improving)");
+        for (final int city : tour) {
+            System.out.println(cities.name(city));
+        }
+    }
+
+    /**
+     * Find a short tour within the time budget, starting from the tour of {@link TSPNearestNeighbour}. Building that
+     * tour takes time of its own, about n log n, which only a budget too short for it overruns.
+     * @param cities Coordinates of the cities; city ids are their indices
+     * @param startCity id of the start city
+     * @return ids of the cities of the best tour found, starting and ending at the start city
+     */
+    @Override
+    public int[] solve(final Cities cities, final int startCity) {
+        final long deadline = System.nanoTime() + budgetNanos;
+        final SpatialIndex index = new SpatialIndex(cities);
+        final int[] order = TSPNearestNeighbour.nearestNeighbourOrder(index, startCity);
+        final int[][] candidates;
+        if (System.nanoTime() < deadline) {
+            candidates = index.candidateLists(NUM_NEIGHBOURS);
+            //2-opt and Or-opt first remove the long edges of the nearest neighbour tour, whose flips are the slow ones
+            TSPNearestNeighbour.improve(cities, order, candidates, deadline);
+        } else {
+            //the candidate lists take longer to build than the tour, and there is no time left to use them
+            candidates = new int[order.length][];
+            Arrays.fill(candidates, new int[0]);
+        }
+        final int[] tour = solve(cities, candidates, order, startCity, deadline);
+        lastCities = cities;
+        return tour;
+    }
+
+    /**
+     * Improve a given tour until the deadline
+     * @param distances Distances between the cities
+     * @param candidates Candidate neighbours of every city, nearest first
+     * @param initialOrder ids of all cities in visiting order (the return to the first is implied); not modified
+     * @param startCity id of the start city
+     * @param deadline Value of {@link System#nanoTime()} by which to return
+     * @return ids of the cities of the best tour found, starting and ending at the start city
+     */
+    public int[] solve(final Distances distances, final int[][] candidates, final int[] initialOrder, final int startCity, final long deadline) {
+        return solve(distances, candidates, initialOrder, startCity, deadline, null);
+    }
+
+    /**
+     * Improve a given tour until the deadline, first looking for improvements only around some of the cities. Where
+     * most of a tour is known to be locally optimal, such as where sub-tours were joined, this skips a pass over all
+     * the other cities.
+     * @param distances Distances between the cities
+     * @param candidates Candidate neighbours of every city, nearest first
+     * @param initialOrder ids of all cities in visiting order (the return to the first is implied); not modified
+     * @param startCity id of the start city
+     * @param deadline Value of {@link System#nanoTime()} by which to return
+     * @param changed ids of the cities to look for improvements around, or null for all of them
+     * @return ids of the cities of the best tour found, starting and ending at the start city
+     */
+    public int[] solve(final Distances distances, final int[][] candidates, final int[] initialOrder, final int startCity, final long deadline,
+                       final int[] changed) {
+        this.distances = distances;
+        this.neighbours = candidates;
+        this.deadline = deadline;
+        lastCities = null;
+        lowerBound = Double.NaN;
+        n = initialOrder.length;
+        maxFlip = Math.max(MIN_MAX_FLIP, n / MAX_FLIP_FRACTION);
+        order = initialOrder.clone();
+        position = new int[n];
+        for (int i = 0; i < n; i++) {
+            position[order[i]] = i;
+        }
+        cost = distances.tourCost(order) + distances.distance(order[n - 1], order[0]);
+        queue = new int[n];
+        queued = new boolean[n];
+        queueHead = 0;
+        queueSize = 0;
+        journalSize = 0;
+        numKicks = 0;
+        numImprovingKicks = 0;
+        if (n >= 5) {
+            for (final int city : changed == null ? order : changed) {
+                push(city);
+            }
+            improve();
+            journalSize = 0;
+            //a kick swaps two stretches that together must be shorter than half the tour
+            final int maxSegment = Math.min(MAX_KICK_SEGMENT, (n - 2) / 4);
+            while (maxSegment >= 1 && !outOfTime()) {
+                kick(maxSegment);
+            }
+        }
+        if (n == 1) {
+            return new int[]{startCity};
+        }
+        return TSPUtils.orient(TSPNearestNeighbour.closeTour(order, startCity));
+    }
+
+    /**
+     * @return Cost of the tour returned by the last solve
+     */
+    public double getCost() {
+        return cost;
+    }
+
+    /**
+     * @return Number of kicks tried in the last solve
+     */
+    public long getNumKicks() {
+        return numKicks;
+    }
+
+    /**
+     * @return Number of kicks that led to a shorter tour in the last solve
+     */
+    public long getNumImprovingKicks() {
+        return numImprovingKicks;
+    }
+
+    /**
+     * Held-Karp (1-tree) lower bound on the optimal tour of the last instance given to {@link #solve(Cities, int)},
+     * computed the first time it is asked for; see {@link HeldKarpBound}. This takes extra time on top of the budget.
+     * @return Lower bound on the cost of any tour
+     */
+    public double lowerBound() {
+        if (Double.isNaN(lowerBound) && lastCities != null) {
+            if (neighbours[0].length == 0) {
+                //left out by a solve that ran out of time
+                neighbours = new SpatialIndex(lastCities).candidateLists(NUM_NEIGHBOURS);
+            }
+            lowerBound = HeldKarpBound.lowerBound(lastCities, neighbours, cost);
+        }
+        return lowerBound;
+    }
+
+    /**
+     * @return How far the last tour is above the lower bound, as a fraction of the bound
+     */
+    public double gap() {
+        final double bound = lowerBound();
+        return bound > 0 ? (cost - bound) / bound : 0;
+    }
+
+    /**
+     * Apply Lin-Kernighan moves around the queued cities until none improves the tour or time runs out
+     */
+    private void improve() {
+        int sinceClock = 0;
+        while (queueSize > 0) {
+            if (++sinceClock == CLOCK_INTERVAL) {
+                sinceClock = 0;
+                if (outOfTime()) {
+                    return;
+                }
+            }
+            final int t1 = pop();
+            if (improveFrom(t1, true) || improveFrom(t1, false)) {
+                push(t1);
+            }
+        }
+    }
+
+    /**
+     * Try the moves that begin by removing the edge from t1 to its successor (or predecessor)
+     * @return true if the tour was improved
+     */
+    private boolean improveFrom(final int t1, final boolean forward) {
+        final int t2 = forward ? successor(t1) : predecessor(t1);
+        return step(1, t1, t2, forward, distances.distance(t1, t2));
+    }
+
+    /**
+     * One step of a move. The tour currently contains the edge (t1, t2), which stands for the edge that will close
+     * the move, and t2 follows t1 in the given direction.
+     * @param gain Length of the edges removed so far minus the edges added, not counting the closing edge
+     * @return true if the tour was improved
+     */
+    private boolean step(final int depth, final int t1, final int t2, final boolean forward, final double gain) {
+        final int breadth = depth <= BREADTH.length ? BREADTH[depth - 1] : 1;
+        int tried = 0;
+        for (final int t3 : neighbours[t2]) {
+            final double partialGain = gain - distances.distance(t2, t3);
+            if (partialGain <= EPSILON) {
+                //neighbours are sorted, so the rest would add even longer edges
+                break;
+            }
+            final int after = forward ? successor(t2) : predecessor(t2);
+            if (t3 == t1 || t3 == after) {
+                continue;
+            }
+            //t4 is the neighbour of t3 on the t2 side, so that flipping t2..t4 joins t2 to t3 and t4 to t1
+            final int t4 = forward ? predecessor(t3) : successor(t3);
+            final int from = forward ? position[t2] : position[t4];
+            final int to = forward ? position[t4] : position[t2];
+            final int length = (to - from + n) % n + 1;
+            if (Math.min(length, n - length) > maxFlip) {
+                continue;
+            }
+            final int mark = journalSize;
+            flip(from, to);
+            final double newGain = partialGain + distances.distance(t3, t4);
+            final double improvement = newGain - distances.distance(t4, t1);
+            if (improvement > EPSILON) {
+                cost -= improvement;
+                touched(t2, t3, t4);
+                return true;
+            }
+            if (depth < MAX_DEPTH && step(depth + 1, t1, t4, successor(t1) == t4, newGain)) {
+                touched(t2, t3, t4);
+                return true;
+            }
+            undo(mark);
+            if (++tried == breadth) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true once the deadline has passed or the thread has been interrupted
+     */
+    private boolean outOfTime() {
+        return System.nanoTime() >= deadline || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Swap two adjacent short stretches of the tour at a random place, improve the tour around them and keep the
+     * result only if it is shorter than before
+     */
+    private void kick(final int maxSegment) {
+        numKicks++;
+        final double before = cost;
+        final int mark = journalSize;
+        final int p = random.nextInt(n);
+        final int firstLength = 1 + random.nextInt(maxSegment);
+        final int secondLength = 1 + random.nextInt(maxSegment);
+        //tour a [b1..bk] [c1..ck] d becomes a [c1..ck] [b1..bk] d
+        final int a = order[p];
+        final int b1 = order[(p + 1) % n];
+        final int bk = order[(p + firstLength) % n];
+        final int c1 = order[(p + firstLength + 1) % n];
+        final int ck = order[(p + firstLength + secondLength) % n];
+        final int d = order[(p + firstLength + secondLength + 1) % n];
+        cost += distances.distance(a, c1) + distances.distance(ck, b1) + distances.distance(bk, d)
+                - distances.distance(a, b1) - distances.distance(bk, c1) - distances.distance(ck, d);
+        flip((p + 1) % n, (p + firstLength + secondLength) % n);
+        flip((p + 1) % n, (p + secondLength) % n);
+        flip((p + secondLength + 1) % n, (p + firstLength + secondLength) % n);
+        for (final int city : new int[]{a, b1, bk, c1, ck, d}) {
+            push(city);
+        }
+        improve();
+        if (cost < before - EPSILON) {
+            numImprovingKicks++;
+            journalSize = 0;
+        } else {
+            undo(mark);
+            cost = before;
+            //the cities around the kick may still be queued if time ran out
+            while (queueSize > 0) {
+                pop();
+            }
+        }
+    }
+
+    /**
+     * Turn off the don't-look bits of the cities at the ends of edges changed by a move
+     */
+    private void touched(final int t2, final int t3, final int t4) {
+        push(t2);
+        push(t3);
+        push(t4);
+    }
+
+    private void flip(final int from, final int to) {
+        TSPNearestNeighbour.reverse(order, position, from, to);
+        if (journalSize == journal.length) {
+            journal = Arrays.copyOf(journal, journal.length * 2);
+        }
+        journal[journalSize++] = from;
+        journal[journalSize++] = to;
+    }
+
+    /**
+     * Undo the flips made since the journal had the given size, newest first. A flip of a range of positions is its
+     * own inverse.
+     */
+    private void undo(final int mark) {
+        while (journalSize > mark) {
+            journalSize -= 2;
+            TSPNearestNeighbour.reverse(order, position, journal[journalSize], journal[journalSize + 1]);
+        }
+    }
+
+    private int successor(final int city) {
+        final int i = position[city] + 1;
+        return order[i == n ? 0 : i];
+    }
+
+    private int predecessor(final int city) {
+        final int i = position[city];
+        return order[i == 0 ? n - 1 : i - 1];
+    }
+
+    private void push(final int city) {
+        if (!queued[city]) {
+            queued[city] = true;
+            queue[(queueHead + queueSize++) % n] = city;
+        }
+    }
+
+    private int pop() {
+        final int city = queue[queueHead];
+        queueHead = (queueHead + 1) % n;
+        queueSize--;
+        queued[city] = false;
+        return city;
+    }
+}
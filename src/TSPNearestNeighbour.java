@@ -0,0 +1,349 @@
+import java.util.*;
+
+/**
+ * Fast approximate TSP solver: builds a tour with the nearest neighbour rule and then improves it with 2-opt and
+ * Or-opt moves until neither finds an improvement. Moves are only tried towards each city's few nearest neighbours,
+ * which is where nearly all improving moves are found.
+ * Besides giving a quick answer on its own, the cost of its tour is an upper bound on the optimal cost that the
+ * exact solvers use to discard states early.
+ */
+public class TSPNearestNeighbour {
+    /**
+     * Number of nearest neighbours considered for each city by the improvement moves
+     */
+    public static final int NUM_NEIGHBOURS = 10;
+
+    /**
+     * Number of cities tried between checks of the deadline; a power of two
+     */
+    private static final int CHECK_INTERVAL = 256;
+    /**
+     * Longest segment of consecutive cities that Or-opt moves elsewhere in the tour
+     */
+    private static final int MAX_SEGMENT = 3;
+    /**
+     * Moves have to improve the tour by more than this to be applied, so rounding cannot make the search cycle
+     */
+    private static final double EPSILON = 1e-10;
+    /**
+     * Label of visited cities in the spatial index used for construction
+     */
+    private static final int VISITED = 1;
+
+    public static void main(final String[] args) {
+        solve(args[0]);
+    }
+
+    /**
+     * Find a good tour for the given input file
+     * @param file location of input file on disk
+     * @return A locally optimal path the salesman can take
+     */
+    public static List<String> solve(final String file) {
+        final DistanceMatrix matrix = DistanceMatrix.fromFile(file);
+        final int[] tour = solve(matrix, matrix.id("A"));
+        final List<String> path = matrix.toNames(tour);
+        System.out.println("Total cost: " + matrix.tourCost(tour));
+        path.forEach(System.out::println);
+        return path;
+    }
+
+    /**
+     * Find a good tour over a precomputed distance matrix
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @return ids of the cities of a locally optimal tour, starting and ending at the start city
+     */
+    public static int[] solve(final DistanceMatrix matrix, final int startCity) {
+        if (matrix.size() == 1) {
+            return new int[]{startCity};
+        }
+        final int[] order = nearestNeighbourOrder(matrix, startCity);
+        improve(matrix, order, neighbourLists(matrix, NUM_NEIGHBOURS));
+        return TSPUtils.orient(closeTour(order, startCity));
+    }
+
+    /**
+     * Find a good tour without a distance matrix, for instances of any size. Construction and the neighbour lists use
+     * a spatial index, so apart from the improvement moves everything takes about n log n time.
+     * @param cities Coordinates of the cities
+     * @param startCity id of the start city
+     * @return ids of the cities of a locally optimal tour, starting and ending at the start city
+     */
+    public static int[] solve(final Cities cities, final int startCity) {
+        if (cities.size() == 1) {
+            return new int[]{startCity};
+        }
+        final SpatialIndex index = new SpatialIndex(cities);
+        final int[][] neighbours = index.candidateLists(NUM_NEIGHBOURS);
+        final int[] order = nearestNeighbourOrder(index, startCity);
+        improve(cities, order, neighbours);
+        return TSPUtils.orient(closeTour(order, startCity));
+    }
+
+    /**
+     * Build a tour by always moving on to the nearest city not visited yet
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @return ids of all cities in visiting order, beginning with the start city (the return to it is implied)
+     */
+    public static int[] nearestNeighbourOrder(final Distances matrix, final int startCity) {
+        final int n = matrix.size();
+        final int[] order = new int[n];
+        final boolean[] visited = new boolean[n];
+        order[0] = startCity;
+        visited[startCity] = true;
+        for (int i = 1; i < n; i++) {
+            final int current = order[i - 1];
+            int nearest = -1;
+            for (int city = 0; city < n; city++) {
+                if (!visited[city] && (nearest == -1 || matrix.distance(current, city) < matrix.distance(current, nearest))) {
+                    nearest = city;
+                }
+            }
+            order[i] = nearest;
+            visited[nearest] = true;
+        }
+        return order;
+    }
+
+    /**
+     * Build a tour by always moving on to the nearest city not visited yet, finding that city with a spatial index
+     * @param index Index over the cities; its labels are overwritten
+     * @param startCity id of the start city
+     * @return ids of all cities in visiting order, beginning with the start city (the return to it is implied)
+     */
+    public static int[] nearestNeighbourOrder(final SpatialIndex index, final int startCity) {
+        final int n = index.size();
+        final int[] order = new int[n];
+        index.setLabels(new int[n]);
+        order[0] = startCity;
+        index.setLabel(startCity, VISITED);
+        for (int i = 1; i < n; i++) {
+            order[i] = index.nearest(order[i - 1], VISITED);
+            index.setLabel(order[i], VISITED);
+        }
+        return order;
+    }
+
+    /**
+     * @param matrix Distances between all cities
+     * @param k Number of neighbours per city
+     * @return For each city, the ids of its k nearest other cities, nearest first
+     */
+    public static int[][] neighbourLists(final Distances matrix, final int k) {
+        final int n = matrix.size();
+        final int numNeighbours = Math.min(k, n - 1);
+        final int[][] neighbours = new int[n][];
+        final Integer[] others = new Integer[n];
+        for (int city = 0; city < n; city++) {
+            final int from = city;
+            for (int i = 0; i < n; i++) {
+                others[i] = i;
+            }
+            Arrays.sort(others, (c1, c2) -> Double.compare(matrix.distance(from, c1), matrix.distance(from, c2)));
+            neighbours[city] = new int[numNeighbours];
+            for (int i = 0, j = 0; j < numNeighbours; i++) {
+                if (others[i] != city) {
+                    neighbours[city][j++] = others[i];
+                }
+            }
+        }
+        return neighbours;
+    }
+
+    /**
+     * Apply improving 2-opt and Or-opt moves to a tour until it is a local optimum for both
+     * @param matrix Distances between all cities
+     * @param order ids of all cities in visiting order; improved in place
+     * @param neighbours Candidate neighbours of each city
+     */
+    public static void improve(final Distances matrix, final int[] order, final int[][] neighbours) {
+        improve(matrix, order, neighbours, Long.MAX_VALUE);
+    }
+
+    /**
+     * Apply improving 2-opt and Or-opt moves to a tour until it is a local optimum for both, or until the deadline
+     * passes or the thread is interrupted; the tour is then as far improved as the moves got
+     * @param matrix Distances between all cities
+     * @param order ids of all cities in visiting order; improved in place
+     * @param neighbours Candidate neighbours of each city
+     * @param deadline Value of {@link System#nanoTime()} by which to return
+     */
+    public static void improve(final Distances matrix, final int[] order, final int[][] neighbours, final long deadline) {
+        if (order.length < 4) {
+            return;
+        }
+        final int[] position = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            position[order[i]] = i;
+        }
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int city = 0; city < order.length; city++) {
+                if ((city & CHECK_INTERVAL - 1) == 0 && deadline != Long.MAX_VALUE
+                        && (System.nanoTime() >= deadline || Thread.currentThread().isInterrupted())) {
+                    return;
+                }
+                while (twoOpt(matrix, order, position, neighbours, city) || orOpt(matrix, order, position, neighbours, city)) {
+                    improved = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rotate a tour so that it begins with the start city and append the return to it
+     * @param order ids of all cities in visiting order
+     * @param startCity id of the start city
+     * @return ids of the cities in visiting order, starting and ending at the start city
+     */
+    public static int[] closeTour(final int[] order, final int startCity) {
+        final int n = order.length;
+        int offset = 0;
+        while (order[offset] != startCity) {
+            offset++;
+        }
+        final int[] tour = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            tour[i] = order[(offset + i) % n];
+        }
+        tour[n] = startCity;
+        return tour;
+    }
+
+    /**
+     * Try to replace edges (a, succ a) and (c, succ c) by (a, c) and (succ a, succ c), and likewise for the
+     * predecessors, for neighbours c of a
+     * @return true if the tour was improved
+     */
+    private static boolean twoOpt(final Distances matrix, final int[] order, final int[] position, final int[][] neighbours, final int a) {
+        final int n = order.length;
+        final int aPos = position[a];
+        final int aNext = order[(aPos + 1) % n];
+        final int aPrev = order[(aPos + n - 1) % n];
+        for (final int c : neighbours[a]) {
+            final double gain = matrix.distance(a, c);
+            final int cPos = position[c];
+            final int cNext = order[(cPos + 1) % n];
+            final int cPrev = order[(cPos + n - 1) % n];
+            final boolean nextCandidate = gain < matrix.distance(a, aNext);
+            final boolean prevCandidate = gain < matrix.distance(a, aPrev);
+            if (!nextCandidate && !prevCandidate) {
+                //neighbours are sorted, so no later neighbour can give a shorter new edge either
+                break;
+            }
+            if (nextCandidate && c != aNext && cNext != a) {
+                final double delta = gain + matrix.distance(aNext, cNext) - matrix.distance(a, aNext) - matrix.distance(c, cNext);
+                if (delta < -EPSILON) {
+                    reverse(order, position, (aPos + 1) % n, cPos);
+                    return true;
+                }
+            }
+            if (prevCandidate && c != aPrev && cPrev != a) {
+                final double delta = gain + matrix.distance(aPrev, cPrev) - matrix.distance(a, aPrev) - matrix.distance(c, cPrev);
+                if (delta < -EPSILON) {
+                    reverse(order, position, cPos, (aPos + n - 1) % n);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Try to move a segment of up to three cities starting at the given city next to one of its neighbours,
+     * in either orientation
+     * @return true if the tour was improved
+     */
+    private static boolean orOpt(final Distances matrix, final int[] order, final int[] position, final int[][] neighbours, final int first) {
+        final int n = order.length;
+        final int firstPos = position[first];
+        final int prev = order[(firstPos + n - 1) % n];
+        for (int length = 1; length <= MAX_SEGMENT && length <= n - 3; length++) {
+            final int last = order[(firstPos + length - 1) % n];
+            final int next = order[(firstPos + length) % n];
+            final double removeGain = matrix.distance(prev, first) + matrix.distance(last, next) - matrix.distance(prev, next);
+            if (removeGain <= EPSILON) {
+                continue;
+            }
+            for (int end = 0; end < 2; end++) {
+                final int endpoint = end == 0 ? first : last;
+                for (final int c : neighbours[endpoint]) {
+                    if (matrix.distance(endpoint, c) >= removeGain) {
+                        break;
+                    }
+                    //c must lie outside the segment and the edge (c, succ c) must not touch it
+                    if ((position[c] - firstPos + n) % n < length || c == prev) {
+                        continue;
+                    }
+                    final int cNext = order[(position[c] + 1) % n];
+                    final double forward = matrix.distance(c, first) + matrix.distance(last, cNext);
+                    final double reversed = matrix.distance(c, last) + matrix.distance(first, cNext);
+                    final double insertCost = Math.min(forward, reversed) - matrix.distance(c, cNext);
+                    if (insertCost - removeGain < -EPSILON) {
+                        moveSegment(order, position, firstPos, length, c, reversed < forward);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reverse the cities between two positions of the tour (inclusive, wrapping around the end of the array).
+     * Since the tour is a cycle, reversing the complementary part gives the same tour, so the shorter part is reversed.
+     */
+    static void reverse(final int[] order, final int[] position, final int from, final int to) {
+        final int n = order.length;
+        int length = (to - from + n) % n + 1;
+        int i = from;
+        int j = to;
+        if (length * 2 > n) {
+            i = (to + 1) % n;
+            j = (from + n - 1) % n;
+            length = n - length;
+        }
+        for (int k = 0; k < length / 2; k++) {
+            final int city = order[i];
+            order[i] = order[j];
+            order[j] = city;
+            position[order[i]] = i;
+            position[order[j]] = j;
+            i = (i + 1) % n;
+            j = (j + n - 1) % n;
+        }
+    }
+
+    /**
+     * Remove the segment at the given position and insert it right after city c
+     */
+    private static void moveSegment(final int[] order, final int[] position, final int from, final int length, final int c, final boolean reversed) {
+        final int n = order.length;
+        final int[] segment = new int[length];
+        for (int k = 0; k < length; k++) {
+            segment[k] = order[(from + k) % n];
+        }
+        //shift the cities between the end of the segment and c back over the gap the segment leaves
+        int write = from;
+        int read = (from + length) % n;
+        while (true) {
+            final int city = order[read];
+            order[write] = city;
+            position[city] = write;
+            write = (write + 1) % n;
+            read = (read + 1) % n;
+            if (city == c) {
+                break;
+            }
+        }
+        for (int k = 0; k < length; k++) {
+            final int city = segment[reversed ? length - 1 - k : k];
+            order[write] = city;
+            position[city] = write;
+            write = (write + 1) % n;
+        }
+    }
+}
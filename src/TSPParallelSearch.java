@@ -0,0 +1,306 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Hash distributed A* (HDA*): A* graph search spread over several worker threads.
+ * Every state (visited cities, current city) is owned by the worker its hash maps to. Each worker has its own open
+ * list, its own table of best costs to reach the states it owns and its own heuristic, and successors owned by
+ * another worker are handed over through that worker's lock free mailbox. Duplicates are therefore detected by the
+ * owner without any shared table.
+ * A worker may find a tour before other workers have ruled out cheaper ones, so tours only become the incumbent; the
+ * search ends once no worker has a state with f below the incumbent's cost and no state is in a mailbox. This is
+ * tracked with one counter of states in mailboxes plus workers that still have work, which can only reach zero once
+ * both are gone. A worker with nothing to do parks until a state is sent to it or the search ends.
+ */
+public class TSPParallelSearch {
+    private final DistanceMatrix matrix;
+    private final int startCity;
+    private final long allCities;
+    private final int numWorkers;
+    private final Supplier<Heuristic> heuristics;
+    private final AtomicReference<TSPSearch.Node> incumbent = new AtomicReference<>();
+    private final AtomicLong outstanding = new AtomicLong();
+    private final AtomicLong numExpanded = new AtomicLong();
+    private final AtomicLong numGenerated = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private List<ConcurrentLinkedQueue<TSPSearch.Node>> mailboxes;
+    private Worker[] workers;
+    private Thread[] threads;
+    private double upperBound;
+
+    /**
+     * Search with one worker per available processor and the MST heuristic
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     */
+    public TSPParallelSearch(final DistanceMatrix matrix, final int startCity) {
+        this(matrix, startCity, Runtime.getRuntime().availableProcessors(), () -> new MSTHeuristic(matrix, startCity));
+    }
+
+    /**
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @param numWorkers Number of worker threads
+     * @param heuristics Creates the heuristic of each worker, since heuristics need not be thread safe
+     */
+    public TSPParallelSearch(final DistanceMatrix matrix, final int startCity, final int numWorkers, final Supplier<Heuristic> heuristics) {
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException("Need at least one worker, got " + numWorkers);
+        }
+        this.matrix = matrix;
+        this.startCity = startCity;
+        this.allCities = TSPUtils.allCities(matrix.size());
+        this.numWorkers = numWorkers;
+        this.heuristics = heuristics;
+    }
+
+    public static void main(final String[] args) {
+        search(args[0]);
+    }
+
+    /**
+     * Performs parallel A* search to solve the TSP problem with the given input file
+     * @param file location of input file on disk
+     * @return The optimal path the salesman should take
+     */
+    public static List<String> search(final String file) {
+        final DistanceMatrix matrix = DistanceMatrix.fromFile(file);
+        final TSPParallelSearch solver = new TSPParallelSearch(matrix, matrix.id("A"));
+        final List<String> path = matrix.toNames(solver.search());
+        System.out.println("Total expanded nodes: " + solver.getNumExpanded() + ", generated nodes: " + solver.getNumGenerated());
+        //print the optimal path
+        path.forEach(System.out::println);
+        return path;
+    }
+
+    /**
+     * Find the optimal tour, using the local search tour as the upper bound
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     */
+    public int[] search() {
+        return search(matrix.tourCost(TSPNearestNeighbour.solve(matrix, startCity)));
+    }
+
+    /**
+     * Find the optimal tour
+     * @param upperBound Cost of a known tour; states whose cost plus heuristic exceeds it are never generated
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     */
+    public int[] search(final double upperBound) {
+        if (matrix.size() == 1) {
+            return new int[]{startCity};
+        }
+        this.upperBound = upperBound;
+        incumbent.set(null);
+        failure.set(null);
+        outstanding.set(0);
+        numExpanded.set(0);
+        numGenerated.set(0);
+        mailboxes = new ArrayList<>(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+            mailboxes.add(new ConcurrentLinkedQueue<>());
+        }
+        workers = new Worker[numWorkers];
+        threads = new Thread[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i] = new Worker(i);
+            threads[i] = new Thread(workers[i], "tsp-hda-" + i);
+        }
+        final long visited = 1L << startCity;
+        final Heuristic rootHeuristic = heuristics.get();
+        send(new TSPSearch.Node(visited, startCity, 0, rootHeuristic.estimate(visited, startCity), null));
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+            for (final Thread thread : threads) {
+                thread.interrupt();
+            }
+            Thread.currentThread().interrupt();
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("Parallel search failed", failure.get());
+        }
+        final TSPSearch.Node goal = incumbent.get();
+        if (goal == null) {
+            throw new IllegalStateException("Exhausted all nodes with no solution found! How is this possible?");
+        }
+        return TSPUtils.orient(goal.path());
+    }
+
+    /**
+     * @return Number of states expanded by all workers in the last search
+     */
+    public long getNumExpanded() {
+        return numExpanded.get();
+    }
+
+    /**
+     * @return Number of states generated by all workers in the last search
+     */
+    public long getNumGenerated() {
+        return numGenerated.get();
+    }
+
+    private int owner(final long visited, final int city) {
+        return Math.floorMod(BestCostTable.hash(visited, city), numWorkers);
+    }
+
+    private void send(final TSPSearch.Node node) {
+        //count the state before it becomes visible so that the count can't drop to zero while it is in flight
+        outstanding.incrementAndGet();
+        final int owner = owner(node.visited, node.currentCity);
+        mailboxes.get(owner).offer(node);
+        if (workers[owner].parked) {
+            LockSupport.unpark(threads[owner]);
+        }
+    }
+
+    /**
+     * Wake every worker, so that parked ones see that the search is over
+     */
+    private void wakeAll() {
+        for (final Thread thread : threads) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private double incumbentCost() {
+        final TSPSearch.Node goal = incumbent.get();
+        return goal == null ? Double.POSITIVE_INFINITY : goal.costToCurrent;
+    }
+
+    private void offerIncumbent(final TSPSearch.Node goal) {
+        TSPSearch.Node current = incumbent.get();
+        while ((current == null || goal.costToCurrent < current.costToCurrent) && !incumbent.compareAndSet(current, goal)) {
+            current = incumbent.get();
+        }
+    }
+
+    /**
+     * Runs A* on the states owned by one worker
+     */
+    private class Worker implements Runnable {
+        private final int id;
+        private final PriorityQueue<TSPSearch.Node> queue = new PriorityQueue<>(
+                (n1, n2) -> Double.compare(n1.totalCost(), n2.totalCost())
+        );
+        private final BestCostTable bestCosts = new BestCostTable(1 << 10);
+        private final Heuristic heuristic = heuristics.get();
+        private boolean working;
+        //set while the worker is about to park or parked, so that senders know to wake it
+        private volatile boolean parked;
+
+        Worker(final int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long expanded = 0;
+                long generated = 0;
+                while (failure.get() == null) {
+                    receive();
+                    final TSPSearch.Node expand = queue.peek();
+                    if (expand == null || expand.totalCost() >= incumbentCost()) {
+                        //nothing left that could beat the incumbent, unless another worker sends it
+                        if (working) {
+                            working = false;
+                            if (outstanding.decrementAndGet() == 0) {
+                                wakeAll();
+                            }
+                        }
+                        if (outstanding.get() == 0) {
+                            break;
+                        }
+                        idle();
+                        continue;
+                    }
+                    queue.poll();
+                    if (expand.costToCurrent > bestCosts.get(expand.visited, expand.currentCity)) {
+                        continue;
+                    }
+                    if (expand.visited == allCities && expand.currentCity == startCity && expand.parent != null) {
+                        offerIncumbent(expand);
+                        continue;
+                    }
+                    expanded++;
+                    heuristic.expanding(expand.visited, expand.currentCity);
+                    long successorCities = allCities & ~expand.visited;
+                    if (successorCities == 0) {
+                        successorCities = 1L << startCity;
+                    }
+                    for (; successorCities != 0; successorCities &= successorCities - 1) {
+                        final int s = Long.numberOfTrailingZeros(successorCities);
+                        generated++;
+                        final long newVisited = expand.visited | (1L << s);
+                        final double costToSuccessor = expand.costToCurrent + matrix.distance(expand.currentCity, s);
+                        //a cheaper path to a state owned by this worker is already known; don't bother estimating
+                        if (owner(newVisited, s) == id && costToSuccessor >= bestCosts.get(newVisited, s)) {
+                            continue;
+                        }
+                        final double estimate = heuristic.estimate(newVisited, s);
+                        final double totalCost = costToSuccessor + estimate;
+                        if (totalCost > upperBound + TSPSearch.UPPER_BOUND_TOLERANCE || totalCost >= incumbentCost()) {
+                            continue;
+                        }
+                        final TSPSearch.Node successor = new TSPSearch.Node(newVisited, s, costToSuccessor, estimate, expand);
+                        if (owner(newVisited, s) == id) {
+                            accept(successor);
+                        } else {
+                            send(successor);
+                        }
+                    }
+                }
+                numExpanded.addAndGet(expanded);
+                numGenerated.addAndGet(generated);
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+                wakeAll();
+            }
+        }
+
+        /**
+         * Park until a state is sent to this worker, the search ends or the thread is interrupted. The flag is raised
+         * before the mailbox is checked, so a state sent after the check always unparks the thread.
+         */
+        private void idle() {
+            parked = true;
+            if (mailboxes.get(id).isEmpty() && outstanding.get() != 0 && failure.get() == null) {
+                LockSupport.park(this);
+            }
+            parked = false;
+        }
+
+        /**
+         * Move the states in this worker's mailbox to its open list
+         */
+        private void receive() {
+            TSPSearch.Node node;
+            while ((node = mailboxes.get(id).poll()) != null) {
+                if (!working) {
+                    working = true;
+                    outstanding.incrementAndGet();
+                }
+                outstanding.decrementAndGet();
+                accept(node);
+            }
+        }
+
+        private void accept(final TSPSearch.Node node) {
+            if (bestCosts.offer(node.visited, node.currentCity, node.costToCurrent)) {
+                queue.add(node);
+            }
+        }
+    }
+}
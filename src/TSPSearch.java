@@ -1,9 +1,23 @@
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.DoubleConsumer;
 
 /**
  * Created by bowen on 27/01/16.
  */
 public class TSPSearch {
+    /**
+     * States are only dropped for exceeding the upper bound by more than rounding error, since the states on the
+     * path of a tour costing exactly the upper bound are needed to find it
+     */
+    static final double UPPER_BOUND_TOLERANCE = 1e-9;
+    /**
+     * Names of the searches in flight recorder events
+     */
+    private static final String TREE_SEARCH = "tree";
+    private static final String GRAPH_SEARCH = "graph";
+    private static final String EXTERNAL_SEARCH = "external";
+    private static final String PARTIAL_SEARCH = "partial";
 
     public static void main(final String[] args) {
         search(args[0]);
@@ -15,8 +29,12 @@ public class TSPSearch {
      * @return The optimal path the salesman should take
      */
     public static List<String> search(final String file) {
-        final Map<String, Position> cities = TSPUtils.readCities(file);
-        final List<String> path = search(cities, "A");
+        final DistanceMatrix matrix = DistanceMatrix.fromFile(file);
+        final int startCity = matrix.id("A");
+        final SearchStats stats = new SearchStats();
+        final List<String> path = matrix.toNames(search(matrix, startCity, new MSTHeuristic(matrix, startCity),
+                upperBound(matrix, startCity), stats));
+        System.out.println(stats);
         //print the optimal path
         path.forEach(System.out::println);
         return path;
@@ -29,53 +47,144 @@ public class TSPSearch {
      * @return The optimal path the salesman should take
      */
     public static List<String> search(final Map<String, Position> cities, final String startCity) {
-        //counter for number of nodes generated
-        int numGenerated = 0;
+        final DistanceMatrix matrix = new DistanceMatrix(cities);
+        return matrix.toNames(search(matrix, matrix.id(startCity)));
+    }
+
+    /**
+     * Performs A* search to solve the TSP problem over a precomputed distance matrix
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     */
+    public static int[] search(final DistanceMatrix matrix, final int startCity) {
+        return search(matrix, startCity, new MSTHeuristic(matrix, startCity));
+    }
+
+    /**
+     * Performs A* search to solve the TSP problem over a precomputed distance matrix
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @param heuristic Admissible estimate of the cost to complete a tour from a state
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     */
+    public static int[] search(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic) {
+        return search(matrix, startCity, heuristic, upperBound(matrix, startCity));
+    }
+
+    /**
+     * Performs A* search to solve the TSP problem over a precomputed distance matrix
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @param heuristic Admissible estimate of the cost to complete a tour from a state
+     * @param upperBound Cost of a known tour; states whose cost plus heuristic exceeds it are never enqueued
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     */
+    public static int[] search(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic, final double upperBound) {
+        return search(matrix, startCity, heuristic, upperBound, new SearchStats());
+    }
+
+    /**
+     * Performs A* search to solve the TSP problem over a precomputed distance matrix
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @param heuristic Admissible estimate of the cost to complete a tour from a state
+     * @param upperBound Cost of a known tour; states whose cost plus heuristic exceeds it are never enqueued
+     * @param stats Filled in with the counters and timings of this search
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     * @throws java.util.concurrent.CancellationException if the thread is interrupted
+     */
+    public static int[] search(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic, final double upperBound,
+                               final SearchStats stats) {
+        return search(matrix, startCity, heuristic, upperBound, stats, new HeapOpenList());
+    }
+
+    /**
+     * Performs A* search to solve the TSP problem over a precomputed distance matrix
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @param heuristic Admissible estimate of the cost to complete a tour from a state
+     * @param upperBound Cost of a known tour; states whose cost plus heuristic exceeds it are never enqueued
+     * @param stats Filled in with the counters and timings of this search
+     * @param open Open list to order the states by; it is cleared first
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     * @throws java.util.concurrent.CancellationException if the thread is interrupted
+     */
+    public static int[] search(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic, final double upperBound,
+                               final SearchStats stats, final OpenList open) {
+        stats.start();
+        SearchEvents.start(TREE_SEARCH, matrix.size(), heuristic, upperBound);
+        final int[] path = treeSearch(matrix, startCity, heuristic, upperBound, stats, open);
+        stats.finish();
+        SearchEvents.finish(TREE_SEARCH, matrix.size(), matrix.tourCost(path), stats);
+        return path;
+    }
+
+    private static int[] treeSearch(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic, final double upperBound,
+                                    final SearchStats stats, final OpenList open) {
         //check for trivial case where there is only one city
-        if (cities.size() == 1) {
-            return Collections.singletonList(startCity);
+        if (matrix.size() == 1) {
+            return new int[]{startCity};
         }
-        //initialize a PriorityQueue for storing the states we generate
-        //priority is based on the lowest (distance so far to current city + heuristic for current city)
-        final PriorityQueue<State> queue = new PriorityQueue<>(
-                cities.size(),
-                (Comparator<State>) (s1, s2) -> (s1.totalCost()).compareTo(s2.totalCost())
-        );
+        final long allCities = TSPUtils.allCities(matrix.size());
+        //states live in the pool, and the open list orders their handles by the lowest (distance so far to current
+        //city + heuristic for current city)
+        final NodePool nodes = new NodePool(matrix.size() * matrix.size());
+        open.clear();
         //keep track of visited cities. initialized to only being the start city
-        final List<String> visited = Collections.singletonList(startCity);
+        final long visited = 1L << startCity;
         //expand start city
-        queue.add(new State(startCity, visited, 0, TSPHeuristics.computeHeuristic(cities, new HashSet<>(visited), startCity, startCity)));
+        final double rootEstimate = heuristic.estimate(visited, startCity);
+        open.add(nodes.add(visited, startCity, 0, rootEstimate, NodePool.NONE), rootEstimate, 0);
         //Loop until queue is empty. We should never hit the point where the queue is empty unless something went terribly wrong
-        while (!queue.isEmpty()) {
+        while (!open.isEmpty()) {
+            stats.openSize(open.size());
+            checkInterrupted();
             //pop state with the top priority off the queue in order to expand it
-            final State expand = queue.poll();
-            //check if it is a goal state. If so, return path taken
-            if (expand.heuristic == 0) {
-                System.out.println("Total generate nodes: " + numGenerated);
-                return expand.path;
-            }
-            //if state is not goal state, then we expand it by computing the list of cities that we still need
-            //to visit in alphabetical order. This set is basically the list of successors/possible moves.
-            final List<String> successorCities = new ArrayList<>(cities.keySet());
-            successorCities.removeAll(expand.path);
-            successorCities.sort(String::compareTo);
+            long time = System.nanoTime();
+            final int expand = open.poll();
+            stats.queueTime(time);
+            final long expandVisited = nodes.visited(expand);
+            final int currentCity = nodes.city(expand);
+            final double costToCurrent = nodes.cost(expand);
+            //check if it is a goal state, i.e. every city has been visited and the salesman is back at the start
+            //city. If so, return path taken
+            if (expandVisited == allCities && currentCity == startCity && nodes.parent(expand) != NodePool.NONE) {
+                return TSPUtils.orient(nodes.path(expand));
+            }
+            stats.expanded();
+            if (stats.getNumExpanded() % SearchEvents.SNAPSHOT_INTERVAL == 0) {
+                SearchEvents.frontier(TREE_SEARCH, open.size() + 1, stats, expandVisited, nodes.totalCost(expand));
+            }
+            heuristic.expanding(expandVisited, currentCity);
+            //if state is not goal state, then we expand it by computing the set of cities that we still need
+            //to visit. Ids are assigned in alphabetical order, so iterating the bits from the lowest keeps the
+            //successors in alphabetical order. This set is basically the list of successors/possible moves.
+            long successorCities = allCities & ~expandVisited;
             //if we visited all the cities, then the only successor is to return to start city
-            if (successorCities.isEmpty()) {
-                successorCities.add(startCity);
+            if (successorCities == 0) {
+                successorCities = 1L << startCity;
             }
             //for each successor we have, we add it onto the priority queue
-            for (final String s : successorCities) {
-                if (!s.equals(expand.currentCity)) {
+            for (; successorCities != 0; successorCities &= successorCities - 1) {
+                final int s = Long.numberOfTrailingZeros(successorCities);
+                if (s != currentCity) {
                     //increment our counter
-                    numGenerated++;
-                    //update the path by appending each successor city to the path we have taken to get
-                    //to the node that we expanded
-                    final List<String> newPath = new ArrayList<>(expand.path);
-                    newPath.add(s);
+                    stats.generated();
+                    final long newVisited = expandVisited | (1L << s);
                     //compute the heuristic of each of the successor city
-                    final double heuristic = TSPHeuristics.computeHeuristic(cities, new HashSet<>(newPath), s, startCity);
-                    //enqueue the new state
-                    queue.add(new State(s, newPath, expand.costToCurrent + TSPUtils.distance(cities.get(expand.currentCity), cities.get(s)), heuristic));
+                    time = System.nanoTime();
+                    final double estimate = heuristic.estimate(newVisited, s);
+                    stats.heuristicTime(time);
+                    final double costToSuccessor = costToCurrent + matrix.distance(currentCity, s);
+                    //a state that cannot lead to a tour cheaper than the known one is not worth enqueuing
+                    if (costToSuccessor + estimate > upperBound + UPPER_BOUND_TOLERANCE) {
+                        continue;
+                    }
+                    //enqueue the new state; its path is rebuilt from the parent handles once a goal is reached
+                    time = System.nanoTime();
+                    open.add(nodes.add(newVisited, s, costToSuccessor, estimate, expand), costToSuccessor + estimate, costToSuccessor);
+                    stats.queueTime(time);
                 }
             }
         }
@@ -83,23 +192,484 @@ public class TSPSearch {
     }
 
     /**
-     * Represents states that is to be added to the queue during the A* search
+     * Performs A* graph search with the 1-tree heuristic, as a {@link TSPSolver}
+     * @param cities Coordinates of at most 64 cities
+     * @param startCity id of the start city
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     */
+    public static int[] searchGraph(final Cities cities, final int startCity) {
+        final DistanceMatrix matrix = new DistanceMatrix(cities.names(), cities.x, cities.y);
+        return searchGraph(matrix, startCity, new OneTreeHeuristic(matrix, startCity));
+    }
+
+    /**
+     * Performs A* graph search to solve the TSP problem over a precomputed distance matrix.
+     * Unlike {@link #search(DistanceMatrix, int)}, a state only stores the bitmask of visited cities, the current
+     * city and a pointer to its parent, and a table of the best cost to reach each (visited, current) pair is kept
+     * so that duplicates reached through a more expensive ordering of the same cities are dropped.
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
      */
-    private static class State {
-        public final String currentCity;
-        public final List<String> path;
-        public final double costToCurrent;
-        public final double heuristic;
+    public static int[] searchGraph(final DistanceMatrix matrix, final int startCity) {
+        return searchGraph(matrix, startCity, new MSTHeuristic(matrix, startCity));
+    }
 
-        public State(final String currentCity, final List<String> path, final double costToCurrent, final double heuristic) {
+    /**
+     * Performs A* graph search to solve the TSP problem over a precomputed distance matrix
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @param heuristic Admissible estimate of the cost to complete a tour from a state
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     */
+    public static int[] searchGraph(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic) {
+        return searchGraph(matrix, startCity, heuristic, upperBound(matrix, startCity));
+    }
+
+    /**
+     * Performs A* graph search to solve the TSP problem over a precomputed distance matrix
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @param heuristic Admissible estimate of the cost to complete a tour from a state
+     * @param upperBound Cost of a known tour; states whose cost plus heuristic exceeds it are never enqueued
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     */
+    public static int[] searchGraph(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic, final double upperBound) {
+        return searchGraph(matrix, startCity, heuristic, upperBound, new SearchStats());
+    }
+
+    /**
+     * Performs A* graph search to solve the TSP problem over a precomputed distance matrix
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @param heuristic Admissible estimate of the cost to complete a tour from a state
+     * @param upperBound Cost of a known tour; states whose cost plus heuristic exceeds it are never enqueued
+     * @param stats Filled in with the counters and timings of this search
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     */
+    public static int[] searchGraph(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic, final double upperBound,
+                                    final SearchStats stats) {
+        return searchGraph(matrix, startCity, heuristic, upperBound, stats, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Performs A* graph search to solve the TSP problem over a precomputed distance matrix, giving up once it stores
+     * too many states. The search also gives up when the thread running it is interrupted.
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @param heuristic Admissible estimate of the cost to complete a tour from a state
+     * @param upperBound Cost of a known tour; states whose cost plus heuristic exceeds it are never enqueued
+     * @param stats Filled in with the counters and timings of this search
+     * @param maxStates Largest number of states the search may store. Every state enqueued stays in the node pool
+     *                  and the table of best costs after it is expanded, so all of them count, not only the open ones
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     * @throws StateLimitExceededException if the search stores more than maxStates states
+     * @throws java.util.concurrent.CancellationException if the thread is interrupted
+     */
+    public static int[] searchGraph(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic, final double upperBound,
+                                    final SearchStats stats, final int maxStates) {
+        return searchGraph(matrix, startCity, heuristic, upperBound, stats, maxStates, f -> { });
+    }
+
+    /**
+     * Performs A* graph search to solve the TSP problem over a precomputed distance matrix, reporting its progress.
+     * With an admissible heuristic, some state on the open list always lies on an optimal tour with f no higher than
+     * the optimal cost, so the f of every state taken off the list is a lower bound on the optimal cost. The bounds
+     * only rise for a consistent heuristic; the highest one seen is the best bound known.
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @param heuristic Admissible estimate of the cost to complete a tour from a state
+     * @param upperBound Cost of a known tour; states whose cost plus heuristic exceeds it are never enqueued
+     * @param stats Filled in with the counters and timings of this search
+     * @param maxStates Largest number of states the search may store. Every state enqueued stays in the node pool
+     *                  and the table of best costs after it is expanded, so all of them count, not only the open ones
+     * @param lowerBounds Given the f of every state taken off the open list before it is expanded; it may abandon the
+     *                    search by throwing
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     * @throws StateLimitExceededException if the search stores more than maxStates states
+     * @throws java.util.concurrent.CancellationException if the thread is interrupted
+     */
+    public static int[] searchGraph(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic, final double upperBound,
+                                    final SearchStats stats, final int maxStates, final DoubleConsumer lowerBounds) {
+        return searchGraph(matrix, startCity, heuristic, upperBound, stats, maxStates, lowerBounds, new HeapOpenList());
+    }
+
+    /**
+     * Performs A* graph search to solve the TSP problem over a precomputed distance matrix, reporting its progress,
+     * with a given open list
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @param heuristic Admissible estimate of the cost to complete a tour from a state
+     * @param upperBound Cost of a known tour; states whose cost plus heuristic exceeds it are never enqueued
+     * @param stats Filled in with the counters and timings of this search
+     * @param maxStates Largest number of states the search may store. Every state enqueued stays in the node pool
+     *                  and the table of best costs after it is expanded, so all of them count, not only the open ones
+     * @param lowerBounds Given the f of every state taken off the open list before it is expanded; it may abandon the
+     *                    search by throwing
+     * @param open Open list to order the states by; it is cleared first
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     * @throws StateLimitExceededException if the search stores more than maxStates states
+     * @throws java.util.concurrent.CancellationException if the thread is interrupted
+     */
+    public static int[] searchGraph(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic, final double upperBound,
+                                    final SearchStats stats, final int maxStates, final DoubleConsumer lowerBounds,
+                                    final OpenList open) {
+        return searchGraph(matrix, startCity, heuristic, upperBound, stats, maxStates, lowerBounds, open,
+                new NodePool(matrix.size() * matrix.size()), new BestCostTable(matrix.size() * matrix.size()));
+    }
+
+    /**
+     * Performs A* graph search with the given open list, node pool and closed list, so that a caller running many
+     * searches, such as {@link TSPDaemon}, can keep their arrays from one search to the next instead of growing new
+     * ones each time. All three are cleared first.
+     */
+    static int[] searchGraph(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic, final double upperBound,
+                             final SearchStats stats, final int maxStates, final DoubleConsumer lowerBounds,
+                             final OpenList open, final NodePool nodes, final BestCostTable bestCosts) {
+        stats.start();
+        SearchEvents.start(GRAPH_SEARCH, matrix.size(), heuristic, upperBound);
+        final int[] path = graphSearch(matrix, startCity, heuristic, upperBound, stats, maxStates, lowerBounds, open,
+                nodes, bestCosts);
+        stats.finish();
+        SearchEvents.finish(GRAPH_SEARCH, matrix.size(), matrix.tourCost(path), stats);
+        return path;
+    }
+
+    private static int[] graphSearch(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic, final double upperBound,
+                                     final SearchStats stats, final int maxStates, final DoubleConsumer lowerBounds,
+                                     final OpenList open, final NodePool nodes, final BestCostTable bestCosts) {
+        if (matrix.size() == 1) {
+            return new int[]{startCity};
+        }
+        final long allCities = TSPUtils.allCities(matrix.size());
+        nodes.clear();
+        open.clear();
+        bestCosts.clear();
+        final long visited = 1L << startCity;
+        bestCosts.offer(visited, startCity, 0);
+        final double rootEstimate = heuristic.estimate(visited, startCity);
+        open.add(nodes.add(visited, startCity, 0, rootEstimate, NodePool.NONE), rootEstimate, 0);
+        while (!open.isEmpty()) {
+            stats.openSize(open.size());
+            checkInterrupted();
+            if (nodes.size() > maxStates || bestCosts.size() > maxStates) {
+                throw new StateLimitExceededException(maxStates);
+            }
+            long time = System.nanoTime();
+            final int expand = open.poll();
+            stats.queueTime(time);
+            final long expandVisited = nodes.visited(expand);
+            final int currentCity = nodes.city(expand);
+            final double costToCurrent = nodes.cost(expand);
+            //skip states that were reached more cheaply after this one was enqueued
+            if (costToCurrent > bestCosts.get(expandVisited, currentCity)) {
+                continue;
+            }
+            lowerBounds.accept(nodes.totalCost(expand));
+            //the goal is the only state that has returned to the start city
+            if (expandVisited == allCities && currentCity == startCity && nodes.parent(expand) != NodePool.NONE) {
+                return TSPUtils.orient(nodes.path(expand));
+            }
+            stats.expanded();
+            if (stats.getNumExpanded() % SearchEvents.SNAPSHOT_INTERVAL == 0) {
+                SearchEvents.frontier(GRAPH_SEARCH, open.size() + 1, stats, expandVisited, nodes.totalCost(expand));
+            }
+            heuristic.expanding(expandVisited, currentCity);
+            long successorCities = allCities & ~expandVisited;
+            if (successorCities == 0) {
+                successorCities = 1L << startCity;
+            }
+            for (; successorCities != 0; successorCities &= successorCities - 1) {
+                final int s = Long.numberOfTrailingZeros(successorCities);
+                stats.generated();
+                final long newVisited = expandVisited | (1L << s);
+                final double costToSuccessor = costToCurrent + matrix.distance(currentCity, s);
+                if (!bestCosts.offer(newVisited, s, costToSuccessor)) {
+                    stats.duplicate();
+                    continue;
+                }
+                time = System.nanoTime();
+                final double estimate = heuristic.estimate(newVisited, s);
+                stats.heuristicTime(time);
+                if (costToSuccessor + estimate > upperBound + UPPER_BOUND_TOLERANCE) {
+                    continue;
+                }
+                time = System.nanoTime();
+                open.add(nodes.add(newVisited, s, costToSuccessor, estimate, expand), costToSuccessor + estimate, costToSuccessor);
+                stats.queueTime(time);
+            }
+        }
+        throw new IllegalStateException("Exhausted all nodes with no solution found! How is this possible?");
+    }
+
+    /**
+     * Performs A* graph search with a frontier that spills to disk once it outgrows its memory budget, so that a search
+     * too large for the heap takes longer instead of failing. Generated states only live on the frontier; the states
+     * kept in memory are the expanded ones, which the path is rebuilt from, and the cheapest cost each was expanded at.
+     * A state taken off the frontier is skipped if it was already expanded at most as cheaply, and a successor is not
+     * generated if its state was. The search gives up when the thread running it is interrupted.
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @param heuristic Admissible estimate of the cost to complete a tour from a state
+     * @param upperBound Cost of a known tour; states whose cost plus heuristic exceeds it are never generated
+     * @param stats Filled in with the counters and timings of this search
+     * @param frontier Where generated states wait to be expanded; it should be empty, and is left holding the states
+     *                 not expanded
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     * @throws java.util.concurrent.CancellationException if the thread is interrupted
+     * @throws java.io.UncheckedIOException if the frontier cannot be spilled
+     */
+    public static int[] searchGraph(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic, final double upperBound,
+                                    final SearchStats stats, final ExternalFrontier frontier) {
+        stats.start();
+        SearchEvents.start(EXTERNAL_SEARCH, matrix.size(), heuristic, upperBound);
+        final int[] path = externalSearch(matrix, startCity, heuristic, upperBound, stats, frontier);
+        stats.finish();
+        SearchEvents.finish(EXTERNAL_SEARCH, matrix.size(), matrix.tourCost(path), stats);
+        return path;
+    }
+
+    private static int[] externalSearch(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic, final double upperBound,
+                                        final SearchStats stats, final ExternalFrontier frontier) {
+        if (matrix.size() == 1) {
+            return new int[]{startCity};
+        }
+        final long allCities = TSPUtils.allCities(matrix.size());
+        final NodePool expanded = new NodePool(matrix.size() * matrix.size());
+        final BestCostTable closed = new BestCostTable(matrix.size() * matrix.size());
+        final long visited = 1L << startCity;
+        frontier.add(visited, startCity, 0, heuristic.estimate(visited, startCity), NodePool.NONE);
+        while (!frontier.isEmpty()) {
+            stats.openSize((int) Math.min(Integer.MAX_VALUE, frontier.size()));
+            checkInterrupted();
+            long time = System.nanoTime();
+            frontier.poll();
+            stats.queueTime(time);
+            final long expandVisited = frontier.mask();
+            final int currentCity = frontier.city();
+            final double costToCurrent = frontier.cost();
+            //skip states that were expanded at most as cheaply after this one was generated
+            if (!closed.offer(expandVisited, currentCity, costToCurrent)) {
+                continue;
+            }
+            final int expand = expanded.add(expandVisited, currentCity, costToCurrent, frontier.estimate(), frontier.parent());
+            //the goal is the only state that has returned to the start city
+            if (expandVisited == allCities && currentCity == startCity && frontier.parent() != NodePool.NONE) {
+                return TSPUtils.orient(expanded.path(expand));
+            }
+            stats.expanded();
+            if (stats.getNumExpanded() % SearchEvents.SNAPSHOT_INTERVAL == 0) {
+                SearchEvents.frontier(EXTERNAL_SEARCH, (int) Math.min(Integer.MAX_VALUE, frontier.size() + 1), stats,
+                        expandVisited, expanded.totalCost(expand));
+            }
+            heuristic.expanding(expandVisited, currentCity);
+            long successorCities = allCities & ~expandVisited;
+            if (successorCities == 0) {
+                successorCities = 1L << startCity;
+            }
+            for (; successorCities != 0; successorCities &= successorCities - 1) {
+                final int s = Long.numberOfTrailingZeros(successorCities);
+                stats.generated();
+                final long newVisited = expandVisited | (1L << s);
+                final double costToSuccessor = costToCurrent + matrix.distance(currentCity, s);
+                if (costToSuccessor >= closed.get(newVisited, s)) {
+                    stats.duplicate();
+                    continue;
+                }
+                time = System.nanoTime();
+                final double estimate = heuristic.estimate(newVisited, s);
+                stats.heuristicTime(time);
+                if (costToSuccessor + estimate > upperBound + UPPER_BOUND_TOLERANCE) {
+                    continue;
+                }
+                time = System.nanoTime();
+                frontier.add(newVisited, s, costToSuccessor, estimate, expand);
+                stats.queueTime(time);
+            }
+        }
+        throw new IllegalStateException("Exhausted all nodes with no solution found! How is this possible?");
+    }
+
+    /**
+     * Performs partial expansion A* graph search with the MST heuristic, bounded by the local search tour
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     */
+    public static int[] searchPartial(final DistanceMatrix matrix, final int startCity) {
+        return searchPartial(matrix, startCity, new MSTHeuristic(matrix, startCity), upperBound(matrix, startCity), new SearchStats());
+    }
+
+    /**
+     * Performs partial expansion A* graph search, which only estimates and enqueues the successors a state needs
+     * for now. Expanding a state with stored f value F, the search bounds the f of each successor not yet generated
+     * from the edge that reaches it and {@link Heuristic#successorBound}, which costs far less than an estimate, and
+     * generates only those bounded by F. The state then goes back on the open list with the smallest bound of the rest
+     * as its f, and generates more of them when it comes off again. Successors whose f is above the cost of the
+     * optimal tour are never generated, so the heuristic is called and the open list grows far less than in
+     * {@link #searchGraph(DistanceMatrix, int, Heuristic, double, SearchStats)}, at the cost of taking some states off
+     * the open list more than once. Every time a state comes off the list counts as an expansion. The search gives up
+     * when the thread running it is interrupted.
+     * @param matrix Distances between all cities
+     * @param startCity id of the start city
+     * @param heuristic Admissible estimate of the cost to complete a tour from a state
+     * @param upperBound Cost of a known tour; states whose cost plus heuristic exceeds it are never enqueued
+     * @param stats Filled in with the counters and timings of this search
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     * @throws java.util.concurrent.CancellationException if the thread is interrupted
+     */
+    public static int[] searchPartial(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic, final double upperBound,
+                                      final SearchStats stats) {
+        stats.start();
+        SearchEvents.start(PARTIAL_SEARCH, matrix.size(), heuristic, upperBound);
+        final int[] path = partialSearch(matrix, startCity, heuristic, upperBound, stats);
+        stats.finish();
+        SearchEvents.finish(PARTIAL_SEARCH, matrix.size(), matrix.tourCost(path), stats);
+        return path;
+    }
+
+    private static int[] partialSearch(final DistanceMatrix matrix, final int startCity, final Heuristic heuristic, final double upperBound,
+                                       final SearchStats stats) {
+        if (matrix.size() == 1) {
+            return new int[]{startCity};
+        }
+        final long allCities = TSPUtils.allCities(matrix.size());
+        final NodePool nodes = new NodePool(matrix.size() * matrix.size());
+        final OpenList open = new HeapOpenList();
+        final BestCostTable bestCosts = new BestCostTable(matrix.size() * matrix.size());
+        //indexed by node handle: the f each state is queued with, and the successors it has generated so far
+        double[] keys = new double[matrix.size() * matrix.size()];
+        long[] generated = new long[keys.length];
+        final long visited = 1L << startCity;
+        bestCosts.offer(visited, startCity, 0);
+        final double rootEstimate = heuristic.estimate(visited, startCity);
+        final int root = nodes.add(visited, startCity, 0, rootEstimate, NodePool.NONE);
+        keys[root] = rootEstimate;
+        open.add(root, rootEstimate, 0);
+        while (!open.isEmpty()) {
+            stats.openSize(open.size());
+            checkInterrupted();
+            long time = System.nanoTime();
+            final int expand = open.poll();
+            stats.queueTime(time);
+            final long expandVisited = nodes.visited(expand);
+            final int currentCity = nodes.city(expand);
+            final double costToCurrent = nodes.cost(expand);
+            //skip states that were reached more cheaply after this one was enqueued; the cheaper one generates the same
+            //successors more cheaply
+            if (costToCurrent > bestCosts.get(expandVisited, currentCity)) {
+                continue;
+            }
+            if (expandVisited == allCities && currentCity == startCity && nodes.parent(expand) != NodePool.NONE) {
+                return TSPUtils.orient(nodes.path(expand));
+            }
+            final double key = keys[expand];
+            stats.expanded();
+            if (stats.getNumExpanded() % SearchEvents.SNAPSHOT_INTERVAL == 0) {
+                SearchEvents.frontier(PARTIAL_SEARCH, open.size() + 1, stats, expandVisited, key);
+            }
+            heuristic.expanding(expandVisited, currentCity);
+            final double expandTotal = nodes.totalCost(expand);
+            final double expandEstimate = expandTotal - costToCurrent;
+            long successorCities = allCities & ~expandVisited;
+            if (successorCities == 0) {
+                successorCities = 1L << startCity;
+            }
+            double nextKey = Double.POSITIVE_INFINITY;
+            for (successorCities &= ~generated[expand]; successorCities != 0; successorCities &= successorCities - 1) {
+                final int s = Long.numberOfTrailingZeros(successorCities);
+                final double costToSuccessor = costToCurrent + matrix.distance(currentCity, s);
+                //no successor can have a lower f than its parent, whose estimate is admissible
+                final double bound = Math.max(expandTotal,
+                        costToSuccessor + heuristic.successorBound(expandVisited, currentCity, expandEstimate, s));
+                if (bound > key + UPPER_BOUND_TOLERANCE) {
+                    nextKey = Math.min(nextKey, bound);
+                    continue;
+                }
+                generated[expand] |= 1L << s;
+                stats.generated();
+                final long newVisited = expandVisited | (1L << s);
+                if (!bestCosts.offer(newVisited, s, costToSuccessor)) {
+                    stats.duplicate();
+                    continue;
+                }
+                time = System.nanoTime();
+                final double estimate = heuristic.estimate(newVisited, s);
+                stats.heuristicTime(time);
+                if (costToSuccessor + estimate > upperBound + UPPER_BOUND_TOLERANCE) {
+                    continue;
+                }
+                time = System.nanoTime();
+                final int successor = nodes.add(newVisited, s, costToSuccessor, estimate, expand);
+                if (successor == keys.length) {
+                    keys = Arrays.copyOf(keys, keys.length * 2);
+                    generated = Arrays.copyOf(generated, keys.length);
+                }
+                keys[successor] = costToSuccessor + estimate;
+                open.add(successor, costToSuccessor + estimate, costToSuccessor);
+                stats.queueTime(time);
+            }
+            //put the state back for the successors it has yet to generate, unless none of them can beat the known tour
+            if (nextKey <= upperBound + UPPER_BOUND_TOLERANCE) {
+                keys[expand] = nextKey;
+                open.add(expand, nextKey, costToCurrent);
+            }
+        }
+        throw new IllegalStateException("Exhausted all nodes with no solution found! How is this possible?");
+    }
+
+    /**
+     * Lets a search be abandoned from another thread, such as when it runs out of time
+     */
+    private static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Search interrupted");
+        }
+    }
+
+    /**
+     * @return Cost of a tour found by the local search, used to keep hopeless states off the queue
+     */
+    private static double upperBound(final DistanceMatrix matrix, final int startCity) {
+        return matrix.tourCost(TSPNearestNeighbour.solve(matrix, startCity));
+    }
+
+    /**
+     * State of the parallel A* search, which hands states between threads and so keeps them as objects rather than
+     * in a node pool. The path is not stored; it is rebuilt from the parent pointers once the goal is reached.
+     */
+    static final class Node {
+        final long visited;
+        final int currentCity;
+        final double costToCurrent;
+        final double heuristic;
+        final Node parent;
+
+        Node(final long visited, final int currentCity, final double costToCurrent, final double heuristic, final Node parent) {
+            this.visited = visited;
             this.currentCity = currentCity;
-            this.path = path;
             this.costToCurrent = costToCurrent;
             this.heuristic = heuristic;
+            this.parent = parent;
         }
 
-        public Double totalCost() {
+        double totalCost() {
             return costToCurrent + heuristic;
         }
+
+        /**
+         * @return ids of the cities from the start city to this node
+         */
+        int[] path() {
+            int length = 0;
+            for (Node node = this; node != null; node = node.parent) {
+                length++;
+            }
+            final int[] path = new int[length];
+            for (Node node = this; node != null; node = node.parent) {
+                path[--length] = node.currentCity;
+            }
+            return path;
+        }
     }
 }
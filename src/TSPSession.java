@@ -0,0 +1,422 @@
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A tour of an instance that changes a little at a time. The session keeps the current tour, the distances between
+ * the cities and their candidate neighbours, and updates them for every city added, removed or moved, so a change
+ * costs a row of distances and a few candidate lists instead of rebuilding everything. The tour is repaired at once:
+ * a new or moved city is inserted where it adds the least to the tour, among the edges around its nearest neighbours,
+ * and a removed city's neighbours are joined.
+ * {@link #optimize(long)} then improves the repaired tour rather than starting over: Lin-Kernighan runs from it, and
+ * instances of up to 64 cities are solved exactly with A* graph search pruned by its cost. The 1-tree heuristic needs
+ * a {@link DistanceMatrix} of its own, which for that few cities takes microseconds to build.
+ * Cities are identified by name. Internally they have dense ids, and removing a city gives its id to the city with
+ * the highest one. Sessions are not thread safe.
+ */
+public class TSPSession {
+    /**
+     * Number of candidate neighbours of every city
+     */
+    public static final int NUM_NEIGHBOURS = TSPLinKernighan.NUM_NEIGHBOURS;
+    /**
+     * Share of the time given to Lin-Kernighan before an exact search starts, and the most time it gets
+     */
+    private static final double LOCAL_SEARCH_SHARE = 0.1;
+    private static final long LOCAL_SEARCH_MILLIS = 10;
+
+    private final Matrix matrix = new Matrix();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] names = new String[16];
+    private int[] x = new int[16];
+    private int[] y = new int[16];
+    private int[][] candidates = new int[16][];
+    private int n;
+    private final String startCity;
+    //ids of the cities in visiting order; the return to the first is implied
+    private int[] order;
+    private boolean optimal;
+    private double lowerBound = Double.NaN;
+
+    /**
+     * Start a session with a tour from {@link TSPNearestNeighbour}
+     * @param cities Map from city name to coordinates
+     * @param startCity Name of the start city, which cannot be removed
+     */
+    public TSPSession(final Map<String, Position> cities, final String startCity) {
+        if (!cities.containsKey(startCity)) {
+            throw new IllegalArgumentException("Unknown start city " + startCity);
+        }
+        this.startCity = startCity;
+        final String[] sorted = cities.keySet().toArray(new String[0]);
+        Arrays.sort(sorted);
+        for (final String name : sorted) {
+            append(name, cities.get(name));
+        }
+        for (int city = 0; city < n; city++) {
+            candidates[city] = nearest(city);
+        }
+        order = TSPNearestNeighbour.nearestNeighbourOrder(matrix, ids.get(startCity));
+        TSPNearestNeighbour.improve(matrix, order, candidates);
+    }
+
+    /**
+     * Add a city and insert it into the tour where it adds the least
+     * @param name Name of the new city
+     * @param position Coordinates of the new city
+     * @throws IllegalArgumentException if there is already a city of that name
+     */
+    public void addCity(final String name, final Position position) {
+        if (ids.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate city " + name);
+        }
+        final int city = append(name, position);
+        candidates[city] = nearest(city);
+        for (int other = 0; other < city; other++) {
+            offer(other, city);
+        }
+        order = insert(order, city);
+        changed();
+    }
+
+    /**
+     * Remove a city, joining its two neighbours on the tour
+     * @param name Name of the city
+     * @throws IllegalArgumentException if there is no such city, or it is the start city
+     */
+    public void removeCity(final String name) {
+        if (name.equals(startCity)) {
+            throw new IllegalArgumentException("Cannot remove the start city " + name);
+        }
+        final int city = id(name);
+        order = remove(order, city);
+        final int last = n - 1;
+        //the last city takes over the id of the removed one
+        ids.remove(name);
+        if (city != last) {
+            names[city] = names[last];
+            x[city] = x[last];
+            y[city] = y[last];
+            candidates[city] = candidates[last];
+            ids.put(names[city], city);
+            matrix.move(last, city);
+            for (int i = 0; i < order.length; i++) {
+                if (order[i] == last) {
+                    order[i] = city;
+                }
+            }
+        }
+        names[last] = null;
+        candidates[last] = null;
+        n--;
+        for (int other = 0; other < n; other++) {
+            final int[] list = candidates[other];
+            for (int i = 0; i < list.length; i++) {
+                if (list[i] == city) {
+                    //a city further away moves into the list
+                    candidates[other] = nearest(other);
+                    break;
+                }
+                if (list[i] == last) {
+                    list[i] = city;
+                }
+            }
+        }
+        changed();
+    }
+
+    /**
+     * Move a city and reinsert it into the tour where it adds the least
+     * @param name Name of the city
+     * @param position New coordinates of the city
+     * @throws IllegalArgumentException if there is no such city
+     */
+    public void moveCity(final String name, final Position position) {
+        final int city = id(name);
+        x[city] = position.x;
+        y[city] = position.y;
+        matrix.update(city);
+        candidates[city] = nearest(city);
+        for (int other = 0; other < n; other++) {
+            if (other == city) {
+                continue;
+            }
+            boolean listed = false;
+            for (final int neighbour : candidates[other]) {
+                listed |= neighbour == city;
+            }
+            if (listed) {
+                //it may have moved out of the list
+                candidates[other] = nearest(other);
+            } else {
+                offer(other, city);
+            }
+        }
+        order = insert(remove(order, city), city);
+        changed();
+    }
+
+    /**
+     * Improve the current tour for at most the given time. Lin-Kernighan starts from the current tour; on up to 64
+     * cities it gets a small share of the time, and an exact search pruned by the cost of its tour gets the rest.
+     * @param budgetMillis Time after which the best tour found is kept
+     * @return Names of the cities of the tour, starting and ending at the start city
+     */
+    public List<String> optimize(final long budgetMillis) {
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        if (optimal || n == 1) {
+            optimal = true;
+            return tour();
+        }
+        final boolean exact = n <= Long.SIZE;
+        final long localSearchDeadline = exact
+                ? start + Math.min((long) ((deadline - start) * LOCAL_SEARCH_SHARE), TimeUnit.MILLISECONDS.toNanos(LOCAL_SEARCH_MILLIS))
+                : deadline;
+        final int startId = ids.get(startCity);
+        final int[] localOptimum = new TSPLinKernighan(0).solve(matrix, candidates, order, startId, localSearchDeadline);
+        order = Arrays.copyOf(localOptimum, n);
+        if (exact && !Thread.currentThread().isInterrupted()) {
+            final DistanceMatrix exactMatrix = new DistanceMatrix(Arrays.copyOf(names, n), Arrays.copyOf(x, n), Arrays.copyOf(y, n));
+            try {
+                final int[] tour = TSPSearch.searchGraph(exactMatrix, startId, new OneTreeHeuristic(exactMatrix, startId),
+                        matrix.tourCost(localOptimum), new SearchStats(), Integer.MAX_VALUE, f -> {
+                            if (System.nanoTime() >= deadline) {
+                                throw new CancellationException("Out of time");
+                            }
+                        });
+                order = Arrays.copyOf(tour, n);
+                optimal = true;
+            } catch (CancellationException e) {
+                //out of time or interrupted; the local search tour stands
+            }
+        }
+        return tour();
+    }
+
+    /**
+     * @return Names of the cities of the current tour, starting and ending at the start city
+     */
+    public List<String> tour() {
+        final int[] tour = n == 1 ? new int[]{0} : TSPUtils.orient(TSPNearestNeighbour.closeTour(order, ids.get(startCity)));
+        final List<String> path = new ArrayList<>(tour.length);
+        for (final int city : tour) {
+            path.add(names[city]);
+        }
+        return path;
+    }
+
+    /**
+     * @return Cost of the current tour
+     */
+    public double cost() {
+        return n == 1 ? 0 : matrix.tourCost(order) + matrix.distance(order[n - 1], order[0]);
+    }
+
+    /**
+     * Lower bound on the cost of any tour of the current cities: the cost of the tour once it is known to be optimal,
+     * and otherwise the Held-Karp bound of {@link HeldKarpBound}, which is computed when first asked for and kept
+     * until the cities change
+     * @return Lower bound on the optimal cost
+     */
+    public double lowerBound() {
+        if (optimal) {
+            return cost();
+        }
+        if (Double.isNaN(lowerBound)) {
+            lowerBound = HeldKarpBound.lowerBound(new Cities(Arrays.copyOf(names, n), Arrays.copyOf(x, n), Arrays.copyOf(y, n)),
+                    Arrays.copyOf(candidates, n), cost());
+        }
+        return lowerBound;
+    }
+
+    /**
+     * @return true if the current tour is known to be optimal
+     */
+    public boolean isOptimal() {
+        return optimal;
+    }
+
+    /**
+     * @return Number of cities
+     */
+    public int size() {
+        return n;
+    }
+
+    private int id(final String name) {
+        final Integer id = ids.get(name);
+        if (id == null) {
+            throw new IllegalArgumentException("Unknown city " + name);
+        }
+        return id;
+    }
+
+    /**
+     * Give a new city the next id and its row of distances
+     * @return id of the city
+     */
+    private int append(final String name, final Position position) {
+        if (n == names.length) {
+            names = Arrays.copyOf(names, n * 2);
+            x = Arrays.copyOf(x, n * 2);
+            y = Arrays.copyOf(y, n * 2);
+            candidates = Arrays.copyOf(candidates, n * 2);
+        }
+        final int city = n++;
+        names[city] = name;
+        x[city] = position.x;
+        y[city] = position.y;
+        ids.put(name, city);
+        matrix.update(city);
+        return city;
+    }
+
+    /**
+     * The tour and the cities changed, so whatever was known about the optimum no longer holds
+     */
+    private void changed() {
+        optimal = false;
+        lowerBound = Double.NaN;
+    }
+
+    /**
+     * @return The nearest other cities of a city, nearest first, found by looking at every city
+     */
+    private int[] nearest(final int city) {
+        final int[] list = new int[Math.min(NUM_NEIGHBOURS, n - 1)];
+        int size = 0;
+        for (int other = 0; other < n; other++) {
+            if (other == city) {
+                continue;
+            }
+            final double distance = matrix.distance(city, other);
+            if (size == list.length && distance >= matrix.distance(city, list[size - 1])) {
+                continue;
+            }
+            int i = size == list.length ? size - 1 : size++;
+            while (i > 0 && matrix.distance(city, list[i - 1]) > distance) {
+                list[i] = list[i - 1];
+                i--;
+            }
+            list[i] = other;
+        }
+        return list;
+    }
+
+    /**
+     * Put a city into the candidate list of another if it is among its nearest
+     */
+    private void offer(final int city, final int other) {
+        int[] list = candidates[city];
+        final double distance = matrix.distance(city, other);
+        int i;
+        if (list.length < Math.min(NUM_NEIGHBOURS, n - 1)) {
+            list = Arrays.copyOf(list, list.length + 1);
+            candidates[city] = list;
+            i = list.length - 1;
+        } else if (list.length > 0 && distance < matrix.distance(city, list[list.length - 1])) {
+            i = list.length - 1;
+        } else {
+            return;
+        }
+        while (i > 0 && matrix.distance(city, list[i - 1]) > distance) {
+            list[i] = list[i - 1];
+            i--;
+        }
+        list[i] = other;
+    }
+
+    /**
+     * @return The tour with the city inserted between the two consecutive cities where it adds the least, looking at
+     * the edges next to its candidate neighbours
+     */
+    private int[] insert(final int[] order, final int city) {
+        final int size = order.length;
+        final int[] position = new int[n];
+        for (int i = 0; i < size; i++) {
+            position[order[i]] = i;
+        }
+        //insert after this position
+        int best = size - 1;
+        double bestIncrease = Double.POSITIVE_INFINITY;
+        for (final int neighbour : candidates[city]) {
+            final int i = position[neighbour];
+            for (final int after : new int[]{i, (i + size - 1) % size}) {
+                final int a = order[after];
+                final int b = order[(after + 1) % size];
+                final double increase = matrix.distance(a, city) + matrix.distance(city, b) - matrix.distance(a, b);
+                if (increase < bestIncrease) {
+                    bestIncrease = increase;
+                    best = after;
+                }
+            }
+        }
+        final int[] inserted = new int[size + 1];
+        System.arraycopy(order, 0, inserted, 0, best + 1);
+        inserted[best + 1] = city;
+        System.arraycopy(order, best + 1, inserted, best + 2, size - best - 1);
+        return inserted;
+    }
+
+    /**
+     * @return The tour without the city
+     */
+    private static int[] remove(final int[] order, final int city) {
+        final int[] removed = new int[order.length - 1];
+        for (int i = 0, j = 0; i < order.length; i++) {
+            if (order[i] != city) {
+                removed[j++] = order[i];
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Distances between the cities of the session, one array per row, growing by half as cities are added, so that
+     * adding or moving a city only computes its own row and no single array has to hold the whole matrix
+     */
+    private final class Matrix implements Distances {
+        private double[][] rows = new double[16][16];
+
+        @Override
+        public int size() {
+            return n;
+        }
+
+        @Override
+        public double distance(final int from, final int to) {
+            return rows[from][to];
+        }
+
+        /**
+         * Compute the row and column of a city from its coordinates
+         */
+        void update(final int city) {
+            if (city >= rows.length) {
+                final int capacity = Math.max(city + 1, rows.length + rows.length / 2);
+                final int old = rows.length;
+                rows = Arrays.copyOf(rows, capacity);
+                for (int i = 0; i < capacity; i++) {
+                    rows[i] = i < old ? Arrays.copyOf(rows[i], capacity) : new double[capacity];
+                }
+            }
+            final double[] row = rows[city];
+            TSPUtils.distances(x[city], y[city], x, y, 0, n, row, 0);
+            for (int other = 0; other < n; other++) {
+                rows[other][city] = row[other];
+            }
+        }
+
+        /**
+         * Copy the row and column of one city to another id
+         */
+        void move(final int from, final int to) {
+            System.arraycopy(rows[from], 0, rows[to], 0, n);
+            for (int other = 0; other < n; other++) {
+                rows[other][to] = rows[other][from];
+            }
+            rows[to][to] = 0;
+        }
+    }
+}
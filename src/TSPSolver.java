@@ -0,0 +1,15 @@
+/**
+ * A way of finding a tour through a set of cities, so that callers can switch between exact and approximate solvers.
+ * Implementations include {@link TSPSearch#searchGraph(Cities, int)} (exact, up to 64 cities),
+ * {@link TSPNearestNeighbour#solve(Cities, int)} (local search) and {@link TSPLinKernighan} (time bounded).
+ */
+@FunctionalInterface
+public interface TSPSolver {
+
+    /**
+     * @param cities Coordinates of the cities; city ids are their indices
+     * @param startCity id of the start city
+     * @return ids of the cities in the order the salesman should visit them, starting and ending at the start city
+     */
+    int[] solve(Cities cities, int startCity);
+}
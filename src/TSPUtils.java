@@ -1,7 +1,3 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -12,22 +8,13 @@ public class TSPUtils {
 
     /**
      * Read an input file from disk and returns a Map from city name to their coordinate
-     * @param dataFile location of the input file on disk
+     * @param dataFile location of the input file on disk, in the course format or TSPLIB
      * @return Map from city name to their coordinate
+     * @throws java.io.UncheckedIOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is malformed
      */
     public static Map<String, Position> readCities(final String dataFile) {
-        final Map<String, Position> cities = new HashMap<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(dataFile))) {
-            final int numCities = Integer.valueOf(br.readLine());
-            for (int i = 0; i < numCities; i++) {
-                final String line = br.readLine();
-                final String[] tokens = line.split("\\s");
-                cities.put(tokens[0], new Position(Integer.valueOf(tokens[1]), Integer.valueOf(tokens[2])));
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return cities;
+        return CityParser.parse(dataFile).toMap();
     }
 
     /**
@@ -52,6 +39,27 @@ public class TSPUtils {
         return closest;
     }
 
+    /**
+     * Find the nearest city to a user specified city from a search set
+     * @param matrix Distances between cities
+     * @param searchSet Bitmask of city ids that we'll look through
+     * @param currentCity User specified city
+     * @return id of the city in the search set that is closest to current city, or -1 if there is none
+     */
+    public static int findNearest(final DistanceMatrix matrix, final long searchSet, final int currentCity) {
+        int closest = -1;
+        double closestDist = Double.POSITIVE_INFINITY;
+        for (long remaining = searchSet & ~(1L << currentCity); remaining != 0; remaining &= remaining - 1) {
+            final int city = Long.numberOfTrailingZeros(remaining);
+            final double distance = matrix.distance(currentCity, city);
+            if (distance < closestDist) {
+                closest = city;
+                closestDist = distance;
+            }
+        }
+        return closest;
+    }
+
     /**
      * Calculate euclidean distance between 2 coordinates
      * @param p1 First coordinates
@@ -62,6 +70,97 @@ public class TSPUtils {
         if (p1 == null || p2 == null) {
             throw new IllegalStateException("NPE");
         }
-        return Math.sqrt(Math.pow(Math.abs(p1.x - p2.x), 2) + Math.pow(Math.abs(p1.y - p2.y), 2));
+        return distance(p1.x, p1.y, p2.x, p2.y);
+    }
+
+    /**
+     * Calculate euclidean distance between 2 coordinates
+     * @return euclidean distance between coordinate (x1, y1) and (x2, y2)
+     */
+    public static double distance(final int x1, final int y1, final int x2, final int y2) {
+        //widen before subtracting so that large coordinates don't overflow
+        final double dx = (double) x1 - x2;
+        final double dy = (double) y1 - y2;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Euclidean distance rounded to the nearest integer, as TSPLIB defines EUC_2D
+     * @return Rounded euclidean distance between coordinate (x1, y1) and (x2, y2)
+     */
+    public static double roundedDistance(final int x1, final int y1, final int x2, final int y2) {
+        return Math.floor(distance(x1, y1, x2, y2) + 0.5);
+    }
+
+    /**
+     * Euclidean distances from one point to a range of cities, each the same as {@link #distance(int, int, int, int)}
+     * gives. The loop has no branches or calls other than the square root, so the JIT compiles it to SIMD
+     * instructions that handle several cities at once.
+     * @param fromX x coordinate of the point
+     * @param fromY y coordinate of the point
+     * @param x x coordinates of the cities
+     * @param y y coordinates of the cities
+     * @param start First city of the range
+     * @param end One past the last city of the range
+     * @param row Where the distances go
+     * @param offset Index in row of the distance to the first city
+     */
+    public static void distances(final int fromX, final int fromY, final int[] x, final int[] y, final int start, final int end,
+                                 final double[] row, final int offset) {
+        final double px = fromX;
+        final double py = fromY;
+        final int shift = offset - start;
+        for (int i = start; i < end; i++) {
+            final double dx = px - x[i];
+            final double dy = py - y[i];
+            row[i + shift] = Math.sqrt(dx * dx + dy * dy);
+        }
+    }
+
+    /**
+     * Rounded euclidean distances from one point to a range of cities, each the same as
+     * {@link #roundedDistance(int, int, int, int)} gives; see {@link #distances(int, int, int[], int[], int, int, double[], int)}
+     */
+    public static void roundedDistances(final int fromX, final int fromY, final int[] x, final int[] y, final int start, final int end,
+                                        final double[] row, final int offset) {
+        final double px = fromX;
+        final double py = fromY;
+        final int shift = offset - start;
+        for (int i = start; i < end; i++) {
+            final double dx = px - x[i];
+            final double dy = py - y[i];
+            row[i + shift] = Math.floor(Math.sqrt(dx * dx + dy * dy) + 0.5);
+        }
+    }
+
+    /**
+     * Put a closed tour into its canonical direction, in which the city after the start city has a lower id than the
+     * city before the return to it. A tour and its reverse cost the same, so this makes solvers that find the same
+     * tour report the same path.
+     * @param tour ids of the cities of a closed tour, starting and ending at the start city; reversed in place if needed
+     * @return The tour
+     */
+    public static int[] orient(final int[] tour) {
+        if (tour.length > 3 && tour[1] > tour[tour.length - 2]) {
+            for (int i = 1, j = tour.length - 2; i < j; i++, j--) {
+                final int city = tour[i];
+                tour[i] = tour[j];
+                tour[j] = city;
+            }
+        }
+        return tour;
+    }
+
+    /**
+     * Bitmask with the bits of every city id of an instance set. Searches that track visited cities in a long
+     * are therefore limited to 64 cities.
+     * @param numCities Number of cities
+     * @return Bitmask containing city ids 0 to numCities - 1
+     */
+    public static long allCities(final int numCities) {
+        if (numCities > Long.SIZE) {
+            throw new IllegalArgumentException("Cannot track more than " + Long.SIZE + " cities in a bitmask, got " + numCities);
+        }
+        return numCities == Long.SIZE ? -1L : (1L << numCities) - 1;
     }
 }
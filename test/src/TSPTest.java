@@ -2,10 +2,32 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.URL;
+import java.net.UnixDomainSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 public class TSPTest {
 
@@ -16,6 +38,64 @@ public class TSPTest {
         Assert.assertTrue(TSP.distance(p1, p2) == 5.0);
     }
 
+    @Test
+    public void testDistanceMatrix() {
+        final Map<String, Position> cities = new HashMap<>();
+        cities.put("B", new Position(3, 4));
+        cities.put("A", new Position(0, 0));
+        cities.put("C", new Position(0, 4));
+        final DistanceMatrix matrix = new DistanceMatrix(cities);
+        Assert.assertEquals(0, matrix.id("A"));
+        Assert.assertEquals("C", matrix.name(2));
+        Assert.assertTrue(matrix.distance(matrix.id("A"), matrix.id("B")) == 5.0);
+        Assert.assertTrue(matrix.distance(matrix.id("C"), matrix.id("B")) == 3.0);
+        Assert.assertTrue(matrix.tourCost(new int[]{0, 1, 2, 0}) == 12.0);
+        Assert.assertEquals(Arrays.asList("A", "C", "B", "A"), matrix.toNames(new int[]{0, 2, 1, 0}));
+    }
+
+    @Test
+    public void testDistanceKernels() {
+        final Random random = new Random(486);
+        final int n = 37;
+        final int[] x = random.ints(n, -1000000, 1000000).toArray();
+        final int[] y = random.ints(n, -1000000, 1000000).toArray();
+        x[0] = Integer.MAX_VALUE;
+        y[0] = Integer.MIN_VALUE;
+        final double[] row = new double[n + 3];
+        for (final Metric metric : Metric.values()) {
+            for (int from = 0; from < n; from++) {
+                //a range in the middle, written at an offset
+                metric.distances(x[from], y[from], x, y, 5, n, row, 3);
+                for (int i = 5; i < n; i++) {
+                    Assert.assertEquals(metric.distance(x[from], y[from], x[i], y[i]), row[i - 2], 0);
+                }
+            }
+        }
+        //TSPLIB rounds to the nearest integer
+        Assert.assertEquals(1.0, TSPUtils.roundedDistance(0, 0, 1, 1), 0);
+        Assert.assertEquals(2.0, TSPUtils.roundedDistance(0, 0, 1, 2), 0);
+        final String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = "city" + i;
+        }
+        final Cities cities = new Cities(names, x, y).withMetric(Metric.EUC_2D);
+        final DistanceMatrix matrix = DistanceMatrix.fromCities(cities);
+        for (int i = 0; i < n; i++) {
+            cities.distances(i, row);
+            for (int j = 0; j < n; j++) {
+                Assert.assertEquals(cities.distance(i, j), row[j], 0);
+                Assert.assertEquals(Math.rint(matrix.distance(i, j)), matrix.distance(i, j), 0);
+            }
+        }
+        //with whole distances, the cost of a tour is exact whichever way round it is added up
+        final int[] tour = TSPNearestNeighbour.solve(matrix, 0);
+        final int[] reversed = tour.clone();
+        for (int i = 0; i < reversed.length; i++) {
+            reversed[i] = tour[tour.length - 1 - i];
+        }
+        Assert.assertTrue(matrix.tourCost(tour) == matrix.tourCost(reversed));
+    }
+
     @Test
     public void testFindNearest() {
         final Map<String, Position> cities = new HashMap<>();
@@ -80,6 +160,812 @@ public class TSPTest {
         }
     }
 
+    @Test
+    public void testCityParser() throws IOException {
+        final URL testData = this.getClass().getClassLoader().getResource("randTSP/problem36");
+        if (testData != null) {
+            final Cities cities = CityParser.parse(testData.getPath());
+            Assert.assertEquals(36, cities.size());
+            Assert.assertEquals("A", cities.name(0));
+            Assert.assertEquals(13, cities.x[0]);
+            Assert.assertEquals(2, cities.y[0]);
+        }
+        final Path tsplib = Files.createTempFile("cities", ".tsp");
+        final Path malformed = Files.createTempFile("cities", ".txt");
+        try {
+            Files.write(tsplib, Arrays.asList("NAME : three", "TYPE : TSP", "DIMENSION : 3", "EDGE_WEIGHT_TYPE : EUC_2D",
+                    "NODE_COORD_SECTION", "2 3.0e+01 -4", "1 0 0", "3 7.000 40", "EOF"));
+            final Cities cities = CityParser.parse(tsplib.toString());
+            Assert.assertArrayEquals(new int[]{0, 30, 7}, cities.x);
+            Assert.assertArrayEquals(new int[]{0, -4, 40}, cities.y);
+            Assert.assertEquals("2", cities.name(1));
+            Assert.assertEquals(Metric.EUC_2D, cities.metric());
+            //EUC_2D rounds sqrt(49 + 1600) = 40.6 to the nearest integer
+            Assert.assertEquals(41, DistanceMatrix.fromFile(tsplib.toString()).distance(0, 2), 0);
+            for (final String contents : new String[]{"", "3\nA 1 2\nB 3 4\n", "2\nA 1 2\nB 3 x\n", "1\nA 1 2.5\n",
+                    "2\nA 1 2\nA 3 4\n", "DIMENSION : 2\nEDGE_WEIGHT_TYPE : GEO\nNODE_COORD_SECTION\n1 0 0\n2 1 1\n",
+                    "DIMENSION : 2\nEDGE_WEIGHT_TYPE : EUC_2D\nNODE_COORD_SECTION\n1 0 0\n1 1 1\n"}) {
+                Files.write(malformed, contents.getBytes(StandardCharsets.UTF_8));
+                try {
+                    TSPUtils.readCities(malformed.toString());
+                    Assert.fail("Parsed malformed input " + contents);
+                } catch (IllegalArgumentException expected) {
+                    Assert.assertTrue(expected.getMessage().startsWith(malformed.toString()));
+                }
+            }
+        } finally {
+            Files.delete(tsplib);
+            Files.delete(malformed);
+        }
+    }
+
+    @Test
+    public void testBatch() throws IOException, InterruptedException {
+        final URL testData = this.getClass().getClassLoader().getResource("randTSP/problem36");
+        if (testData != null) {
+            final Path manifest = Files.createTempFile("instances", ".txt");
+            try {
+                final Path directory = Paths.get(testData.getPath()).getParent();
+                Files.write(manifest, Arrays.asList("# small instances are solved exactly", directory.resolve("8/instance_1.txt").toString(),
+                        directory.resolve("problem36").toString(), directory.resolve("missing.txt").toString()));
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                new TSPBatch(2, 500).run(TSPBatch.instances(manifest), new PrintStream(out, true, "UTF-8"));
+                final List<String> lines = Arrays.asList(out.toString("UTF-8").split("\n"));
+                Assert.assertEquals(3, lines.size());
+                final DistanceMatrix matrix = DistanceMatrix.fromFile(directory.resolve("8/instance_1.txt").toString());
+                final String small = lines.stream().filter(l -> l.contains("instance_1.txt")).findFirst().get();
+                Assert.assertTrue(small.contains("\"status\":\"ok\"") && small.contains("\"exact\":true"));
+                Assert.assertTrue(small.contains("\"cost\":" + matrix.tourCost(TSPSearch.searchGraph(matrix, 0))));
+                //problem36 takes seconds, so it falls back to the local search tour
+                final String large = lines.stream().filter(l -> l.contains("problem36")).findFirst().get();
+                Assert.assertTrue(large.contains("\"status\":\"timeout\"") && large.contains("\"exact\":false"));
+                final String missing = lines.stream().filter(l -> l.contains("missing.txt")).findFirst().get();
+                Assert.assertTrue(missing.contains("\"status\":\"error\""));
+            } finally {
+                Files.delete(manifest);
+            }
+        }
+    }
+
+    @Test
+    public void testSpatialIndex() {
+        final Random random = new Random(486);
+        final int n = 500;
+        final int[] x = new int[n];
+        final int[] y = new int[n];
+        for (int i = 0; i < n; i++) {
+            //a small grid, so that there are plenty of ties
+            x[i] = random.nextInt(60);
+            y[i] = random.nextInt(60);
+        }
+        final Cities cities = new Cities(null, x, y);
+        final SpatialIndex index = new SpatialIndex(cities);
+        final int[] labels = new int[n];
+        for (int i = 0; i < n; i++) {
+            labels[i] = random.nextInt(3);
+            index.setLabel(i, labels[i]);
+        }
+        for (int city = 0; city < n; city++) {
+            final int from = city;
+            final List<Integer> others = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                if (i != city) {
+                    others.add(i);
+                }
+            }
+            others.sort(Comparator.comparingDouble((Integer i) -> cities.distance(from, i)).thenComparing(i -> i));
+            final int[] expected = new int[8];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = others.get(i);
+            }
+            Assert.assertArrayEquals(expected, index.kNearest(city, 8));
+            final int excluded = city % 3;
+            Assert.assertEquals((int) others.stream().filter(i -> labels[i] != excluded).findFirst().get(), index.nearest(city, excluded));
+        }
+        //compare with Prim's algorithm
+        final int[] parent = SpanningTree.euclidean(cities);
+        final double[] distanceToTree = new double[n];
+        final boolean[] inTree = new boolean[n];
+        Arrays.fill(distanceToTree, Double.POSITIVE_INFINITY);
+        distanceToTree[0] = 0;
+        double primCost = 0;
+        for (int added = 0; added < n; added++) {
+            int next = -1;
+            for (int i = 0; i < n; i++) {
+                if (!inTree[i] && (next == -1 || distanceToTree[i] < distanceToTree[next])) {
+                    next = i;
+                }
+            }
+            inTree[next] = true;
+            primCost += distanceToTree[next];
+            for (int i = 0; i < n; i++) {
+                distanceToTree[i] = Math.min(distanceToTree[i], cities.distance(next, i));
+            }
+        }
+        Assert.assertEquals(primCost, SpanningTree.cost(cities, parent), 1e-9);
+        Assert.assertEquals(1, Arrays.stream(parent).filter(p -> p == -1).count());
+        //the local search finds the same tour from the index as from the distance matrix
+        final URL testData = this.getClass().getClassLoader().getResource("randTSP/problem36");
+        if (testData != null) {
+            final Cities problem = CityParser.parse(testData.getPath()).sortedByName();
+            Assert.assertArrayEquals(TSPNearestNeighbour.solve(DistanceMatrix.fromCities(problem), 0), TSPNearestNeighbour.solve(problem, 0));
+        }
+    }
+
+    @Test
+    public void testLinKernighan() {
+        final TSPSolver exact = TSPSearch::searchGraph;
+        for (int i = 1; i <= 16; i++) {
+            final URL testData = this.getClass().getClassLoader().getResource("randTSP/" + i + "/instance_1.txt");
+            if (testData != null) {
+                final Cities cities = CityParser.parse(testData.getPath()).sortedByName();
+                final int[] optimalTour = exact.solve(cities, 0);
+                final double optimalCost = cities.tourCost(optimalTour);
+                final TSPLinKernighan linKernighan = new TSPLinKernighan(100);
+                final int[] tour = linKernighan.solve(cities, 0);
+                Assert.assertEquals(optimalTour.length, tour.length);
+                Assert.assertEquals(cities.size(), Arrays.stream(tour).distinct().count());
+                Assert.assertEquals(cities.tourCost(tour), linKernighan.getCost(), 1e-6);
+                //small enough for the kicks to find the optimal tour
+                Assert.assertEquals(optimalCost, cities.tourCost(tour), 1e-6);
+                Assert.assertTrue(linKernighan.lowerBound() <= optimalCost + 1e-6);
+            }
+        }
+        final Random random = new Random(486);
+        final int n = 2000;
+        final int[] x = new int[n];
+        final int[] y = new int[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = random.nextInt(100000);
+            y[i] = random.nextInt(100000);
+        }
+        final Cities cities = new Cities(null, x, y);
+        final TSPLinKernighan linKernighan = new TSPLinKernighan(500);
+        final int[] tour = linKernighan.solve(cities, 0);
+        Assert.assertEquals(n + 1, tour.length);
+        Assert.assertEquals(n, Arrays.stream(tour).distinct().count());
+        Assert.assertEquals(0, tour[0]);
+        Assert.assertEquals(0, tour[n]);
+        Assert.assertTrue(cities.tourCost(tour) <= cities.tourCost(TSPNearestNeighbour.solve(cities, 0)) + 1e-6);
+        Assert.assertTrue(linKernighan.lowerBound() <= cities.tourCost(tour) + 1e-6);
+        //without a budget the nearest neighbour tour comes back as it is
+        final TSPLinKernighan noBudget = new TSPLinKernighan(0);
+        final int[] nearestNeighbourTour = noBudget.solve(cities, 0);
+        Assert.assertEquals(n, Arrays.stream(nearestNeighbourTour).distinct().count());
+        Assert.assertTrue(noBudget.lowerBound() <= cities.tourCost(nearestNeighbourTour) + 1e-6);
+        //a deadline that has passed leaves the tour as it was
+        final SpatialIndex index = new SpatialIndex(cities);
+        final int[] order = TSPNearestNeighbour.nearestNeighbourOrder(index, 0);
+        final int[] unimproved = order.clone();
+        TSPNearestNeighbour.improve(cities, order, index.candidateLists(TSPLinKernighan.NUM_NEIGHBOURS), System.nanoTime());
+        Assert.assertArrayEquals(unimproved, order);
+    }
+
+    @Test
+    public void testDivideAndConquer() {
+        final Random random = new Random(486);
+        final int n = 2000;
+        final int[] x = new int[n];
+        final int[] y = new int[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = random.nextInt(100000);
+            y[i] = random.nextInt(100000);
+        }
+        final Cities cities = new Cities(null, x, y);
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            final TSPDivideAndConquer solver = new TSPDivideAndConquer(1000, 500, pool);
+            final int[] tour = solver.solve(cities, 7);
+            Assert.assertEquals(4, solver.getNumPartitions());
+            Assert.assertEquals(n + 1, tour.length);
+            Assert.assertEquals(7, tour[0]);
+            Assert.assertEquals(7, tour[n]);
+            Assert.assertEquals(n, Arrays.stream(tour).distinct().count());
+            //repairing the joins never makes the stitched tour longer, however little time it had
+            Assert.assertTrue(cities.tourCost(tour) <= solver.getStitchedCost() + 1e-6);
+            Assert.assertTrue(solver.getCitiesPerSecond() > 0);
+            //a few cities still make valid partitions of one or two
+            final Cities few = new Cities(null, new int[]{0, 5, 9, 3, 7}, new int[]{4, 1, 8, 8, 0});
+            final int[] small = new TSPDivideAndConquer(10, 2, pool).solve(few, 0);
+            Assert.assertEquals(5, Arrays.stream(small).distinct().count());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testAnytime() throws Exception {
+        final URL testData = this.getClass().getClassLoader().getResource("randTSP/12/instance_1.txt");
+        final URL problem36 = this.getClass().getClassLoader().getResource("randTSP/problem36");
+        if (testData == null || problem36 == null) {
+            return;
+        }
+        final Cities cities = CityParser.parse(testData.getPath()).sortedByName();
+        final double optimalCost = cities.tourCost(TSPSearch.searchGraph(cities, 0));
+        final List<TSPAnytime.Incumbent> incumbents = new ArrayList<>();
+        final TSPAnytime.Incumbent best = new TSPAnytime(cities, 0).solve(60000, incumbents::add);
+        Assert.assertSame(best, incumbents.get(incumbents.size() - 1));
+        for (int i = 0; i < incumbents.size(); i++) {
+            final TSPAnytime.Incumbent incumbent = incumbents.get(i);
+            Assert.assertEquals(cities.tourCost(incumbent.getTour()), incumbent.getCost(), 1e-9);
+            Assert.assertTrue(incumbent.getLowerBound() <= optimalCost + 1e-9);
+            if (i > 0) {
+                final TSPAnytime.Incumbent previous = incumbents.get(i - 1);
+                Assert.assertTrue(incumbent.getCost() < previous.getCost() || incumbent.getLowerBound() > previous.getLowerBound());
+            }
+        }
+        Assert.assertTrue(best.isOptimal());
+        Assert.assertEquals(optimalCost, best.getCost(), 1e-9);
+        //problem36 takes far longer than the deadline to solve exactly
+        final Cities large = CityParser.parse(problem36.getPath()).sortedByName();
+        final long start = System.nanoTime();
+        final TSPAnytime.Incumbent early = new TSPAnytime(large, 0).solve(50, incumbent -> { });
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        Assert.assertEquals(large.size(), Arrays.stream(early.getTour()).distinct().count());
+        Assert.assertFalse(early.isOptimal());
+        Assert.assertTrue(early.getLowerBound() > 0 && early.getLowerBound() < early.getCost());
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            //a subscriber that takes one incumbent and cancels stops the search long before its deadline
+            final CountDownLatch received = new CountDownLatch(1);
+            new TSPAnytime(large, 0).publisher(600000, executor).subscribe(new Flow.Subscriber<TSPAnytime.Incumbent>() {
+                private Flow.Subscription subscription;
+
+                @Override
+                public void onSubscribe(final Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(final TSPAnytime.Incumbent item) {
+                    subscription.cancel();
+                    received.countDown();
+                }
+
+                @Override
+                public void onError(final Throwable throwable) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+            Assert.assertTrue(received.await(10, TimeUnit.SECONDS));
+            Assert.assertFalse(executor.submit(() -> Thread.currentThread().isInterrupted()).get(10, TimeUnit.SECONDS));
+            //a subscriber that takes everything gets the optimal tour last
+            final CompletableFuture<TSPAnytime.Incumbent> last = new CompletableFuture<>();
+            new TSPAnytime(cities, 0).publisher(60000, executor).subscribe(new Flow.Subscriber<TSPAnytime.Incumbent>() {
+                private TSPAnytime.Incumbent latest;
+
+                @Override
+                public void onSubscribe(final Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(final TSPAnytime.Incumbent item) {
+                    latest = item;
+                }
+
+                @Override
+                public void onError(final Throwable throwable) {
+                    last.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    last.complete(latest);
+                }
+            });
+            Assert.assertTrue(last.get(60, TimeUnit.SECONDS).isOptimal());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testOpenLists() {
+        final Random random = new Random(486);
+        for (final OpenList open : new OpenList[]{new HeapOpenList(2), new HeapOpenList(), new HeapOpenList(7), new BucketOpenList(0.5)}) {
+            //entries are (f, g) pairs indexed by handle; few distinct values so that there are plenty of ties
+            final double[] f = new double[5000];
+            final double[] g = new double[f.length];
+            final PriorityQueue<Integer> expected = new PriorityQueue<>(
+                    Comparator.comparingDouble((Integer i) -> f[i]).thenComparing(i -> -g[i]));
+            for (int round = 0; round < 2; round++) {
+                open.clear();
+                expected.clear();
+                int next = 0;
+                while (next < f.length || !expected.isEmpty()) {
+                    if (next < f.length && (expected.isEmpty() || random.nextInt(3) > 0)) {
+                        f[next] = random.nextInt(200) / 4.0;
+                        g[next] = random.nextInt(10);
+                        open.add(next, f[next], g[next]);
+                        expected.add(next++);
+                    } else {
+                        final int polled = open.poll();
+                        final int top = expected.poll();
+                        Assert.assertEquals(open.toString(), f[top], f[polled], 0);
+                        Assert.assertEquals(open.toString(), g[top], g[polled], 0);
+                    }
+                    Assert.assertEquals(expected.size(), open.size());
+                }
+            }
+        }
+        for (int i = 1; i <= 12; i++) {
+            final URL testData = this.getClass().getClassLoader().getResource("randTSP/" + i + "/instance_1.txt");
+            if (testData != null) {
+                final DistanceMatrix matrix = DistanceMatrix.fromFile(testData.getPath());
+                final double cost = matrix.tourCost(TSPSearch.searchGraph(matrix, 0));
+                final int[] bucketPath = TSPSearch.searchGraph(matrix, 0, new MSTHeuristic(matrix, 0), Double.POSITIVE_INFINITY,
+                        new SearchStats(), Integer.MAX_VALUE, lowerBound -> { }, new BucketOpenList(1));
+                Assert.assertEquals(cost, matrix.tourCost(bucketPath), 1e-9);
+                final int[] treePath = TSPSearch.search(matrix, 0, new MSTHeuristic(matrix, 0), Double.POSITIVE_INFINITY,
+                        new SearchStats(), new BucketOpenList(1));
+                Assert.assertEquals(cost, matrix.tourCost(treePath), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testExternalFrontier() throws IOException {
+        final Path directory = Files.createTempDirectory("frontier");
+        try {
+            final Random random = new Random(486);
+            //the smallest budget keeps 1024 states in memory, so 20000 states spill enough runs to be merged
+            try (ExternalFrontier frontier = new ExternalFrontier(0, directory)) {
+                final PriorityQueue<double[]> expected = new PriorityQueue<>(
+                        Comparator.comparingDouble((double[] s) -> s[0] + s[1]).thenComparing(s -> -s[0]));
+                int added = 0;
+                while (added < 20000 || !expected.isEmpty()) {
+                    if (added < 20000 && (expected.isEmpty() || random.nextInt(4) > 0)) {
+                        final double g = random.nextInt(10);
+                        final double h = random.nextInt(200) / 4.0;
+                        frontier.add(added, added % 64, g, h, added);
+                        expected.add(new double[]{g, h});
+                        added++;
+                    } else {
+                        frontier.poll();
+                        final double[] top = expected.poll();
+                        Assert.assertEquals(top[0] + top[1], frontier.cost() + frontier.estimate(), 0);
+                        Assert.assertEquals(top[0], frontier.cost(), 0);
+                        Assert.assertEquals(frontier.parent() % 64, frontier.city());
+                        Assert.assertEquals(frontier.parent(), frontier.mask());
+                    }
+                    Assert.assertEquals(expected.size(), frontier.size());
+                    Assert.assertTrue(frontier.getNumOpenRuns() <= ExternalFrontier.MAX_RUNS);
+                }
+                Assert.assertTrue(frontier.getNumRuns() > ExternalFrontier.MAX_RUNS);
+            }
+            final URL testData = this.getClass().getClassLoader().getResource("randTSP/16/instance_1.txt");
+            if (testData != null) {
+                final DistanceMatrix matrix = DistanceMatrix.fromFile(testData.getPath());
+                final double cost = matrix.tourCost(TSPSearch.searchGraph(matrix, 0));
+                try (ExternalFrontier frontier = new ExternalFrontier(0, directory)) {
+                    final int[] path = TSPSearch.searchGraph(matrix, 0, new MSTHeuristic(matrix, 0), Double.POSITIVE_INFINITY,
+                            new SearchStats(), frontier);
+                    Assert.assertTrue(frontier.getNumSpilled() > 0);
+                    Assert.assertEquals(cost, matrix.tourCost(path), 1e-9);
+                    Assert.assertEquals(17, path.length);
+                }
+            }
+            //run files are deleted as soon as they are mapped
+            try (Stream<Path> files = Files.list(directory)) {
+                Assert.assertEquals(0, files.count());
+            }
+        } finally {
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testDaemon() throws IOException {
+        final Random random = new Random(486);
+        final int[] x = new int[12];
+        final int[] y = new int[12];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = random.nextInt(100);
+            y[i] = random.nextInt(100);
+        }
+        final String[] names = new String[x.length];
+        Arrays.setAll(names, Integer::toString);
+        final DistanceMatrix matrix = new DistanceMatrix(names, x, y);
+        final double cost = matrix.tourCost(TSPSearch.searchGraph(matrix, 3));
+        final Path directory = Files.createTempDirectory("daemon");
+        final SocketAddress[] addresses = {new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                UnixDomainSocketAddress.of(directory.resolve("tsp.sock"))};
+        try {
+            for (final SocketAddress address : addresses) {
+                try (TSPDaemon daemon = new TSPDaemon(address, 1, 0, 2);
+                     TSPDaemon.Client client = new TSPDaemon.Client(daemon.getAddress())) {
+                    //the same connection carries many requests, each solved with the buffers of the last
+                    for (int i = 0; i < 3; i++) {
+                        final TSPDaemon.Reply reply = client.solve(x, y, 3, 10000);
+                        Assert.assertEquals(TSPDaemon.EXACT, reply.status);
+                        Assert.assertEquals(cost, reply.cost, 1e-9);
+                        Assert.assertEquals(cost, matrix.tourCost(reply.tour), 1e-9);
+                        Assert.assertEquals(3, reply.tour[0]);
+                    }
+                    final int[] largeX = random.ints(200, 0, 1000).toArray();
+                    final int[] largeY = random.ints(200, 0, 1000).toArray();
+                    final TSPDaemon.Reply large = client.solve(largeX, largeY, 0, 100);
+                    Assert.assertEquals(TSPDaemon.APPROXIMATE, large.status);
+                    Assert.assertEquals(201, large.tour.length);
+                    Assert.assertEquals(200, Arrays.stream(large.tour).distinct().count());
+                    final long[] latencies = client.latencies();
+                    Assert.assertEquals(4, Arrays.stream(latencies).sum());
+                    Assert.assertEquals(4, daemon.getLatencies().count());
+                    Assert.assertEquals(4, daemon.getNumSolved());
+                    //a bad request is refused and ends the connection
+                    try {
+                        client.solve(x, y, x.length, 100);
+                        Assert.fail("Start city out of range");
+                    } catch (IllegalArgumentException e) {
+                        //expected
+                    }
+                }
+            }
+            Assert.assertFalse(Files.exists(directory.resolve("tsp.sock")));
+        } finally {
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testDaemonBusy() throws Exception {
+        final Random random = new Random(486);
+        final int[] x = random.ints(12, 0, 100).toArray();
+        final int[] y = random.ints(12, 0, 100).toArray();
+        final int[] largeX = random.ints(2000, 0, 100000).toArray();
+        final int[] largeY = random.ints(2000, 0, 100000).toArray();
+        //one solver and no queue, so a second instance is turned away while the first is being solved
+        try (TSPDaemon daemon = new TSPDaemon(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1, 0, 2);
+             TSPDaemon.Client first = new TSPDaemon.Client(daemon.getAddress());
+             TSPDaemon.Client second = new TSPDaemon.Client(daemon.getAddress())) {
+            final ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                final Future<TSPDaemon.Reply> slow = executor.submit(() -> first.solve(largeX, largeY, 0, 1000));
+                while (daemon.getNumPending() == 0) {
+                    Thread.sleep(1);
+                }
+                //more coordinates than the socket buffer holds, which are skipped past
+                final int[] hugeX = new int[50000];
+                final int[] hugeY = new int[50000];
+                final TSPDaemon.Reply busy = second.solve(hugeX, hugeY, 0, 1000);
+                Assert.assertEquals(TSPDaemon.BUSY, busy.status);
+                Assert.assertNull(busy.tour);
+                Assert.assertEquals(1, daemon.getNumRejected());
+                //the connection is still in step with its requests
+                Assert.assertEquals(0, Arrays.stream(second.latencies()).sum());
+                final TSPDaemon.Reply approximate = slow.get();
+                Assert.assertEquals(TSPDaemon.APPROXIMATE, approximate.status);
+                Assert.assertEquals(2000, Arrays.stream(approximate.tour).distinct().count());
+                Assert.assertEquals(TSPDaemon.EXACT, second.solve(x, y, 0, 10000).status);
+                Assert.assertEquals(0, daemon.getNumPending());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void testSolutionCache() throws IOException {
+        final URL testData = this.getClass().getClassLoader().getResource("randTSP/10/instance_1.txt");
+        if (testData != null) {
+            final Path file = Files.createTempFile("solutions", ".cache");
+            Files.delete(file);
+            try {
+                final Cities cities = CityParser.parse(testData.getPath()).sortedByName();
+                final int n = cities.size();
+                final int[] optimal = TSPSearch.searchGraph(cities, 0);
+                //the same instance shifted, with its cities renamed and listed in another order
+                final List<Integer> shuffled = new ArrayList<>();
+                for (int i = 0; i < n; i++) {
+                    shuffled.add(i);
+                }
+                Collections.shuffle(shuffled, new Random(486));
+                final String[] names = new String[n];
+                final int[] x = new int[n];
+                final int[] y = new int[n];
+                for (int i = 0; i < n; i++) {
+                    names[i] = "city" + i;
+                    x[i] = cities.x[shuffled.get(i)] + 1000;
+                    y[i] = cities.y[shuffled.get(i)] - 37;
+                }
+                final Cities moved = new Cities(names, x, y);
+                try (SolutionCache cache = new SolutionCache(file, SolutionCache.WAYS)) {
+                    Assert.assertNull(cache.get(cities, 0));
+                    Assert.assertTrue(cache.put(cities, optimal));
+                }
+                try (SolutionCache cache = new SolutionCache(file)) {
+                    //an existing file keeps its capacity
+                    Assert.assertEquals(SolutionCache.WAYS, cache.capacity());
+                    final int[] tour = cache.solve(moved, 3, (c, start) -> {
+                        throw new AssertionError("Cached instance was solved again");
+                    });
+                    Assert.assertEquals(n + 1, tour.length);
+                    Assert.assertEquals(3, tour[0]);
+                    Assert.assertEquals(3, tour[n]);
+                    Assert.assertEquals(n, Arrays.stream(tour).distinct().count());
+                    Assert.assertEquals(cities.tourCost(optimal), moved.tourCost(tour), 1e-9);
+                    Assert.assertEquals(1, cache.getHits());
+                    //filling the only set evicts the least recently used tour
+                    final Random random = new Random(486);
+                    Cities last = null;
+                    for (int i = 0; i < SolutionCache.WAYS; i++) {
+                        last = new Cities(null, random.ints(6, 0, 100).toArray(), random.ints(6, 0, 100).toArray());
+                        cache.solve(last, 0, TSPSearch::searchGraph);
+                    }
+                    Assert.assertNull(cache.get(cities, 0));
+                    Assert.assertNotNull(cache.get(last, 0));
+                    //the same coordinates under another metric are another instance
+                    final Cities rounded = new Cities(null, last.x, last.y, Metric.EUC_2D);
+                    Assert.assertNull(cache.get(rounded, 0));
+                    Assert.assertTrue(cache.put(rounded, TSPSearch.searchGraph(rounded, 0)));
+                    Assert.assertNotNull(cache.get(rounded, 0));
+                    Assert.assertNotNull(cache.get(last, 0));
+                }
+                Assert.assertEquals(0, SolutionCache.MAX_CAPACITY % SolutionCache.WAYS);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void testSession() {
+        final URL testData = this.getClass().getClassLoader().getResource("randTSP/10/instance_1.txt");
+        if (testData != null) {
+            final Map<String, Position> cities = CityParser.parse(testData.getPath()).toMap();
+            final TSPSession session = new TSPSession(cities, "A");
+            final Random random = new Random(486);
+            for (int change = 0; change < 12; change++) {
+                if (change % 3 == 0) {
+                    final String name = "N" + change;
+                    final Position position = new Position(random.nextInt(100), random.nextInt(100));
+                    cities.put(name, position);
+                    session.addCity(name, position);
+                } else {
+                    final List<String> names = new ArrayList<>(cities.keySet());
+                    names.remove("A");
+                    Collections.sort(names);
+                    final String name = names.get(random.nextInt(names.size()));
+                    if (change % 3 == 1) {
+                        cities.remove(name);
+                        session.removeCity(name);
+                    } else {
+                        final Position position = new Position(random.nextInt(100), random.nextInt(100));
+                        cities.put(name, position);
+                        session.moveCity(name, position);
+                    }
+                }
+                //the repaired tour visits every city once
+                final List<String> repaired = session.tour();
+                Assert.assertEquals(cities.size() + 1, repaired.size());
+                Assert.assertEquals(cities.keySet(), new HashSet<>(repaired));
+                final DistanceMatrix matrix = new DistanceMatrix(cities);
+                final double optimal = matrix.tourCost(TSPSearch.searchGraph(matrix, matrix.id("A")));
+                Assert.assertTrue(session.lowerBound() <= optimal + 1e-9);
+                final List<String> tour = session.optimize(60000);
+                Assert.assertTrue(session.isOptimal());
+                Assert.assertEquals("A", tour.get(0));
+                Assert.assertEquals(optimal, session.cost(), 1e-9);
+                Assert.assertEquals(optimal, session.lowerBound(), 1e-9);
+            }
+            try {
+                session.removeCity("A");
+                Assert.fail("Removed the start city");
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void testGraphSearchAgainstTreeSearch() {
+        for (int i = 1; i <= 12; i++) {
+            for (int j = 1; j <= 10; j++) {
+                final URL testData = this.getClass().getClassLoader().getResource("randTSP/" + i + "/instance_" + j + ".txt");
+                if (testData != null) {
+                    final DistanceMatrix matrix = DistanceMatrix.fromFile(testData.getPath());
+                    final int[] treePath = TSPSearch.search(matrix, matrix.id("A"));
+                    final int[] graphPath = TSPSearch.searchGraph(matrix, matrix.id("A"));
+                    Assert.assertEquals(treePath.length, graphPath.length);
+                    Assert.assertEquals(matrix.tourCost(treePath), matrix.tourCost(graphPath), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSearchStats() throws IOException {
+        final URL testData = this.getClass().getClassLoader().getResource("randTSP/12/instance_1.txt");
+        if (testData != null) {
+            final DistanceMatrix matrix = DistanceMatrix.fromFile(testData.getPath());
+            final SearchStats stats = new SearchStats();
+            final Path file = Files.createTempFile("search", ".jfr");
+            final int[] path;
+            try (Recording recording = new Recording()) {
+                recording.enable("tsp.SearchStart");
+                recording.enable("tsp.SearchFinish");
+                recording.start();
+                path = TSPSearch.searchGraph(matrix, 0, new MSTHeuristic(matrix, 0), Double.POSITIVE_INFINITY, stats);
+                recording.stop();
+                recording.dump(file);
+            }
+            Assert.assertEquals(matrix.tourCost(TSPSearch.searchGraph(matrix, 0)), matrix.tourCost(path), 1e-9);
+            Assert.assertTrue(stats.getNumExpanded() > 0);
+            Assert.assertTrue(stats.getNumGenerated() >= stats.getNumExpanded());
+            Assert.assertTrue(stats.getNumDuplicates() > 0);
+            Assert.assertTrue(stats.getPeakOpenSize() > 0);
+            Assert.assertTrue(stats.getHeuristicNanos() + stats.getQueueNanos() <= stats.getElapsedNanos());
+            final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            Files.delete(file);
+            Assert.assertEquals(2, events.size());
+            final RecordedEvent finish = events.stream()
+                    .filter(e -> e.getEventType().getName().equals("tsp.SearchFinish"))
+                    .findFirst().get();
+            Assert.assertEquals(stats.getNumGenerated(), finish.getLong("numGenerated"));
+            Assert.assertEquals(matrix.tourCost(path), finish.getDouble("tourCost"), 1e-9);
+        }
+    }
+
+    @Test
+    public void testIterativeDeepeningAgainstSearch() {
+        for (int i = 1; i <= 16; i++) {
+            for (int j = 1; j <= 10; j++) {
+                final URL testData = this.getClass().getClassLoader().getResource("randTSP/" + i + "/instance_" + j + ".txt");
+                if (testData != null) {
+                    final DistanceMatrix matrix = DistanceMatrix.fromFile(testData.getPath());
+                    final int[] searchPath = TSPSearch.searchGraph(matrix, matrix.id("A"));
+                    final int[] deepeningPath = new TSPIterativeDeepening(matrix, matrix.id("A")).search();
+                    Assert.assertEquals(searchPath.length, deepeningPath.length);
+                    Assert.assertEquals(matrix.tourCost(searchPath), matrix.tourCost(deepeningPath), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPartialExpansionAgainstSearch() {
+        for (int i = 1; i <= 16; i++) {
+            for (int j = 1; j <= 10; j++) {
+                final URL testData = this.getClass().getClassLoader().getResource("randTSP/" + i + "/instance_" + j + ".txt");
+                if (testData != null) {
+                    final DistanceMatrix matrix = DistanceMatrix.fromFile(testData.getPath());
+                    final int[] searchPath = TSPSearch.searchGraph(matrix, matrix.id("A"));
+                    final int[] partialPath = TSPSearch.searchPartial(matrix, matrix.id("A"));
+                    Assert.assertEquals(searchPath.length, partialPath.length);
+                    Assert.assertEquals(matrix.tourCost(searchPath), matrix.tourCost(partialPath), 1e-9);
+                }
+            }
+        }
+        final URL testData = this.getClass().getClassLoader().getResource("randTSP/16/instance_1.txt");
+        if (testData != null) {
+            //without an upper bound to prune them, plain A* enqueues every successor it estimates
+            final DistanceMatrix matrix = DistanceMatrix.fromFile(testData.getPath());
+            final SearchStats graph = new SearchStats();
+            final SearchStats partial = new SearchStats();
+            TSPSearch.searchGraph(matrix, 0, new MSTHeuristic(matrix, 0), Double.POSITIVE_INFINITY, graph);
+            TSPSearch.searchPartial(matrix, 0, new MSTHeuristic(matrix, 0), Double.POSITIVE_INFINITY, partial);
+            Assert.assertTrue(partial.getNumGenerated() * 3 < graph.getNumGenerated());
+            Assert.assertTrue(partial.getPeakOpenSize() * 2 < graph.getPeakOpenSize());
+        }
+    }
+
+    @Test
+    public void testNearestNeighbourLocalSearch() {
+        final Random random = new Random(486);
+        final String[] names = new String[300];
+        final int[] x = new int[names.length];
+        final int[] y = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "C" + i;
+            x[i] = random.nextInt(1000);
+            y[i] = random.nextInt(1000);
+        }
+        final DistanceMatrix matrix = new DistanceMatrix(names, x, y);
+        final int[] order = TSPNearestNeighbour.nearestNeighbourOrder(matrix, 0);
+        final double nearestNeighbourCost = matrix.tourCost(TSPNearestNeighbour.closeTour(order, 0));
+        final int[] tour = TSPNearestNeighbour.solve(matrix, 0);
+        Assert.assertEquals(names.length + 1, tour.length);
+        Assert.assertEquals(0, tour[0]);
+        Assert.assertEquals(0, tour[names.length]);
+        final Set<Integer> visited = new HashSet<>();
+        for (final int city : tour) {
+            visited.add(city);
+        }
+        Assert.assertEquals(names.length, visited.size());
+        Assert.assertTrue(matrix.tourCost(tour) < nearestNeighbourCost);
+    }
+
+    @Test
+    public void testOneTreeHeuristic() {
+        for (int i = 2; i <= 16; i++) {
+            final URL testData = this.getClass().getClassLoader().getResource("randTSP/" + i + "/instance_1.txt");
+            if (testData != null) {
+                final DistanceMatrix matrix = DistanceMatrix.fromFile(testData.getPath());
+                final int[] mstPath = TSPSearch.searchGraph(matrix, 0, new MSTHeuristic(matrix, 0));
+                final OneTreeHeuristic oneTree = new OneTreeHeuristic(matrix, 0);
+                //the bound from the start state can't exceed the optimal tour
+                Assert.assertTrue(oneTree.estimate(1L, 0) <= matrix.tourCost(mstPath) + 1e-9);
+                final int[] oneTreePath = TSPSearch.searchGraph(matrix, 0, oneTree);
+                Assert.assertEquals(matrix.tourCost(mstPath), matrix.tourCost(oneTreePath), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelSearchAgainstSearch() {
+        for (int i = 1; i <= 16; i++) {
+            for (int j = 1; j <= 3; j++) {
+                final URL testData = this.getClass().getClassLoader().getResource("randTSP/" + i + "/instance_" + j + ".txt");
+                if (testData != null) {
+                    final DistanceMatrix matrix = DistanceMatrix.fromFile(testData.getPath());
+                    final int[] searchPath = TSPSearch.searchGraph(matrix, 0);
+                    final int[] parallelPath = new TSPParallelSearch(matrix, 0, 4, () -> new MSTHeuristic(matrix, 0)).search();
+                    Assert.assertEquals(searchPath.length, parallelPath.length);
+                    Assert.assertEquals(matrix.tourCost(searchPath), matrix.tourCost(parallelPath), 1e-9);
+                    final int[] oneTreePath = new TSPParallelSearch(matrix, 0, 3, () -> new OneTreeHeuristic(matrix, 0)).search();
+                    Assert.assertEquals(matrix.tourCost(searchPath), matrix.tourCost(oneTreePath), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHeldKarpAgainstBruteForce() {
+        for (int i = 1; i <= 10; i++) {
+            for (int j = 1; j <= 10; j++) {
+                final URL testData = this.getClass().getClassLoader().getResource("randTSP/" + i + "/instance_" + j + ".txt");
+                if (testData != null) {
+                    final Map<String, Position> cities = TSPUtils.readCities(testData.getPath());
+                    final List<String> heldKarpPath = TSPHeldKarp.solve(testData.getPath());
+                    final List<String> bruteForcePath = TSPBruteForce.bruteForce(testData.getPath());
+                    //the dynamic programming table is kept in floats
+                    Assert.assertEquals(totalCost(cities, bruteForcePath), totalCost(cities, heldKarpPath), 1e-3);
+                    Assert.assertEquals(bruteForcePath.size(), heldKarpPath.size());
+                    Assert.assertEquals(new HashSet<>(cities.keySet()), new HashSet<>(heldKarpPath));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHeuristicCache() {
+        final URL testData = this.getClass().getClassLoader().getResource("randTSP/12/instance_1.txt");
+        if (testData != null) {
+            final DistanceMatrix matrix = DistanceMatrix.fromFile(testData.getPath());
+            //tiny capacity so that entries get evicted
+            final HeuristicCache cache = new HeuristicCache(8);
+            final long visited = 0b10011;
+            for (int city : new int[]{0, 1, 4}) {
+                final double uncached = TSPHeuristics.computeHeuristic(matrix, visited, city, 0);
+                Assert.assertTrue(TSPHeuristics.computeHeuristic(matrix, visited, city, 0, cache) == uncached);
+                Assert.assertTrue(TSPHeuristics.computeHeuristic(matrix, visited, city, 0, cache) == uncached);
+            }
+            Assert.assertEquals(3, cache.getSpanningCostHits());
+            Assert.assertEquals(3, cache.getSpanningCostMisses());
+            Assert.assertEquals(5, cache.getNearestToStartHits());
+            Assert.assertEquals(1, cache.getNearestToStartMisses());
+            final int[] cachedPath = TSPSearch.searchGraph(matrix, 0, new MSTHeuristic(matrix, 0, cache));
+            Assert.assertEquals(matrix.tourCost(TSPSearch.searchGraph(matrix, 0)), matrix.tourCost(cachedPath), 1e-9);
+            Assert.assertTrue(cache.getEvictions() > 0);
+            //the same unvisited cities are at different distances from the two start cities
+            for (final int start : new int[]{0, 1}) {
+                Assert.assertTrue(TSPHeuristics.computeHeuristic(matrix, 0b11, 1 - start, start, cache)
+                        == TSPHeuristics.computeHeuristic(matrix, 0b11, 1 - start, start));
+            }
+            try {
+                new MSTHeuristic(DistanceMatrix.fromFile(testData.getPath()), 0, cache);
+                Assert.fail("Cache shared between matrices");
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        }
+    }
+
     @Test
     public void testBruteForce() {
         final URL testData = this.getClass().getClassLoader().getResource("randTSP/4/instance_1.txt");
@@ -91,6 +977,25 @@ public class TSPTest {
         }
     }
 
+    @Test
+    public void testConcurrentBruteForce() throws Exception {
+        final URL first = this.getClass().getClassLoader().getResource("randTSP/14/instance_1.txt");
+        final URL second = this.getClass().getClassLoader().getResource("randTSP/14/instance_2.txt");
+        if (first != null && second != null) {
+            final DistanceMatrix firstMatrix = DistanceMatrix.fromFile(first.getPath());
+            final DistanceMatrix secondMatrix = DistanceMatrix.fromFile(second.getPath());
+            final ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                final Future<int[]> firstPath = executor.submit(() -> new TSPBruteForce(firstMatrix, 0).solve());
+                final Future<int[]> secondPath = executor.submit(() -> new TSPBruteForce(secondMatrix, 0).solve());
+                Assert.assertEquals(firstMatrix.tourCost(TSPHeldKarp.solve(firstMatrix, 0)), firstMatrix.tourCost(firstPath.get()), 1e-3);
+                Assert.assertEquals(secondMatrix.tourCost(TSPHeldKarp.solve(secondMatrix, 0)), secondMatrix.tourCost(secondPath.get()), 1e-3);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
     @Test
     public void generateAdjacencyMatrix() {
         final URL testData = this.getClass().getClassLoader().getResource("filesToTest.txt");